@@ -0,0 +1,93 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Detections appended to a journal must come back, per species, when it is reopened: from the log
+// alone, through compacted snapshots, and after a torn write at the end of the log.
+class DetectionJournalTest {
+    private static final int SPECIES = 50;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(ints = {100, Integer.MAX_VALUE})
+    void reopenedJournalRestoresEveryDetection(int compactRecords) throws Exception {
+        Path file = directory.resolve("detections.journal");
+        Map<String, Long> counts = new HashMap<>();
+        Map<String, Set<String>> features = new HashMap<>();
+        DetectionJournal journal = new DetectionJournal(file, compactRecords, false);
+        journal.restored().get();
+        appendSynthetic(journal, 5000, new Random(42), counts, features);
+        journal.close();
+
+        assertRestored(file, compactRecords, counts, features);
+    }
+
+    @Test
+    void tornRecordIsDroppedAndLaterAppendsSurvive() throws Exception {
+        Path file = directory.resolve("detections.journal");
+        Map<String, Long> counts = new HashMap<>();
+        Map<String, Set<String>> features = new HashMap<>();
+        Random random = new Random(42);
+        DetectionJournal journal = new DetectionJournal(file, Integer.MAX_VALUE, false);
+        journal.restored().get();
+        appendSynthetic(journal, 200, random, counts, features);
+        journal.close();
+
+        // A record header promising more bytes than were written, as after a crash mid-write.
+        Files.write(file, new byte[] {0, 0, 0, 64, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+        DetectionJournal reopened = new DetectionJournal(file, Integer.MAX_VALUE, false);
+        assertEquals(counts.size(), reopened.restored().get().size());
+        appendSynthetic(reopened, 200, random, counts, features);
+        reopened.close();
+
+        assertRestored(file, Integer.MAX_VALUE, counts, features);
+    }
+
+    private static void appendSynthetic(DetectionJournal journal, int count, Random random,
+                                        Map<String, Long> counts, Map<String, Set<String>> features) {
+        for (int i = 0; i < count; i++) {
+            String leafType = "Species " + random.nextInt(SPECIES);
+            JSONArray array = new JSONArray();
+            for (int f = 0; f < 5; f++) {
+                String feature = "feature " + random.nextInt(SPECIES * 3);
+                array.put(feature);
+                features.computeIfAbsent(leafType, k -> new HashSet<>()).add(feature);
+            }
+            counts.merge(leafType, 1L, Long::sum);
+            journal.append(new JSONObject().put("leaf_type", leafType).put("features", array)
+                .put("confidence", random.nextDouble()));
+        }
+    }
+
+    private static void assertRestored(Path file, int compactRecords, Map<String, Long> counts,
+                                       Map<String, Set<String>> features) throws Exception {
+        DetectionJournal journal = new DetectionJournal(file, compactRecords, false);
+        try {
+            List<JSONObject> leaves = journal.restored().get();
+            assertEquals(counts.size(), leaves.size());
+            for (JSONObject leaf : leaves) {
+                String leafType = leaf.getString("leaf_type");
+                assertEquals(counts.get(leafType), leaf.getLong("count"), leafType);
+                Set<String> restored = new HashSet<>();
+                for (Object feature : leaf.getJSONArray("features")) {
+                    restored.add((String) feature);
+                }
+                assertEquals(features.get(leafType), restored, leafType);
+            }
+        } finally {
+            journal.close();
+        }
+    }
+}
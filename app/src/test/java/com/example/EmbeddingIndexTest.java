@@ -0,0 +1,97 @@
+package com.example;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The HNSW search against an exact scan on clustered synthetic embeddings, large enough that the
+// graph is searched rather than scanned, and the saved index against the one it was saved from.
+class EmbeddingIndexTest {
+    private static final int COUNT = 5000;
+    private static final int K = 10;
+
+    private static EmbeddingIndex index;
+    private static float[][] points;
+    private static float[][] probes;
+
+    @BeforeAll
+    static void buildIndex() {
+        // Clustered like real embeddings: points scattered around 100 centres.
+        Random random = new Random(1);
+        float[][] centres = new float[100][EmbeddingIndex.DIMENSION];
+        for (float[] centre : centres) {
+            for (int i = 0; i < EmbeddingIndex.DIMENSION; i++) {
+                centre[i] = (float) random.nextGaussian();
+            }
+        }
+        points = new float[COUNT][EmbeddingIndex.DIMENSION];
+        index = new EmbeddingIndex();
+        for (int p = 0; p < COUNT; p++) {
+            float[] centre = centres[random.nextInt(centres.length)];
+            for (int i = 0; i < EmbeddingIndex.DIMENSION; i++) {
+                points[p][i] = centre[i] + 0.5f * (float) random.nextGaussian();
+            }
+            assertTrue(index.add("k" + p, "image" + p + ".jpg", "label", points[p]));
+        }
+        probes = new float[500][];
+        for (int q = 0; q < probes.length; q++) {
+            probes[q] = points[random.nextInt(COUNT)].clone();
+            for (int i = 0; i < EmbeddingIndex.DIMENSION; i++) {
+                probes[q][i] += 0.2f * (float) random.nextGaussian();
+            }
+        }
+    }
+
+    @Test
+    void graphSearchFindsTheExactNeighbors() {
+        int hits = 0;
+        for (float[] probe : probes) {
+            Set<String> exact = new HashSet<>();
+            for (EmbeddingIndex.Match match : index.nearestExact(probe, K, null)) {
+                exact.add(match.key);
+            }
+            List<EmbeddingIndex.Match> approximate = index.nearest(probe, K, null);
+            assertEquals(K, approximate.size());
+            for (EmbeddingIndex.Match match : approximate) {
+                hits += exact.contains(match.key) ? 1 : 0;
+            }
+        }
+        double recall = hits / (double) (K * probes.length);
+        assertTrue(recall >= 0.95, String.format("recall@%d %.3f", K, recall));
+    }
+
+    @Test
+    void excludedKeyIsLeftOut() {
+        List<EmbeddingIndex.Match> matches = index.nearest(points[0], K, "k0");
+        assertEquals(K, matches.size());
+        for (EmbeddingIndex.Match match : matches) {
+            assertNotEquals("k0", match.key);
+        }
+        assertEquals("k0", index.nearest(points[0], 1, null).get(0).key);
+    }
+
+    @Test
+    void loadedIndexGivesTheSameAnswers(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("embeddings.bin");
+        index.save(file);
+        EmbeddingIndex loaded = EmbeddingIndex.load(file);
+        assertEquals(COUNT, loaded.size());
+        for (int q = 0; q < 50; q++) {
+            assertEquals(keys(index.nearest(probes[q], K, null)), keys(loaded.nearest(probes[q], K, null)));
+        }
+    }
+
+    private static List<String> keys(List<EmbeddingIndex.Match> matches) {
+        List<String> keys = new ArrayList<>();
+        for (EmbeddingIndex.Match match : matches) {
+            keys.add(match.key);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example;
+
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.view.mxGraph;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Edge visibility is flipped in place: toggling must not create cells or hold on to memory, and edges added
+// while hidden must show with the others.
+class GraphDisplayTest {
+    private static final int LEAVES = 300;
+    private static final int FEATURES_PER_LEAF = 6;
+    private static final long HEAP_SLACK = 4L << 20;
+
+    @Test
+    void togglingEdgesKeepsCellCountAndHeap() throws Throwable {
+        onEdt(() -> {
+            GraphDisplay display = syntheticDisplay(new Random(42));
+            mxGraph graph = display.getGraph();
+            mxIGraphModel model = graph.getModel();
+            Object parent = graph.getDefaultParent();
+
+            display.toggleEdges();
+            display.toggleEdges();
+            int cellsBefore = model.getChildCount(parent);
+            long heapBefore = usedHeapAfterGc();
+            for (int i = 0; i < 5000; i++) {
+                display.toggleEdges();
+            }
+            int cellsAfter = model.getChildCount(parent);
+            long heapAfter = usedHeapAfterGc();
+
+            assertEquals(cellsBefore, cellsAfter, "cell count after toggling");
+            assertTrue(heapAfter <= heapBefore + HEAP_SLACK,
+                String.format("heap after GC grew by %.1f MB", (heapAfter - heapBefore) / 1048576.0));
+        });
+    }
+
+    @Test
+    void edgesAddedWhileHiddenShowWithTheOthers() throws Throwable {
+        onEdt(() -> {
+            Random random = new Random(42);
+            GraphDisplay display = syntheticDisplay(random);
+            mxGraph graph = display.getGraph();
+            mxIGraphModel model = graph.getModel();
+            Object parent = graph.getDefaultParent();
+
+            assertFalse(display.toggleEdges());
+            int edgesBefore = edgeCount(model, parent);
+            display.addLeafData(syntheticDetection("Species added while hidden", random));
+            assertTrue(edgeCount(model, parent) > edgesBefore, "no edges were created for the new leaf");
+
+            assertTrue(display.toggleEdges());
+            int hidden = 0;
+            for (int i = 0; i < model.getChildCount(parent); i++) {
+                Object cell = model.getChildAt(parent, i);
+                if (model.isEdge(cell) && !model.isVisible(cell)) {
+                    hidden++;
+                }
+            }
+            assertEquals(0, hidden, "edges still hidden after showing edges again");
+        });
+    }
+
+    private static GraphDisplay syntheticDisplay(Random random) {
+        GraphDisplay display = new GraphDisplay(new ResultDisplay(), new JTextArea());
+        List<JSONObject> detections = new ArrayList<>();
+        for (int i = 0; i < LEAVES; i++) {
+            detections.add(syntheticDetection("Species " + i, random));
+        }
+        display.addLeafData(detections);
+        return display;
+    }
+
+    private static JSONObject syntheticDetection(String leafType, Random random) {
+        JSONArray features = new JSONArray();
+        for (int f = 0; f < FEATURES_PER_LEAF; f++) {
+            features.put("feature " + random.nextInt(LEAVES * 2));
+        }
+        return new JSONObject().put("leaf_type", leafType).put("features", features);
+    }
+
+    private static int edgeCount(mxIGraphModel model, Object parent) {
+        int edges = 0;
+        for (int i = 0; i < model.getChildCount(parent); i++) {
+            if (model.isEdge(model.getChildAt(parent, i))) {
+                edges++;
+            }
+        }
+        return edges;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // GraphDisplay is only used on the event dispatch thread; rethrows assertion failures from there.
+    private static void onEdt(Runnable body) throws Throwable {
+        try {
+            SwingUtilities.invokeAndWait(body);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Pixel equivalence with Keras' load_img/img_to_array. The reference comes from
+//   python preprocess_reference.py data/test preprocess_reference.bin
+// and the test is skipped without it (-Dleaf.preprocess.reference=<file> to use another one).
+class ImagePreprocessorTest {
+    @Test
+    void tensorsMatchKerasPreprocessing() throws IOException {
+        Path reference = Paths.get(System.getProperty("leaf.preprocess.reference", "preprocess_reference.bin"));
+        assumeTrue(Files.exists(reference), "no " + reference);
+        ImagePreprocessor preprocessor = new ImagePreprocessor();
+        float[] tensor = new float[ImagePreprocessor.TENSOR_LENGTH];
+        byte[] expected = new byte[ImagePreprocessor.TENSOR_LENGTH];
+        int images = 0;
+        List<String> failures = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(reference)))) {
+            while (in.available() > 0) {
+                byte[] pathBytes = new byte[in.readUnsignedShort()];
+                in.readFully(pathBytes);
+                in.readFully(expected);
+                String path = new String(pathBytes, StandardCharsets.UTF_8);
+                preprocessor.prepareTensor(new File(path), tensor, 0, null);
+                int worst = 0;
+                for (int i = 0; i < tensor.length; i++) {
+                    worst = Math.max(worst, Math.abs(Math.round(tensor[i] * 255f) - (expected[i] & 0xFF)));
+                }
+                if (worst > 0) {
+                    failures.add(path + ": channel values differ by up to " + worst);
+                }
+                images++;
+            }
+        }
+        assertTrue(images > 0, reference + " holds no images");
+        assertEquals(List.of(), failures);
+    }
+}
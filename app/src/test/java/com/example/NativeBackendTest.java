@@ -0,0 +1,55 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// CnnEngine against Keras on the same images. The weights and reference probabilities come from
+//   python export_weights.py model.weights.bin data/test reference_predictions.jsonl
+// and the test is skipped without them (-Dleaf.weights and -Dleaf.reference.predictions to use other files).
+class NativeBackendTest {
+    private static final double TOLERANCE = 1e-3;
+
+    @Test
+    void probabilitiesMatchKeras() throws IOException {
+        Path weights = Paths.get(System.getProperty("leaf.weights", "model.weights.bin"));
+        Path predictions = Paths.get(System.getProperty("leaf.reference.predictions", "reference_predictions.jsonl"));
+        assumeTrue(Files.exists(weights), "no " + weights);
+        assumeTrue(Files.exists(predictions), "no " + predictions);
+        NativeBackend backend = new NativeBackend(weights, SpeciesKnowledgeBase.open(Paths.get("information.json"), null),
+            Runtime.getRuntime().availableProcessors());
+        try {
+            int images = 0;
+            List<String> failures = new ArrayList<>();
+            for (String line : Files.readAllLines(predictions, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JSONObject reference = new JSONObject(line);
+                JSONArray expected = reference.getJSONArray("probabilities");
+                float[] actual = backend.predict(new File(reference.getString("path")));
+                double maxDiff = 0;
+                for (int c = 0; c < actual.length; c++) {
+                    maxDiff = Math.max(maxDiff, Math.abs(actual[c] - expected.getDouble(c)));
+                }
+                if (maxDiff > TOLERANCE) {
+                    failures.add(String.format("%s: max difference %.5f", reference.getString("path"), maxDiff));
+                }
+                images++;
+            }
+            assertTrue(images > 0, predictions + " holds no images");
+            assertEquals(List.of(), failures);
+        } finally {
+            backend.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Approximate (MinHash/LSH) against exact top-k search on a synthetic catalog with the default
+// 32 bands of 2 rows, which find about 86% of the exact neighbours.
+class SimilarityIndexTest {
+    private static final int K = 5;
+    private static final double MIN_RECALL = 0.8;
+
+    @Test
+    void approximateSearchFindsMostExactNeighbors() {
+        FeatureIndex index = FeatureIndex.fromCatalog(SimilarityIndex.syntheticCatalog(5000, 2000, 12, new Random(42)));
+        SimilarityIndex similarity = new SimilarityIndex(index, K, 32, 2);
+        Random random = new Random(7);
+        for (SimilarityIndex.Scoring scoring : SimilarityIndex.Scoring.values()) {
+            long found = 0;
+            long expected = 0;
+            for (int q = 0; q < 1000; q++) {
+                int leafId = random.nextInt(index.leafCount());
+                List<SimilarityIndex.Neighbor> exact = similarity.topK(leafId, K, scoring);
+                List<SimilarityIndex.Neighbor> approximate = similarity.approximateTopK(leafId, K, scoring);
+                assertTrue(approximate.size() <= K, "more than " + K + " approximate neighbours");
+                Set<String> approximateLeaves = new HashSet<>();
+                for (SimilarityIndex.Neighbor neighbor : approximate) {
+                    approximateLeaves.add(neighbor.getLeaf());
+                }
+                for (SimilarityIndex.Neighbor neighbor : exact) {
+                    expected++;
+                    if (approximateLeaves.contains(neighbor.getLeaf())) {
+                        found++;
+                    }
+                }
+            }
+            double recall = (double) found / expected;
+            assertTrue(recall >= MIN_RECALL, String.format("%s recall@%d %.3f", scoring, K, recall));
+        }
+    }
+}
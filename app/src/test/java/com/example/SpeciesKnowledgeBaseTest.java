@@ -0,0 +1,83 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The binary snapshot must load the same catalog as the JSON it was written from, be used while it
+// matches the JSON file, and be replaced once the JSON changes.
+class SpeciesKnowledgeBaseTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void snapshotLoadsTheSameCatalogAsTheJson() throws IOException {
+        Path catalogFile = writeCatalog(syntheticCatalog(5000, 2000, 12));
+        Path snapshotFile = directory.resolve("catalog.kb");
+        SpeciesCatalog fromJson = SpeciesKnowledgeBase.open(catalogFile, snapshotFile).get();
+        assertTrue(Files.exists(snapshotFile), "no snapshot written");
+
+        overwriteKeepingSizeAndTime(catalogFile);
+        SpeciesCatalog fromSnapshot = SpeciesKnowledgeBase.open(catalogFile, snapshotFile).get();
+
+        assertEquals(fromJson.speciesCount(), fromSnapshot.speciesCount());
+        assertEquals(fromJson.traitCount(), fromSnapshot.traitCount());
+        for (int s = 0; s < fromJson.speciesCount(); s++) {
+            String species = fromJson.species(s);
+            assertEquals(fromJson.traits(species), fromSnapshot.traits(species), species);
+        }
+    }
+
+    @Test
+    void changedJsonReplacesTheSnapshot() throws IOException {
+        Path catalogFile = writeCatalog(new JSONObject().put("Acer Palmatum", new JSONArray().put("Palmate")));
+        Path snapshotFile = directory.resolve("catalog.kb");
+        SpeciesKnowledgeBase.open(catalogFile, snapshotFile);
+
+        writeCatalog(new JSONObject().put("Ginkgo Biloba", new JSONArray().put("Fan-shaped").put("Deciduous")));
+        Files.setLastModifiedTime(catalogFile, FileTime.fromMillis(Files.getLastModifiedTime(catalogFile).toMillis() + 1000));
+        SpeciesCatalog reloaded = SpeciesKnowledgeBase.open(catalogFile, snapshotFile).get();
+        assertEquals(List.of("Fan-shaped", "Deciduous"), reloaded.traits("Ginkgo Biloba"));
+        assertEquals(1, reloaded.speciesCount());
+
+        // The JSON was parsed again, so the snapshot now holds the new catalog as well.
+        overwriteKeepingSizeAndTime(catalogFile);
+        assertEquals(List.of("Fan-shaped", "Deciduous"),
+            SpeciesKnowledgeBase.open(catalogFile, snapshotFile).get().traits("Ginkgo Biloba"));
+    }
+
+    private Path writeCatalog(JSONObject catalog) throws IOException {
+        return Files.writeString(directory.resolve("catalog.json"), catalog.toString(), StandardCharsets.UTF_8);
+    }
+
+    // Leaves a file that still matches the snapshot but cannot be parsed, so only a load from the
+    // snapshot succeeds.
+    private static void overwriteKeepingSizeAndTime(Path catalogFile) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(catalogFile);
+        Files.writeString(catalogFile, "x".repeat((int) Files.size(catalogFile)), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(catalogFile, modified);
+    }
+
+    private static JSONObject syntheticCatalog(int species, int traits, int perSpecies) {
+        Random random = new Random(42);
+        JSONObject catalog = new JSONObject();
+        for (int s = 0; s < species; s++) {
+            JSONArray array = new JSONArray();
+            for (int t = 0; t < perSpecies; t++) {
+                array.put("trait-" + random.nextInt(traits));
+            }
+            catalog.put("Species " + s, array);
+        }
+        return catalog;
+    }
+}
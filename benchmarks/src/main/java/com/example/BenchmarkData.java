@@ -0,0 +1,85 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.*;
+import java.util.*;
+
+// Inputs shared by the benchmarks: images from data/, information.json and synthetic catalogs.
+// Paths are resolved against -Dleaf.bench.root, or the repository root when run from it or from benchmarks/.
+final class BenchmarkData {
+    static {
+        // GraphDisplay reads the shared species catalog; no need to watch it here.
+        if (System.getProperty("leaf.catalog") == null) {
+            System.setProperty("leaf.catalog", root().resolve("information.json").toString());
+        }
+        System.setProperty("leaf.catalog.watch", "false");
+    }
+
+    private BenchmarkData() {
+    }
+
+    static Path root() {
+        String root = System.getProperty("leaf.bench.root");
+        if (root != null) {
+            return Paths.get(root);
+        }
+        return Files.isDirectory(Paths.get("data")) ? Paths.get(".") : Paths.get("..");
+    }
+
+    // Up to max images from data/test, spread over the species folders.
+    static java.util.List<File> images(int max) {
+        try {
+            java.util.List<Path> paths = BatchClassifier.findImages(root().resolve("data").resolve("test"));
+            if (paths.isEmpty()) {
+                throw new IllegalStateException("No images under " + root().resolve("data/test").toAbsolutePath());
+            }
+            java.util.List<File> images = new ArrayList<>();
+            int step = Math.max(1, paths.size() / max);
+            for (int i = 0; i < paths.size() && images.size() < max; i += step) {
+                images.add(paths.get(i).toFile());
+            }
+            return images;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static SpeciesKnowledgeBase knowledgeBase() {
+        try {
+            return SpeciesKnowledgeBase.open(root().resolve("information.json"), null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Detection results for a synthetic catalog of the given size, in a fixed order.
+    static java.util.List<JSONObject> detections(int species) {
+        JSONObject catalog = SimilarityIndex.syntheticCatalog(species, Math.max(50, species / 5), 12, new Random(42));
+        java.util.List<JSONObject> detections = new ArrayList<>(species);
+        for (int s = 0; s < species; s++) {
+            String name = "species-" + s;
+            JSONArray features = catalog.getJSONArray(name);
+            detections.add(new JSONObject().put("leaf_type", name).put("features", features));
+        }
+        return detections;
+    }
+
+    // GraphDisplay is confined to the EDT in the app, so benchmarks that mutate it do so there as well.
+    static void onEdt(Runnable action) {
+        try {
+            SwingUtilities.invokeAndWait(action);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
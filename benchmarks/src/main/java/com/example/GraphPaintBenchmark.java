@@ -0,0 +1,122 @@
+package com.example;
+
+import com.mxgraph.swing.mxGraphComponent;
+import com.mxgraph.view.mxGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Frame times of a 1200x900 view of a synthetic 10,000-vertex, 100,000-edge graph, painted by
+// LodGraphComponent (lod=true) and by the plain mxGraphComponent, at zoom levels on both sides of
+// the level-of-detail thresholds. jump paints random places, pan scrolls in small steps, and restyle
+// repaints the same view after a style change, as after a highlight click.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GraphPaintBenchmark {
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 900;
+    private static final String VERTEX_STYLE = "fillColor=#98FB98;strokeColor=#228B22;fontColor=black;fontSize=12";
+
+    @Param({"true", "false"})
+    public boolean lod;
+
+    @Param({"1.0", "0.5", "0.2", "0.05"})
+    public double scale;
+
+    private mxGraph graph;
+    private mxGraphComponent component;
+    private final BufferedImage frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    private Dimension size;
+    private final Random random = new Random(7);
+    private final Point position = new Point();
+    private boolean highlighted;
+
+    @Setup
+    public void setUp() {
+        graph = syntheticGraph(10_000, 100_000, new Random(42));
+        component = lod ? new LodGraphComponent(graph) {
+            @Override
+            protected void createHandlers() {
+                // Mouse handlers need a display and play no part in painting.
+            }
+        } : new mxGraphComponent(graph) {
+            @Override
+            protected void createHandlers() {
+            }
+        };
+        component.setSize(WIDTH, HEIGHT);
+        component.doLayout();
+        graph.getView().setScale(scale);
+        component.getGraphControl().updatePreferredSize();
+        size = component.getGraphControl().getPreferredSize();
+        component.getGraphControl().setSize(size);
+        component.getViewport().doLayout();
+    }
+
+    @Benchmark
+    public void jump() {
+        position.setLocation(random.nextInt(Math.max(1, size.width - WIDTH)), random.nextInt(Math.max(1, size.height - HEIGHT)));
+        paintFrame();
+    }
+
+    @Benchmark
+    public void pan() {
+        position.translate(40, 30);
+        if (position.x + WIDTH > size.width || position.y + HEIGHT > size.height) {
+            position.setLocation(0, 0);
+        }
+        paintFrame();
+    }
+
+    @Benchmark
+    public void restyle() {
+        Object vertex = graph.getModel().getChildAt(graph.getDefaultParent(), 0);
+        highlighted = !highlighted;
+        graph.getModel().setStyle(vertex, highlighted ? "fillColor=#FFFFE0;strokeColor=#FFD700" : VERTEX_STYLE);
+        paintFrame();
+    }
+
+    private void paintFrame() {
+        Graphics2D g = frame.createGraphics();
+        try {
+            g.translate(-position.x, -position.y);
+            g.setClip(position.x, position.y, WIDTH, HEIGHT);
+            component.getGraphControl().paint(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // Vertices on a jittered grid 150 units apart; most edges join vertices at most three grid steps
+    // apart and one in ten joins two random ones, roughly like species sharing common features.
+    private static mxGraph syntheticGraph(int nodes, int edges, Random random) {
+        mxGraph graph = new mxGraph();
+        Object parent = graph.getDefaultParent();
+        int perRow = (int) Math.ceil(Math.sqrt(nodes));
+        Object[] vertices = new Object[nodes];
+        graph.getModel().beginUpdate();
+        try {
+            for (int i = 0; i < nodes; i++) {
+                vertices[i] = graph.insertVertex(parent, null, "node-" + i, (i % perRow) * 150 + random.nextDouble() * 40,
+                    (i / perRow) * 150 + random.nextDouble() * 80, 100, 30, VERTEX_STYLE);
+            }
+            for (int e = 0; e < edges; e++) {
+                int source = random.nextInt(nodes);
+                int target = random.nextInt(10) == 0
+                    ? random.nextInt(nodes)
+                    : Math.floorMod(source + random.nextInt(7) - 3 + (random.nextInt(7) - 3) * perRow, nodes);
+                graph.insertEdge(parent, null, "", vertices[source], vertices[target]);
+            }
+        } finally {
+            graph.getModel().endUpdate();
+        }
+        return graph;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Latency of the queries behind a click in the feature graph, at growing catalog sizes. The queries
+// only read the indexes and write the result area, so they are called directly rather than through
+// the EDT; appends to the result area are dropped so the text does not grow across calls.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GraphQueryBenchmark {
+    private static final int QUERIES = 64;
+
+    @Param({"100", "1000", "10000"})
+    public int catalogSize;
+
+    private GraphDisplay graphDisplay;
+    private final String[] leaves = new String[QUERIES];
+    private final java.util.List<java.util.List<String>> leafPairs = new ArrayList<>();
+    private final java.util.List<Set<String>> featureSets = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        java.util.List<JSONObject> detections = BenchmarkData.detections(catalogSize);
+        BenchmarkData.onEdt(() -> {
+            JTextArea resultArea = new JTextArea() {
+                @Override
+                public void append(String text) {
+                }
+            };
+            graphDisplay = new GraphDisplay(new ResultDisplay(), resultArea);
+            graphDisplay.addLeafData(detections);
+        });
+        Random random = new Random(1);
+        for (int i = 0; i < QUERIES; i++) {
+            JSONObject first = detections.get(random.nextInt(catalogSize));
+            JSONObject second = detections.get(random.nextInt(catalogSize));
+            leaves[i] = first.getString("leaf_type");
+            leafPairs.add(java.util.List.of(first.getString("leaf_type"), second.getString("leaf_type")));
+            JSONArray features = first.getJSONArray("features");
+            featureSets.add(new LinkedHashSet<>(java.util.List.of(features.getString(0), features.getString(1))));
+        }
+    }
+
+    @Benchmark
+    public Object showSimilarLeaves() {
+        return graphDisplay.showSimilarLeaves(leaves[nextQuery()]);
+    }
+
+    @Benchmark
+    public Object getCommonFeatures() {
+        return graphDisplay.getCommonFeatures(leafPairs.get(nextQuery()));
+    }
+
+    @Benchmark
+    public Object showLeavesWithFeatures() {
+        return graphDisplay.showLeavesWithFeatures(featureSets.get(nextQuery()));
+    }
+
+    private int nextQuery() {
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+}
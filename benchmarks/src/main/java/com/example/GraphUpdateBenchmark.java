@@ -0,0 +1,54 @@
+package com.example;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.*;
+import java.util.concurrent.TimeUnit;
+
+// GraphDisplay.addLeafData (FeatureIndex/SimilarityIndex update plus updateGraph) on a graph that
+// already holds catalogSize species. Each iteration starts from a freshly built graph and times a
+// batch of 50 detections: new species, or species already in the graph detected again. The
+// background layout these trigger keeps running during the measurement, as it does in the app.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = GraphUpdateBenchmark.BATCH)
+@Measurement(iterations = 5, batchSize = GraphUpdateBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GraphUpdateBenchmark {
+    static final int BATCH = 50;
+
+    @Param({"100", "1000", "10000"})
+    public int catalogSize;
+
+    private java.util.List<JSONObject> detections;
+    private GraphDisplay graphDisplay;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createCatalog() {
+        detections = BenchmarkData.detections(catalogSize + BATCH);
+    }
+
+    @Setup(Level.Iteration)
+    public void buildGraph() {
+        BenchmarkData.onEdt(() -> {
+            graphDisplay = new GraphDisplay(new ResultDisplay(), new JTextArea());
+            graphDisplay.addLeafData(detections.subList(0, catalogSize));
+        });
+        next = 0;
+    }
+
+    @Benchmark
+    public void addNewSpecies() {
+        JSONObject detection = detections.get(catalogSize + next++ % BATCH);
+        BenchmarkData.onEdt(() -> graphDisplay.addLeafData(detection));
+    }
+
+    @Benchmark
+    public void redetectSpecies() {
+        JSONObject detection = detections.get(next++ * 7919 % catalogSize);
+        BenchmarkData.onEdt(() -> graphDisplay.addLeafData(detection));
+    }
+}
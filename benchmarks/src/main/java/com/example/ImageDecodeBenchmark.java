@@ -0,0 +1,46 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Decode + resize + normalise of real images from data/test: the UI path (tensor and 400x300
+// preview) and the batch/server path (tensor only, into a reused buffer).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageDecodeBenchmark {
+    private java.util.List<File> images;
+    private ImagePreprocessor preprocessor;
+    private float[] tensor;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        images = BenchmarkData.images(32);
+        preprocessor = new ImagePreprocessor();
+        tensor = new float[ImagePreprocessor.TENSOR_LENGTH];
+    }
+
+    @Benchmark
+    public Object prepareWithThumbnail() throws IOException {
+        return preprocessor.prepare(nextImage(), 400, 300);
+    }
+
+    @Benchmark
+    public float[] prepareTensor() throws IOException {
+        preprocessor.prepareTensor(nextImage(), tensor, 0, null);
+        return tensor;
+    }
+
+    private File nextImage() {
+        File image = images.get(next);
+        next = (next + 1) % images.size();
+        return image;
+    }
+}
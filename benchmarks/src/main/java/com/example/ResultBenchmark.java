@@ -0,0 +1,48 @@
+package com.example;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Everything between the backend and the screen for one detection: runInference against the stub
+// backend (result JSON built and serialised), parsing that JSON, and ResultDisplay.showResult.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ResultBenchmark {
+    private ImageProcessor processor;
+    private ResultDisplay display;
+    private JTextArea resultArea;
+    private String result;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        processor = new ImageProcessor(new StubBackend(BenchmarkData.knowledgeBase(), 0));
+        processor.loadImage(BenchmarkData.images(1).get(0));
+        display = new ResultDisplay();
+        resultArea = new JTextArea();
+        result = processor.runInference();
+    }
+
+    @Benchmark
+    public String runInference() throws IOException, InterruptedException {
+        return processor.runInference();
+    }
+
+    @Benchmark
+    public JSONObject parseResult() {
+        return new JSONObject(result);
+    }
+
+    @Benchmark
+    public int showResult() {
+        display.showResult(resultArea, result);
+        return resultArea.getDocument().getLength();
+    }
+}
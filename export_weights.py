@@ -0,0 +1,46 @@
+import json
+import os
+import struct
+import sys
+import numpy as np
+from infer import labels, load_model, preprocess_image
+
+# Exports the create_model() weights for the Java engine (CnnEngine) and, optionally,
+# Keras reference probabilities to check it against:
+#   python export_weights.py [model.weights.bin] [data/test reference_predictions.jsonl]
+# then mvn test (NativeBackendTest) compares the Java engine with the reference.
+#
+# Weight file layout, little-endian: b'LFW1', uint32 tensor count, then for each tensor of
+# model.get_weights(): uint32 rank, uint32 dims[rank], float32 values in row-major order.
+
+def export_weights(model, path):
+    weights = model.get_weights()
+    with open(path, 'wb') as f:
+        f.write(struct.pack('<4sI', b'LFW1', len(weights)))
+        for w in weights:
+            f.write(struct.pack('<I', w.ndim))
+            f.write(struct.pack('<%dI' % w.ndim, *w.shape))
+            f.write(w.astype('<f4').tobytes())
+
+def export_reference(model, image_dir, path):
+    with open(path, 'w') as out:
+        for root, _, files in sorted(os.walk(image_dir)):
+            for name in sorted(files):
+                if not name.lower().endswith(('.jpg', '.jpeg', '.png')):
+                    continue
+                image_path = os.path.join(root, name)
+                probabilities = model.predict(preprocess_image(image_path), verbose=0)[0]
+                out.write(json.dumps({"path": image_path,
+                                      "probabilities": [float(p) for p in probabilities]}) + "\n")
+
+def main():
+    weights_path = sys.argv[1] if len(sys.argv) > 1 else 'model.weights.bin'
+    model = load_model()
+    export_weights(model, weights_path)
+    print(f"Wrote {weights_path} for labels {labels}")
+    if len(sys.argv) > 3:
+        export_reference(model, sys.argv[2], sys.argv[3])
+        print(f"Wrote reference predictions for {sys.argv[2]} to {sys.argv[3]}")
+
+if __name__ == "__main__":
+    main()
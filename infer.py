@@ -1,46 +1,95 @@
+import time
+_import_start = time.perf_counter()
+import argparse
 import json
 import sys
 import numpy as np
 from tensorflow.keras.preprocessing.image import load_img, img_to_array
 from train import create_model
+import tensor_protocol
 import json 
+IMPORT_MS = (time.perf_counter() - _import_start) * 1000
+
+labels = ['Acer Palmatum', 'Cedrus Deodara', 'Cercis Chinensis', 'Citrus Reticulata Blanco', 
+          'Ginkgo Biloba', 'Liriodendron Chinense', 'Nerium Oleander']
+
+def load_labels(path):
+    # One label per line, in the model's class index order (the labels.txt train.py writes).
+    with open(path, 'r') as f:
+        return [line.strip() for line in f if line.strip()]
 
 def preprocess_image(image_path, target_size=(225, 225)):
-    try:
-        img = load_img(image_path, target_size=target_size)
-        x = img_to_array(img)
-        x = x.astype('float32') / 255.
-        x = np.expand_dims(x, axis=0)
-        return x
-    except Exception as e:
-        print(f"Error preprocessing image: {str(e)}", file=sys.stderr)
-        sys.exit(2)
+    img = load_img(image_path, target_size=target_size)
+    x = img_to_array(img)
+    x = x.astype('float32') / 255.
+    x = np.expand_dims(x, axis=0)
+    return x
+
+def load_model(path='model.keras'):
+    model = create_model()
+    model.load_weights(path)
+    return model
+
+def with_embeddings(model):
+    # Same network, also returning the Dense(64) activations the Java side indexes for look-alike search.
+    from tensorflow.keras import Model
+    return Model(inputs=model.inputs, outputs=[model.layers[-2].output, model.output])
+
+def serve(socket_path, model_path, labels):
+    # Long-lived worker: receives preprocessed tensors from Java over a Unix domain socket and
+    # returns class probabilities (see tensor_protocol.py). Anything printed goes to stderr as logs.
+    sys.stdout = sys.stderr
+    load_start = time.perf_counter()
+    model = with_embeddings(load_model(model_path))
+    load_ms = (time.perf_counter() - load_start) * 1000
+
+    def predict(payload, shape):
+        x = np.frombuffer(payload, dtype='<f4').reshape(shape)
+        embeddings, probabilities = model.predict(x, verbose=0)
+        return (probabilities.astype('<f4').tobytes(), embeddings.astype('<f4').tobytes(), embeddings.shape[1])
+
+    tensor_protocol.serve(socket_path, labels, predict, IMPORT_MS, load_ms)
 
 def main():
+    parser = argparse.ArgumentParser(
+        usage="python infer.py [--model model.keras] [--labels labels.txt] <image_path> | --worker <socket_path>")
+    parser.add_argument("--model", default="model.keras")
+    parser.add_argument("--labels", help="one label per line, in class index order (default: the built-in list)")
+    parser.add_argument("--worker", metavar="SOCKET_PATH")
+    parser.add_argument("image_path", nargs="?")
+    args = parser.parse_args()
+    model_labels = load_labels(args.labels) if args.labels else labels
+    if args.worker:
+        serve(args.worker, args.model, model_labels)
+        return
     with open('information.json', 'r') as f:
         info = json.load(f)
-    if len(sys.argv) != 2:
-        print("Usage: python infer.py <image_path>", file=sys.stderr)
+    if not args.image_path:
+        parser.print_usage(sys.stderr)
         sys.exit(2)
 
-    image_path = sys.argv[1]
-    labels = ['Acer Palmatum', 'Cedrus Deodara', 'Cercis Chinensis', 'Citrus Reticulata Blanco', 
-              'Ginkgo Biloba', 'Liriodendron Chinense', 'Nerium Oleander']
+    image_path = args.image_path
+
+    try:
+        x = preprocess_image(image_path)
+    except Exception as e:
+        print(f"Error preprocessing image: {str(e)}", file=sys.stderr)
+        sys.exit(2)
 
     try:
         # Load model and weights
-        model = create_model()
-        model.load_weights('model.keras')
+        model = with_embeddings(load_model(args.model))
 
-        # Process image and predict
-        x = preprocess_image(image_path)
-        predictions = model.predict(x)
-        predicted_class = labels[np.argmax(predictions)]
+        # Predict
+        embedding, predictions = model.predict(x)
+        predicted_class = model_labels[np.argmax(predictions)]
 
         # Output JSON
         result = {
             "leaf_type": predicted_class,
-            "features": info[predicted_class]  # Empty features array as per app expectation
+            "features": info.get(predicted_class, []),  # Empty features array as per app expectation
+            "probabilities": [float(p) for p in predictions[0]],  # In `model_labels` order
+            "embedding": [float(v) for v in embedding[0]]
         }
         print(json.dumps(result))
     except Exception as e:
@@ -48,4 +97,4 @@ def main():
         sys.exit(2)
 
 if __name__ == "__main__":
-    main()
\ No newline at end of file
+    main()
@@ -0,0 +1,32 @@
+import os
+import struct
+import sys
+from infer import preprocess_image
+
+# Dumps what Keras feeds the model for every image under a directory, as uint8 channel values,
+# so ImagePreprocessor can be checked pixel for pixel:
+#   python preprocess_reference.py data/test preprocess_reference.bin
+# then mvn test (ImagePreprocessorTest) compares it with ImagePreprocessor.
+# Record layout: uint16 big-endian path length, UTF-8 path, 225*225*3 bytes (RGB, channels-last).
+
+def main():
+    if len(sys.argv) != 3:
+        print("Usage: python preprocess_reference.py <image_dir> <output.bin>", file=sys.stderr)
+        sys.exit(2)
+    count = 0
+    with open(sys.argv[2], 'wb') as out:
+        for root, _, files in sorted(os.walk(sys.argv[1])):
+            for name in sorted(files):
+                if not name.lower().endswith(('.jpg', '.jpeg', '.png')):
+                    continue
+                image_path = os.path.join(root, name)
+                x = preprocess_image(image_path)[0]
+                path_bytes = image_path.encode('utf-8')
+                out.write(struct.pack('>H', len(path_bytes)))
+                out.write(path_bytes)
+                out.write((x * 255.).round().astype('uint8').tobytes())
+                count += 1
+    print(f"Wrote {count} images to {sys.argv[2]}")
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,211 @@
+package com.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.json.JSONObject;
+
+// Headless classification of a whole directory tree, e.g. data/test:
+//   java -cp ... com.example.BatchClassifier data/test --out results.jsonl --batch-size 16 --review review.jsonl
+// Results are streamed as JSONL while batches complete; the summary goes to stderr. Results below
+// the confidence threshold (leaf.review.threshold) are also written to the optional review file.
+// When images sit in per-species folders (as under data/), the folder name is used as ground truth.
+class BatchClassifier {
+    private static final java.util.List<String> IMAGE_EXTENSIONS = java.util.List.of(".jpg", ".jpeg", ".png");
+
+    private final InferenceBackend backend;
+    private final int batchSize;
+    private final int parallelism;
+    private final Writer out;
+    private final Writer review;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger labeled = new AtomicInteger();
+    private final AtomicInteger correct = new AtomicInteger();
+    private final AtomicInteger needsReview = new AtomicInteger();
+    private long[] latencyNanos;
+
+    // review may be null.
+    public BatchClassifier(InferenceBackend backend, int batchSize, int parallelism, Writer out, Writer review) {
+        this.backend = backend;
+        this.batchSize = Math.max(1, batchSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.out = out;
+        this.review = review;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BatchClassifier <image-dir> [--out results.jsonl] [--batch-size N] [--parallelism N] [--review review.jsonl]");
+            System.exit(2);
+        }
+        Path root = Paths.get(args[0]);
+        String outPath = null;
+        String reviewPath = null;
+        int batchSize = 16;
+        int parallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            }
+            switch (args[i]) {
+                case "--out": outPath = args[i + 1]; break;
+                case "--batch-size": batchSize = Integer.parseInt(args[i + 1]); break;
+                case "--parallelism": parallelism = Integer.parseInt(args[i + 1]); break;
+                case "--review": reviewPath = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        // One warm worker per parallel batch unless configured explicitly.
+        if (System.getProperty("leaf.workers") == null) {
+            System.setProperty("leaf.workers", String.valueOf(parallelism));
+        }
+
+        try (InferenceBackend backend = InferenceBackend.fromSystemProperties();
+             Writer out = outPath == null
+                 ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                 : Files.newBufferedWriter(Paths.get(outPath), StandardCharsets.UTF_8);
+             Writer review = reviewPath == null ? null : Files.newBufferedWriter(Paths.get(reviewPath), StandardCharsets.UTF_8)) {
+            new BatchClassifier(backend, batchSize, parallelism, out, review).run(root);
+        }
+    }
+
+    public void run(Path root) throws IOException, InterruptedException {
+        java.util.List<Path> images = findImages(root);
+        latencyNanos = new long[images.size()];
+        completed.set(0);
+        failed.set(0);
+        labeled.set(0);
+        correct.set(0);
+        needsReview.set(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        // Bound the number of batches in flight so results never pile up ahead of the writer.
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        java.util.List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int from = 0; from < images.size(); from += batchSize) {
+                java.util.List<Path> batch = images.subList(from, Math.min(images.size(), from + batchSize));
+                inFlight.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        classifyBatch(root, batch);
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Batch classification failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+            out.flush();
+            if (review != null) {
+                review.flush();
+            }
+        }
+        printSummary(System.nanoTime() - start);
+    }
+
+    static java.util.List<Path> findImages(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                .filter(p -> {
+                    String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+                    return IMAGE_EXTENSIONS.stream().anyMatch(name::endsWith);
+                })
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private void classifyBatch(Path root, java.util.List<Path> batch) throws IOException, InterruptedException {
+        java.util.List<File> files = new ArrayList<>(batch.size());
+        for (Path path : batch) {
+            files.add(path.toFile());
+        }
+        long start = System.nanoTime();
+        java.util.List<JSONObject> results;
+        try {
+            results = backend.classifyBatch(files);
+        } catch (IOException e) {
+            results = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                results.add(new JSONObject().put("error", e.getMessage()));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        StringBuilder lines = new StringBuilder();
+        StringBuilder reviewLines = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            Path path = batch.get(i);
+            JSONObject result = results.get(i);
+            String truth = root.relativize(path).getNameCount() > 1 ? path.getParent().getFileName().toString() : null;
+            result.put("path", path.toString());
+            result.put("batch_latency_ms", elapsed / 1_000_000.0);
+            if (result.has("error")) {
+                failed.incrementAndGet();
+            } else if (truth != null) {
+                boolean isCorrect = truth.equals(result.optString("leaf_type"));
+                result.put("truth", truth);
+                result.put("correct", isCorrect);
+                labeled.incrementAndGet();
+                if (isCorrect) {
+                    correct.incrementAndGet();
+                }
+            }
+            if (result.optBoolean("needs_review")) {
+                needsReview.incrementAndGet();
+                reviewLines.append(result).append('\n');
+            }
+            latencyNanos[completed.getAndIncrement()] = elapsed;
+            lines.append(result).append('\n');
+        }
+        synchronized (out) {
+            out.write(lines.toString());
+            out.flush();
+        }
+        if (review != null && reviewLines.length() > 0) {
+            synchronized (review) {
+                review.write(reviewLines.toString());
+            }
+        }
+    }
+
+    private void printSummary(long elapsedNanos) {
+        int count = completed.get();
+        long[] latencies = Arrays.copyOf(latencyNanos, count);
+        Arrays.sort(latencies);
+        double seconds = elapsedNanos / 1e9;
+        System.err.printf("Images: %d (%d failed) in %.2f s, %.1f images/sec%n",
+            count, failed.get(), seconds, seconds > 0 ? count / seconds : 0.0);
+        if (count > 0) {
+            System.err.printf("Batch latency ms: p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.90),
+                percentile(latencies, 0.99), latencies[count - 1] / 1e6);
+        }
+        if (needsReview.get() > 0) {
+            System.err.printf("Below confidence %.2f (needs review): %d%n", InferenceResults.REVIEW_THRESHOLD, needsReview.get());
+        }
+        if (labeled.get() > 0) {
+            System.err.printf("Accuracy: %d/%d (%.1f%%)%n", correct.get(), labeled.get(),
+                100.0 * correct.get() / labeled.get());
+        }
+    }
+
+    static double percentile(long[] sortedNanos, double quantile) {
+        int index = (int) Math.ceil(quantile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(sortedNanos.length - 1, index))] / 1e6;
+    }
+}
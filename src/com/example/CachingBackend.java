@@ -0,0 +1,140 @@
+package com.example;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+import org.json.JSONObject;
+
+// Serves repeated classifications of the same image bytes without touching the backend.
+// Keys combine the SHA-256 of the image with the model fingerprint, so retraining invalidates them.
+// Features are not part of the model, so hits get them from the current species catalog.
+class CachingBackend implements InferenceBackend {
+    private final InferenceBackend delegate;
+    private final ResultCache cache;
+    private final ModelFingerprint model;
+    private final SpeciesKnowledgeBase knowledgeBase;
+
+    public CachingBackend(InferenceBackend delegate, ResultCache cache, ModelFingerprint model,
+                          SpeciesKnowledgeBase knowledgeBase) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.model = model;
+        this.knowledgeBase = knowledgeBase;
+    }
+
+    @Override
+    public JSONObject classify(File imageFile) throws IOException, InterruptedException {
+        String key = cacheKey(imageFile);
+        JSONObject cached = cache.get(key);
+        if (cached != null) {
+            return markCached(cached);
+        }
+        JSONObject result = delegate.classify(imageFile);
+        cache.put(key, result);
+        return result;
+    }
+
+    @Override
+    public JSONObject classify(PreparedImage image) throws IOException, InterruptedException {
+        String key = model.get() + "-" + image.getContentHash();
+        JSONObject cached = cache.get(key);
+        if (cached != null) {
+            return markCached(cached);
+        }
+        JSONObject result = delegate.classify(image);
+        cache.put(key, result);
+        return result;
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyBatch(java.util.List<File> imageFiles) throws IOException, InterruptedException {
+        JSONObject[] results = new JSONObject[imageFiles.size()];
+        String[] keys = new String[imageFiles.size()];
+        java.util.List<File> misses = new ArrayList<>();
+        java.util.List<Integer> missPositions = new ArrayList<>();
+        for (int i = 0; i < imageFiles.size(); i++) {
+            try {
+                keys[i] = cacheKey(imageFiles.get(i));
+                JSONObject cached = cache.get(keys[i]);
+                results[i] = cached != null ? markCached(cached) : null;
+            } catch (IOException e) {
+                results[i] = new JSONObject().put("error", e.getMessage());
+            }
+            if (results[i] == null) {
+                misses.add(imageFiles.get(i));
+                missPositions.add(i);
+            }
+        }
+        if (!misses.isEmpty()) {
+            java.util.List<JSONObject> computed = delegate.classifyBatch(misses);
+            for (int i = 0; i < computed.size(); i++) {
+                int position = missPositions.get(i);
+                results[position] = computed.get(i);
+                if (!computed.get(i).has("error")) {
+                    cache.put(keys[position], computed.get(i));
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyPrepared(java.util.List<PreparedImage> images) throws IOException, InterruptedException {
+        JSONObject[] results = new JSONObject[images.size()];
+        String[] keys = new String[images.size()];
+        java.util.List<PreparedImage> misses = new ArrayList<>();
+        java.util.List<Integer> missPositions = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            keys[i] = model.get() + "-" + images.get(i).getContentHash();
+            JSONObject cached = cache.get(keys[i]);
+            if (cached != null) {
+                results[i] = markCached(cached);
+            } else {
+                misses.add(images.get(i));
+                missPositions.add(i);
+            }
+        }
+        if (!misses.isEmpty()) {
+            java.util.List<JSONObject> computed = delegate.classifyPrepared(misses);
+            for (int i = 0; i < computed.size(); i++) {
+                int position = missPositions.get(i);
+                results[position] = computed.get(i);
+                if (!computed.get(i).has("error")) {
+                    cache.put(keys[position], computed.get(i));
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    // The stored timings describe the original computation, not this lookup.
+    private JSONObject markCached(JSONObject result) {
+        result.remove("timings_ms");
+        SpeciesCatalog catalog = knowledgeBase.get();
+        if (catalog.contains(result.optString("leaf_type"))) {
+            result.put("features", catalog.traitsJson(result.getString("leaf_type")));
+        }
+        return result.put("cached", true);
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private String cacheKey(File imageFile) throws IOException {
+        MessageDigest digest = ResultCache.sha256();
+        try (InputStream in = new FileInputStream(imageFile)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return model.get() + "-" + ResultCache.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,468 @@
+package com.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Headless classification over HTTP, for other systems:
+//   POST /classify        body is one image, answers with its result JSON
+//   POST /classify/batch  multipart/form-data with one image per part, answers with a JSON array
+//   GET  /health          queue state
+//   GET  /metrics         latency percentiles per stage and counters, see Metrics
+//   GET  /models          model versions, when served through a ModelRegistry
+//   POST /models/deploy?version=<id>  load, warm up and switch to a version; answers once it serves
+//   POST /models/rollback switch back to the previous version
+// Uploads are decoded in memory, and images arriving within a short window are combined into one
+// classifyPrepared call. Admission is bounded: once maxQueued images are waiting or in flight, new
+// requests get 429 right away instead of queueing without limit, and before their body is read.
+//   java -cp ... com.example.ClassificationServer [--port 8080] [--max-batch 16] [--window-ms 5]
+//        [--queue 64] [--parallelism 2] [--timeout-ms 60000]
+// -Dleaf.backend=stub serves made-up results without a model. The server needs a backend that takes
+// tensors (leaf.workers > 0, leaf.backend=native or stub); the one-shot Python backend only takes files.
+class ClassificationServer implements AutoCloseable {
+    private static final int MAX_UPLOAD_BYTES = 20 * 1024 * 1024;
+
+    private final InferenceBackend backend;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final MicroBatcher batcher;
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor();
+    private final Semaphore admission;
+    // Set while an exchange the handler pool rejected runs on the server's dispatcher thread.
+    private final ThreadLocal<Boolean> overloaded = ThreadLocal.withInitial(() -> false);
+    private final int maxQueued;
+    private final long timeoutMillis;
+
+    public ClassificationServer(InferenceBackend backend, int port, int maxBatch, long windowMillis, int maxQueued,
+                                int parallelism, long timeoutMillis) throws IOException {
+        this.backend = backend;
+        this.maxQueued = maxQueued;
+        this.timeoutMillis = timeoutMillis;
+        this.admission = new Semaphore(maxQueued);
+        this.batcher = new MicroBatcher(backend, maxBatch, windowMillis, parallelism);
+        // Admitted requests hold a thread while they wait for their batch, so there is one thread per
+        // queue slot plus a few to turn away the rest with 429. Java 17 has no virtual threads.
+        // Connections beyond that wait in a bounded queue; once it is full, the exchange runs on the
+        // dispatcher thread and only answers 429, without reading the body.
+        int threads = maxQueued + 8;
+        this.handlers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(maxQueued), r -> {
+                Thread t = new Thread(r, "http-handler");
+                t.setDaemon(true);
+                return t;
+            }, (exchange, executor) -> {
+                overloaded.set(true);
+                try {
+                    exchange.run();
+                } finally {
+                    overloaded.set(false);
+                }
+            });
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(handlers);
+        server.createContext("/classify", exchange -> handle(exchange, false));
+        server.createContext("/classify/batch", exchange -> handle(exchange, true));
+        server.createContext("/health", this::health);
+        server.createContext("/metrics", this::metrics);
+        server.createContext("/models", this::models);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        int maxBatch = 16;
+        long windowMillis = 5;
+        int maxQueued = 64;
+        int parallelism = Integer.getInteger("leaf.workers", 2);
+        long timeoutMillis = Long.getLong("leaf.timeout.ms", 60_000L);
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            }
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--max-batch": maxBatch = Integer.parseInt(args[i + 1]); break;
+                case "--window-ms": windowMillis = Long.parseLong(args[i + 1]); break;
+                case "--queue": maxQueued = Integer.parseInt(args[i + 1]); break;
+                case "--parallelism": parallelism = Integer.parseInt(args[i + 1]); break;
+                case "--timeout-ms": timeoutMillis = Long.parseLong(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        // One warm worker per batch in flight unless configured explicitly.
+        if (System.getProperty("leaf.workers") == null) {
+            System.setProperty("leaf.workers", String.valueOf(parallelism));
+        }
+        ClassificationServer server = new ClassificationServer(InferenceBackend.fromSystemProperties(), port,
+            maxBatch, windowMillis, maxQueued, parallelism, timeoutMillis);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.err.printf("Serving on port %d (batches of up to %d within %d ms, %d queued, %d in parallel)%n",
+            server.getPort(), maxBatch, windowMillis, maxQueued, parallelism);
+    }
+
+    private void handle(HttpExchange exchange, boolean batch) throws IOException {
+        int admitted = 0;
+        try {
+            // /classify also receives /classify/... paths that have no context of their own.
+            String path = exchange.getRequestURI().getPath();
+            if (!path.equals(batch ? "/classify/batch" : "/classify")) {
+                send(exchange, 404, new JSONObject().put("error", "Not found: " + path));
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, new JSONObject().put("error", "Use POST"));
+                return;
+            }
+            if (overloaded.get()) {
+                sendBusy(exchange);
+                return;
+            }
+            // Checked before the body is read, so turning a request away costs no upload.
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            long declaredLength;
+            try {
+                declaredLength = length == null ? -1 : Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                send(exchange, 400, new JSONObject().put("error", "Invalid Content-Length: " + length));
+                return;
+            }
+            if (declaredLength > MAX_UPLOAD_BYTES) {
+                send(exchange, 413, new JSONObject().put("error", "Upload larger than " + MAX_UPLOAD_BYTES + " bytes"));
+                return;
+            }
+            // Every request holds at least one image; a batch takes the rest once its parts are known.
+            if (!admission.tryAcquire()) {
+                sendBusy(exchange);
+                return;
+            }
+            admitted = 1;
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_UPLOAD_BYTES + 1);
+            if (body.length > MAX_UPLOAD_BYTES) {
+                send(exchange, 413, new JSONObject().put("error", "Upload larger than " + MAX_UPLOAD_BYTES + " bytes"));
+                return;
+            }
+            java.util.List<byte[]> images;
+            if (batch) {
+                String boundary = boundary(exchange.getRequestHeaders().getFirst("Content-Type"));
+                if (boundary == null) {
+                    send(exchange, 400, new JSONObject().put("error", "Expected multipart/form-data with a boundary"));
+                    return;
+                }
+                images = multipartParts(body, boundary);
+            } else {
+                images = java.util.List.of(body);
+            }
+            if (images.isEmpty() || images.stream().anyMatch(image -> image.length == 0)) {
+                send(exchange, 400, new JSONObject().put("error", "Empty upload"));
+                return;
+            }
+            // Retrying cannot help a batch that would not fit even into an empty queue.
+            if (images.size() > maxQueued) {
+                send(exchange, 413, new JSONObject().put("error",
+                    "Batch of " + images.size() + " images is larger than the queue of " + maxQueued));
+                return;
+            }
+            if (!admission.tryAcquire(images.size() - 1)) {
+                sendBusy(exchange);
+                return;
+            }
+            admitted = images.size();
+
+            // Uploads are decoded here, on the request's own thread, and never touch the disk. Each
+            // image's permit is handed to its result: it is held until the batcher is done with the
+            // image, even if this request has given up with 504 by then.
+            java.util.List<CompletableFuture<JSONObject>> results = new ArrayList<>(images.size());
+            for (byte[] image : images) {
+                CompletableFuture<JSONObject> result;
+                try {
+                    result = batcher.submit(preprocessor.prepare(image, 0, 0));
+                } catch (IOException e) {
+                    result = CompletableFuture.completedFuture(new JSONObject().put("error", e.getMessage()));
+                }
+                admitted--;
+                result.whenComplete((value, error) -> admission.release());
+                results.add(result);
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            JSONArray array = new JSONArray();
+            for (CompletableFuture<JSONObject> result : results) {
+                long remaining = deadline - System.nanoTime();
+                array.put(result.get(Math.max(0, remaining), TimeUnit.NANOSECONDS));
+            }
+            if (batch) {
+                send(exchange, 200, array);
+            } else {
+                JSONObject result = array.getJSONObject(0);
+                send(exchange, result.has("error") ? 422 : 200, result);
+            }
+        } catch (TimeoutException e) {
+            send(exchange, 504, new JSONObject().put("error", "Classification took longer than " + timeoutMillis + " ms"));
+        } catch (ExecutionException e) {
+            send(exchange, 500, new JSONObject().put("error", String.valueOf(e.getCause().getMessage())));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, new JSONObject().put("error", "Server shutting down"));
+        } catch (IOException | RuntimeException e) {
+            send(exchange, 500, new JSONObject().put("error", String.valueOf(e.getMessage())));
+        } finally {
+            admission.release(admitted);
+            exchange.close();
+        }
+    }
+
+    private void sendBusy(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 429, new JSONObject().put("error", "Server busy, " + maxQueued + " images already queued"));
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        try {
+            send(exchange, 200, new JSONObject()
+                .put("status", "ok")
+                .put("queued", maxQueued - admission.availablePermits())
+                .put("max_queued", maxQueued));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            send(exchange, 200, Metrics.snapshot());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void models(HttpExchange exchange) throws IOException {
+        try {
+            ModelRegistry registry = ModelRegistry.current();
+            String path = exchange.getRequestURI().getPath();
+            if (registry == null) {
+                send(exchange, 404, new JSONObject().put("error", "Not serving versioned models (no models/ directory)"));
+            } else if (path.equals("/models")) {
+                send(exchange, 200, registry.status());
+            } else if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, new JSONObject().put("error", "Use POST"));
+            } else if (overloaded.get()) {
+                sendBusy(exchange);
+            } else if (path.equals("/models/rollback")) {
+                try {
+                    registry.rollback();
+                    send(exchange, 200, registry.status());
+                } catch (IllegalStateException e) {
+                    send(exchange, 409, new JSONObject().put("error", e.getMessage()));
+                }
+            } else if (path.equals("/models/deploy")) {
+                String query = exchange.getRequestURI().getQuery();
+                String version = query != null && query.startsWith("version=") ? URLDecoder.decode(query.substring("version=".length()), StandardCharsets.UTF_8) : "";
+                if (version.isEmpty()) {
+                    send(exchange, 400, new JSONObject().put("error", "Expected ?version=<id>"));
+                    return;
+                }
+                try {
+                    registry.deploy(version).get();
+                    send(exchange, 200, registry.status());
+                } catch (ExecutionException e) {
+                    send(exchange, 422, new JSONObject().put("error", String.valueOf(e.getCause().getMessage())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    send(exchange, 503, new JSONObject().put("error", "Server shutting down"));
+                }
+            } else {
+                send(exchange, 404, new JSONObject().put("error", "Not found: " + path));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, Object json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String boundary = trimmed.substring("boundary=".length());
+                return boundary.startsWith("\"") && boundary.endsWith("\"") && boundary.length() > 1
+                    ? boundary.substring(1, boundary.length() - 1) : boundary;
+            }
+        }
+        return null;
+    }
+
+    // Bodies of the parts of a multipart/form-data body, in order; part headers are skipped.
+    static java.util.List<byte[]> multipartParts(byte[] body, String boundary) {
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        byte[] headerEnd = {'\r', '\n', '\r', '\n'};
+        java.util.List<byte[]> parts = new ArrayList<>();
+        int position = indexOf(body, delimiter, 0);
+        while (position >= 0) {
+            int afterDelimiter = position + delimiter.length;
+            if (afterDelimiter + 1 < body.length && body[afterDelimiter] == '-' && body[afterDelimiter + 1] == '-') {
+                break; // Closing delimiter
+            }
+            int headersEnd = indexOf(body, headerEnd, afterDelimiter);
+            int next = indexOf(body, delimiter, afterDelimiter);
+            if (headersEnd < 0 || next < 0 || headersEnd > next) {
+                break;
+            }
+            int start = headersEnd + headerEnd.length;
+            int end = next - 2; // The CRLF before the delimiter belongs to it
+            parts.add(Arrays.copyOfRange(body, start, Math.max(start, end)));
+            position = next;
+        }
+        return parts;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        batcher.close();
+        handlers.shutdownNow();
+        backend.close();
+    }
+}
+
+// Collects single images into batches for the backend. A batch starts when an inference slot is
+// free and the first image arrives, and is sent after windowMillis or once it holds maxBatch images,
+// whichever comes first. While every slot is busy images keep queueing, so batches grow with load.
+class MicroBatcher implements AutoCloseable {
+    private final InferenceBackend backend;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Semaphore slots;
+    private final ExecutorService executor;
+    private final Thread dispatcher;
+
+    private static final class Request {
+        final PreparedImage image;
+        final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+
+        Request(PreparedImage image) {
+            this.image = image;
+        }
+    }
+
+    MicroBatcher(InferenceBackend backend, int maxBatch, long windowMillis, int parallelism) {
+        this.backend = backend;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.slots = new Semaphore(Math.max(1, parallelism));
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "micro-batch");
+            t.setDaemon(true);
+            return t;
+        });
+        this.dispatcher = new Thread(this::dispatch, "micro-batcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    CompletableFuture<JSONObject> submit(PreparedImage image) {
+        Request request = new Request(image);
+        queue.add(request);
+        return request.result;
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                slots.acquire();
+                java.util.List<Request> batch = new ArrayList<>(maxBatch);
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                queue.drainTo(batch, maxBatch - batch.size());
+                while (batch.size() < maxBatch) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+                executor.execute(() -> {
+                    try {
+                        run(batch);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void run(java.util.List<Request> batch) {
+        java.util.List<PreparedImage> images = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            images.add(request.image);
+        }
+        try {
+            java.util.List<JSONObject> results = backend.classifyPrepared(images);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i).put("batch_size", batch.size()));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        } catch (InterruptedException e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        dispatcher.interrupt();
+        executor.shutdownNow();
+        for (Request request; (request = queue.poll()) != null; ) {
+            request.result.completeExceptionally(new IOException("Server shutting down"));
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Pure-Java forward pass of train.py's create_model():
+//   Conv2D(32, 3x3, relu) -> MaxPool(2) -> Conv2D(64, 3x3, relu) -> MaxPool(2)
+//   -> Flatten -> Dense(64, relu) -> Dense(classes, softmax)
+// Tensors are channels-last float[] buffers laid out exactly as in Keras, so Flatten is a no-op.
+// Every buffer is allocated up front and the fork/join tasks are reused, so forward() allocates
+// nothing. One image at a time: forward() is synchronized.
+class CnnEngine {
+    static final int INPUT_SIZE = 225;
+    static final int CHANNELS = 3;
+    static final int INPUT_LENGTH = INPUT_SIZE * INPUT_SIZE * CHANNELS;
+    // Dense(64) activations, used as the image's embedding.
+    static final int EMBEDDING_SIZE = 64;
+
+    private static final int CONV1_SIZE = INPUT_SIZE - 2;
+    private static final int POOL1_SIZE = CONV1_SIZE / 2;
+    private static final int CONV2_SIZE = POOL1_SIZE - 2;
+    private static final int POOL2_SIZE = CONV2_SIZE / 2;
+    private static final int CONV1_FILTERS = 32;
+    private static final int CONV2_FILTERS = 64;
+    private static final int HIDDEN = EMBEDDING_SIZE;
+    private static final int FLAT = POOL2_SIZE * POOL2_SIZE * CONV2_FILTERS;
+
+    private static final int CONV1 = 0, POOL1 = 1, CONV2 = 2, POOL2 = 3, DENSE1 = 4;
+
+    private final float[] conv1Kernel, conv1Bias, conv2Kernel, conv2Bias;
+    private final float[] dense1Kernel, dense1Bias, dense2Kernel, dense2Bias;
+    private final int classes;
+
+    private final float[] conv1Out = new float[CONV1_SIZE * CONV1_SIZE * CONV1_FILTERS];
+    private final float[] pool1Out = new float[POOL1_SIZE * POOL1_SIZE * CONV1_FILTERS];
+    private final float[] conv2Out = new float[CONV2_SIZE * CONV2_SIZE * CONV2_FILTERS];
+    private final float[] pool2Out = new float[FLAT];
+    private final float[] hidden = new float[HIDDEN];
+
+    private final ForkJoinPool pool;
+    private final Chunk[] chunks;
+    private final StageTask stageTask = new StageTask();
+    // Per-chunk scratch: one im2col row tile for the convolutions, partial sums for Dense(64).
+    private final float[][] tiles;
+    private final float[][] partialSums;
+    private int stage;
+    private float[] input;
+
+    private CnnEngine(float[][] weights, int classes, int parallelism) {
+        this.conv1Kernel = weights[0];
+        this.conv1Bias = weights[1];
+        this.conv2Kernel = weights[2];
+        this.conv2Bias = weights[3];
+        this.dense1Kernel = weights[4];
+        this.dense1Bias = weights[5];
+        this.dense2Kernel = weights[6];
+        this.dense2Bias = weights[7];
+        this.classes = classes;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        int chunkCount = Math.max(1, parallelism) * 4;
+        this.chunks = new Chunk[chunkCount];
+        this.tiles = new float[chunkCount][Math.max(CONV1_SIZE * 9 * CHANNELS, CONV2_SIZE * 9 * CONV1_FILTERS)];
+        this.partialSums = new float[chunkCount][HIDDEN];
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = new Chunk(i);
+        }
+    }
+
+    // Reads the file written by export_weights.py.
+    static CnnEngine load(Path weightsFile, int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(weightsFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[4];
+            buffer.get(magic);
+            if (!"LFW1".equals(new String(magic, java.nio.charset.StandardCharsets.US_ASCII))) {
+                throw new IOException("Not a weights file written by export_weights.py: " + weightsFile);
+            }
+            int count = buffer.getInt();
+            if (count != 8) {
+                throw new IOException("Expected 8 weight tensors for create_model(), found " + count);
+            }
+            float[][] weights = new float[count][];
+            int[][] shapes = new int[count][];
+            for (int t = 0; t < count; t++) {
+                int rank = buffer.getInt();
+                shapes[t] = new int[rank];
+                long length = 1;
+                for (int d = 0; d < rank; d++) {
+                    shapes[t][d] = buffer.getInt();
+                    length *= shapes[t][d];
+                }
+                weights[t] = new float[Math.toIntExact(length)];
+                buffer.asFloatBuffer().get(weights[t]);
+                buffer.position(buffer.position() + weights[t].length * Float.BYTES);
+            }
+            int classes = shapes[7].length == 1 ? shapes[7][0] : -1;
+            int[][] expected = {
+                {3, 3, CHANNELS, CONV1_FILTERS}, {CONV1_FILTERS},
+                {3, 3, CONV1_FILTERS, CONV2_FILTERS}, {CONV2_FILTERS},
+                {FLAT, HIDDEN}, {HIDDEN},
+                {HIDDEN, classes}, {classes}
+            };
+            for (int t = 0; t < count; t++) {
+                if (!Arrays.equals(shapes[t], expected[t])) {
+                    throw new IOException("Weight tensor " + t + " has shape " + Arrays.toString(shapes[t]) +
+                        ", expected " + Arrays.toString(expected[t]) + " for create_model()");
+                }
+            }
+            return new CnnEngine(weights, classes, parallelism);
+        }
+    }
+
+    int getClassCount() {
+        return classes;
+    }
+
+    // Stops the pool's worker threads; the engine cannot be used afterwards.
+    void close() {
+        pool.shutdown();
+    }
+
+    // input: 225x225x3 channels-last, values in [0, 1]. probabilities: one slot per class.
+    void forward(float[] input, float[] probabilities) {
+        forward(input, probabilities, null);
+    }
+
+    // Also copies the Dense(64) activations into embedding, unless it is null.
+    synchronized void forward(float[] input, float[] probabilities, float[] embedding) {
+        if (input.length != INPUT_LENGTH || probabilities.length != classes) {
+            throw new IllegalArgumentException("Expected " + INPUT_LENGTH + " inputs and " + classes + " outputs");
+        }
+        this.input = input;
+        runStage(CONV1);
+        runStage(POOL1);
+        runStage(CONV2);
+        runStage(POOL2);
+        runStage(DENSE1);
+        this.input = null;
+
+        System.arraycopy(dense1Bias, 0, hidden, 0, HIDDEN);
+        for (float[] partial : partialSums) {
+            for (int j = 0; j < HIDDEN; j++) {
+                hidden[j] += partial[j];
+            }
+        }
+        for (int j = 0; j < HIDDEN; j++) {
+            hidden[j] = Math.max(0f, hidden[j]);
+        }
+        if (embedding != null) {
+            System.arraycopy(hidden, 0, embedding, 0, HIDDEN);
+        }
+
+        float max = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < classes; c++) {
+            float logit = dense2Bias[c];
+            for (int j = 0; j < HIDDEN; j++) {
+                logit += hidden[j] * dense2Kernel[j * classes + c];
+            }
+            probabilities[c] = logit;
+            max = Math.max(max, logit);
+        }
+        float sum = 0f;
+        for (int c = 0; c < classes; c++) {
+            probabilities[c] = (float) Math.exp(probabilities[c] - max);
+            sum += probabilities[c];
+        }
+        for (int c = 0; c < classes; c++) {
+            probabilities[c] /= sum;
+        }
+    }
+
+    private void runStage(int stage) {
+        this.stage = stage;
+        stageTask.reinitialize();
+        pool.invoke(stageTask);
+    }
+
+    private void runChunk(int chunk) {
+        int n = chunks.length;
+        switch (stage) {
+            case CONV1:
+                convolve(input, INPUT_SIZE, CHANNELS, conv1Kernel, conv1Bias, CONV1_FILTERS, conv1Out, CONV1_SIZE,
+                    CONV1_SIZE * chunk / n, CONV1_SIZE * (chunk + 1) / n, tiles[chunk]);
+                break;
+            case POOL1:
+                maxPool(conv1Out, CONV1_SIZE, CONV1_FILTERS, pool1Out, POOL1_SIZE,
+                    POOL1_SIZE * chunk / n, POOL1_SIZE * (chunk + 1) / n);
+                break;
+            case CONV2:
+                convolve(pool1Out, POOL1_SIZE, CONV1_FILTERS, conv2Kernel, conv2Bias, CONV2_FILTERS, conv2Out, CONV2_SIZE,
+                    CONV2_SIZE * chunk / n, CONV2_SIZE * (chunk + 1) / n, tiles[chunk]);
+                break;
+            case POOL2:
+                maxPool(conv2Out, CONV2_SIZE, CONV2_FILTERS, pool2Out, POOL2_SIZE,
+                    POOL2_SIZE * chunk / n, POOL2_SIZE * (chunk + 1) / n);
+                break;
+            case DENSE1:
+                denseRange(pool2Out, FLAT / HIDDEN * chunk / n * HIDDEN, FLAT / HIDDEN * (chunk + 1) / n * HIDDEN,
+                    partialSums[chunk]);
+                break;
+            default:
+                throw new IllegalStateException("Unknown stage " + stage);
+        }
+    }
+
+    // Valid 3x3 convolution with fused bias and ReLU for output rows [y0, y1). Each output row is
+    // expanded into an im2col tile (outSize x 9*inC, small enough to stay in L2) and multiplied
+    // with the kernel matrix (9*inC x outC). The innermost loop runs over contiguous output channels.
+    private static void convolve(float[] in, int inSize, int inC, float[] kernel, float[] bias, int outC,
+                                 float[] out, int outSize, int y0, int y1, float[] tile) {
+        int k = 9 * inC;
+        int span = 3 * inC;
+        for (int y = y0; y < y1; y++) {
+            for (int x = 0; x < outSize; x++) {
+                for (int ky = 0; ky < 3; ky++) {
+                    System.arraycopy(in, ((y + ky) * inSize + x) * inC, tile, x * k + ky * span, span);
+                }
+            }
+            int rowStart = y * outSize * outC;
+            for (int x = 0; x < outSize; x++) {
+                int o = rowStart + x * outC;
+                System.arraycopy(bias, 0, out, o, outC);
+                int a = x * k;
+                for (int i = 0; i < k; i++) {
+                    float v = tile[a + i];
+                    if (v == 0f) {
+                        continue; // ReLU output feeding conv2 is mostly zeros
+                    }
+                    int w = i * outC;
+                    for (int c = 0; c < outC; c++) {
+                        out[o + c] += v * kernel[w + c];
+                    }
+                }
+                for (int c = 0; c < outC; c++) {
+                    if (out[o + c] < 0f) {
+                        out[o + c] = 0f;
+                    }
+                }
+            }
+        }
+    }
+
+    // 2x2 max pooling, stride 2, for output rows [y0, y1).
+    private static void maxPool(float[] in, int inSize, int channels, float[] out, int outSize, int y0, int y1) {
+        for (int y = y0; y < y1; y++) {
+            for (int x = 0; x < outSize; x++) {
+                int topLeft = ((2 * y) * inSize + 2 * x) * channels;
+                int bottomLeft = topLeft + inSize * channels;
+                int o = (y * outSize + x) * channels;
+                for (int c = 0; c < channels; c++) {
+                    out[o + c] = Math.max(
+                        Math.max(in[topLeft + c], in[topLeft + channels + c]),
+                        Math.max(in[bottomLeft + c], in[bottomLeft + channels + c]));
+                }
+            }
+        }
+    }
+
+    // Partial Dense(64) product over flattened inputs [from, to).
+    private void denseRange(float[] in, int from, int to, float[] acc) {
+        Arrays.fill(acc, 0f);
+        for (int i = from; i < to; i++) {
+            float v = in[i];
+            if (v == 0f) {
+                continue;
+            }
+            int w = i * HIDDEN;
+            for (int j = 0; j < HIDDEN; j++) {
+                acc[j] += v * dense1Kernel[w + j];
+            }
+        }
+    }
+
+    private final class StageTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (Chunk chunk : chunks) {
+                chunk.reinitialize();
+            }
+            invokeAll(chunks);
+        }
+    }
+
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+
+        Chunk(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            runChunk(index);
+        }
+    }
+}
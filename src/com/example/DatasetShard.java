@@ -0,0 +1,397 @@
+package com.example;
+
+import org.json.JSONObject;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A data/<split>/<Species>/*.jpg tree decoded once into a single file of model-ready pixels, so
+// repeated evaluations skip JPEG decoding and resizing. Layout, little-endian:
+//   header (4096 bytes): magic "LDS1" | int version | int count | int height | int width | int channels
+//                        | long index offset
+//   data:   count tensors of height*width*channels uint8 RGB, channels last, back to back
+//   index:  int label count, labels (short length + UTF-8) in the model's class order, then per image:
+//           int label (-1 if its folder is not one of the labels) | 32-byte SHA-256 of the original
+//           file | short length + UTF-8 path
+// The data is memory-mapped; tensor(i) is a zero-copy view and readTensor(i, ...) normalizes it
+// like ImagePreprocessor does, bit for bit.
+//   java -cp ... com.example.DatasetShard pack data/test test.shard [--parallelism 8]
+//     takes its labels from the model version the backend starts with, see ModelVersion
+//   java -cp ... com.example.DatasetShard eval test.shard [--batch-size 16] [--parallelism 2]
+final class DatasetShard implements Closeable {
+    private static final int MAGIC = 0x3153444C; // "LDS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4096;
+    static final int TENSOR_BYTES = ImagePreprocessor.SIZE * ImagePreprocessor.SIZE * 3;
+    // Images per mapping: a MappedByteBuffer cannot exceed 2 GB.
+    private static final int IMAGES_PER_SEGMENT = Integer.MAX_VALUE / TENSOR_BYTES;
+
+    private static final float[] UNIT = new float[256];
+    static {
+        for (int v = 0; v < 256; v++) {
+            UNIT[v] = v / 255f;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final java.util.List<String> labels;
+    private final int[] imageLabels;
+    private final byte[] hashes;
+    private final String[] paths;
+
+    private DatasetShard(FileChannel channel, MappedByteBuffer[] segments, java.util.List<String> labels,
+                         int[] imageLabels, byte[] hashes, String[] paths) {
+        this.channel = channel;
+        this.segments = segments;
+        this.labels = labels;
+        this.imageLabels = imageLabels;
+        this.hashes = hashes;
+        this.paths = paths;
+    }
+
+    static DatasetShard open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(36).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a dataset shard");
+            }
+            int count = header.getInt();
+            int height = header.getInt();
+            int width = header.getInt();
+            int channels = header.getInt();
+            long indexOffset = header.getLong();
+            if (height != ImagePreprocessor.SIZE || width != ImagePreprocessor.SIZE || channels != 3) {
+                throw new IOException(file + " holds " + height + "x" + width + "x" + channels + " tensors, the model takes " +
+                    ImagePreprocessor.SIZE + "x" + ImagePreprocessor.SIZE + "x3");
+            }
+
+            ByteBuffer index = ByteBuffer.allocate((int) (channel.size() - indexOffset)).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, index, indexOffset);
+            index.flip();
+            java.util.List<String> labels = new ArrayList<>();
+            for (int i = index.getInt(); i > 0; i--) {
+                labels.add(readString(index));
+            }
+            int[] imageLabels = new int[count];
+            byte[] hashes = new byte[count * 32];
+            String[] paths = new String[count];
+            for (int i = 0; i < count; i++) {
+                imageLabels[i] = index.getInt();
+                index.get(hashes, i * 32, 32);
+                paths[i] = readString(index);
+            }
+
+            MappedByteBuffer[] segments = new MappedByteBuffer[(count + IMAGES_PER_SEGMENT - 1) / IMAGES_PER_SEGMENT];
+            for (int s = 0; s < segments.length; s++) {
+                int images = Math.min(IMAGES_PER_SEGMENT, count - s * IMAGES_PER_SEGMENT);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + (long) s * IMAGES_PER_SEGMENT * TENSOR_BYTES, (long) images * TENSOR_BYTES);
+            }
+            return new DatasetShard(channel, segments, java.util.List.copyOf(labels), imageLabels, hashes, paths);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int size() {
+        return paths.length;
+    }
+
+    java.util.List<String> labels() {
+        return labels;
+    }
+
+    // Index into labels(), -1 if the image's folder was not a known species.
+    int label(int image) {
+        return imageLabels[image];
+    }
+
+    String path(int image) {
+        return paths[image];
+    }
+
+    // SHA-256 of the original file, the same key the result cache uses for it.
+    String contentHash(int image) {
+        return ResultCache.toHex(Arrays.copyOfRange(hashes, image * 32, image * 32 + 32));
+    }
+
+    // Zero-copy read-only view of the image's uint8 pixels.
+    ByteBuffer tensor(int image) {
+        ByteBuffer segment = segments[image / IMAGES_PER_SEGMENT];
+        int offset = image % IMAGES_PER_SEGMENT * TENSOR_BYTES;
+        return segment.slice(offset, TENSOR_BYTES).asReadOnlyBuffer();
+    }
+
+    // The model tensor, values / 255 as in infer.py.
+    void readTensor(int image, float[] tensor, int offset) {
+        ByteBuffer segment = segments[image / IMAGES_PER_SEGMENT];
+        int start = image % IMAGES_PER_SEGMENT * TENSOR_BYTES;
+        for (int i = 0; i < TENSOR_BYTES; i++) {
+            tensor[offset + i] = UNIT[segment.get(start + i) & 0xFF];
+        }
+    }
+
+    // Splits [0, size) into up to `parts` contiguous ranges {from, to} for parallel iteration.
+    java.util.List<int[]> split(int parts) {
+        java.util.List<int[]> ranges = new ArrayList<>();
+        int count = size();
+        int chunk = Math.max(1, (count + parts - 1) / Math.max(1, parts));
+        for (int from = 0; from < count; from += chunk) {
+            ranges.add(new int[]{from, Math.min(count, from + chunk)});
+        }
+        return ranges;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Decodes every image under root in parallel and writes them to the shard, in sorted path order.
+    // Workers write their tensors straight to their slot in the file; the index follows the data.
+    // labels are the model's, in class order; an image is labeled by its folder name.
+    static int pack(Path root, Path out, java.util.List<String> labels, int parallelism)
+            throws IOException, InterruptedException {
+        java.util.List<Path> images = new ArrayList<>(BatchClassifier.findImages(root));
+        Collections.sort(images);
+        int count = images.size();
+        int[] imageLabels = new int[count];
+        byte[] hashes = new byte[count * 32];
+        Path temp = out.resolveSibling(out.getFileName() + ".tmp");
+        AtomicInteger failed = new AtomicInteger();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            ThreadLocal<float[]> floats = ThreadLocal.withInitial(() -> new float[ImagePreprocessor.TENSOR_LENGTH]);
+            ThreadLocal<ByteBuffer> pixels = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(TENSOR_BYTES));
+            java.util.List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int image = i;
+                futures.add(executor.submit(() -> {
+                    Path path = images.get(image);
+                    Path parent = path.getParent();
+                    imageLabels[image] = parent == null ? -1 : labels.indexOf(parent.getFileName().toString());
+                    ByteBuffer buffer = pixels.get();
+                    buffer.clear();
+                    try {
+                        byte[] bytes = Files.readAllBytes(path);
+                        MessageDigest digest = ResultCache.sha256();
+                        System.arraycopy(digest.digest(bytes), 0, hashes, image * 32, 32);
+                        BufferedImage decoded = ImagePreprocessor.decode(bytes);
+                        float[] tensor = floats.get();
+                        ImagePreprocessor.writeTensor(decoded, FloatBuffer.wrap(tensor));
+                        for (float value : tensor) {
+                            buffer.put((byte) Math.round(value * 255f));
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // Keep the slot: a black image that the index marks as unlabeled.
+                        System.err.println("Skipping " + path + ": " + e.getMessage());
+                        failed.incrementAndGet();
+                        imageLabels[image] = -1;
+                        while (buffer.hasRemaining()) {
+                            buffer.put((byte) 0);
+                        }
+                    }
+                    buffer.flip();
+                    try {
+                        long position = HEADER_BYTES + (long) image * TENSOR_BYTES;
+                        while (buffer.hasRemaining()) {
+                            position += channel.write(buffer, position);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            executor.shutdown();
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to write " + temp + ": " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+
+            long indexOffset = HEADER_BYTES + (long) count * TENSOR_BYTES;
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(indexBytes);
+            index.writeInt(Integer.reverseBytes(labels.size()));
+            for (String label : labels) {
+                writeString(index, label);
+            }
+            for (int i = 0; i < count; i++) {
+                index.writeInt(Integer.reverseBytes(imageLabels[i]));
+                index.write(hashes, i * 32, 32);
+                writeString(index, images.get(i).toString());
+            }
+            writeFully(channel, ByteBuffer.wrap(indexBytes.toByteArray()), indexOffset);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count)
+                .putInt(ImagePreprocessor.SIZE).putInt(ImagePreprocessor.SIZE).putInt(3)
+                .putLong(indexOffset);
+            header.clear();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count - failed.get();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(Short.reverseBytes((short) bytes.length));
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Dataset shard is truncated");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // Classifies every image in the shard with the configured backend, `parallelism` ranges at a time
+    // in batches, and reports throughput and accuracy against the folder labels.
+    static void evaluate(DatasetShard shard, InferenceBackend backend, int batchSize, int parallelism, PrintStream out)
+            throws IOException, InterruptedException {
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger labeled = new AtomicInteger();
+        AtomicInteger correct = new AtomicInteger();
+        int[] perLabelTotal = new int[shard.labels().size()];
+        int[] perLabelCorrect = new int[shard.labels().size()];
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        java.util.List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int[] range : shard.split(parallelism)) {
+            futures.add(executor.submit(() -> {
+                float[][] tensors = new float[batchSize][ImagePreprocessor.TENSOR_LENGTH];
+                for (int from = range[0]; from < range[1]; from += batchSize) {
+                    int to = Math.min(range[1], from + batchSize);
+                    java.util.List<PreparedImage> batch = new ArrayList<>(to - from);
+                    for (int i = from; i < to; i++) {
+                        StageTimings timings = new StageTimings();
+                        long readStart = System.nanoTime();
+                        shard.readTensor(i, tensors[i - from], 0);
+                        timings.preprocessNanos = System.nanoTime() - readStart;
+                        batch.add(new PreparedImage(new File(shard.path(i)), shard.contentHash(i), tensors[i - from],
+                            null, timings));
+                    }
+                    java.util.List<JSONObject> results = backend.classifyPrepared(batch);
+                    for (int i = from; i < to; i++) {
+                        JSONObject result = results.get(i - from);
+                        completed.incrementAndGet();
+                        if (result.has("error")) {
+                            failed.incrementAndGet();
+                            continue;
+                        }
+                        int label = shard.label(i);
+                        if (label >= 0) {
+                            boolean right = shard.labels().get(label).equals(result.optString("leaf_type"));
+                            labeled.incrementAndGet();
+                            synchronized (perLabelTotal) {
+                                perLabelTotal[label]++;
+                                if (right) {
+                                    perLabelCorrect[label]++;
+                                }
+                            }
+                            if (right) {
+                                correct.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Images: %d (%d failed) in %.2f s, %.1f images/sec%n", completed.get(), failed.get(), seconds,
+            completed.get() / seconds);
+        if (labeled.get() > 0) {
+            out.printf("Accuracy: %d/%d (%.1f%%)%n", correct.get(), labeled.get(), 100.0 * correct.get() / labeled.get());
+            for (int label = 0; label < perLabelTotal.length; label++) {
+                if (perLabelTotal[label] > 0) {
+                    out.printf("  %-26s %d/%d%n", shard.labels().get(label), perLabelCorrect[label], perLabelTotal[label]);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !(args[0].equals("pack") && args.length >= 3 || args[0].equals("eval"))) {
+            System.err.println("Usage: DatasetShard pack <data/split> <out.shard> [--parallelism N]\n" +
+                "       DatasetShard eval <file.shard> [--batch-size 16] [--parallelism 2]");
+            System.exit(2);
+        }
+        int first = args[0].equals("pack") ? 3 : 2;
+        int parallelism = args[0].equals("pack") ? Runtime.getRuntime().availableProcessors() : 2;
+        int batchSize = 16;
+        for (int i = first; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            }
+            switch (args[i]) {
+                case "--parallelism": parallelism = Integer.parseInt(args[i + 1]); break;
+                case "--batch-size": batchSize = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (args[0].equals("pack")) {
+            long start = System.nanoTime();
+            Path out = Paths.get(args[2]);
+            int packed = pack(Paths.get(args[1]), out, ModelVersion.fromSystemProperties().getLabels(), parallelism);
+            System.out.printf("Packed %d images into %s (%.1f MB) in %.2f s%n", packed, out,
+                Files.size(out) / 1e6, (System.nanoTime() - start) / 1e9);
+            return;
+        }
+        try (DatasetShard shard = open(Paths.get(args[1]));
+             InferenceBackend backend = InferenceBackend.fromSystemProperties()) {
+            evaluate(shard, backend, batchSize, parallelism, System.out);
+        }
+    }
+}
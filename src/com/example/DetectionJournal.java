@@ -0,0 +1,414 @@
+package com.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// Keeps the app's detection history across restarts. Every detection is appended to a log file as a
+// checksummed record; a single writer thread batches whatever has queued up into one write and one
+// fsync, so callers (the EDT) never touch the disk. The log is periodically compacted into a snapshot
+// holding one entry per species (its features and detection count), after which the log starts over.
+// Restoring reads the snapshot plus the short log tail, so it costs the same after 300 detections as
+// after 300,000.
+//
+// Log:      "LDJ1", then records [int length | int CRC32 of body | body]
+//           body = long sequence | long time millis | float confidence | str leaf_type | short n | str feature * n
+// Snapshot: "LDJS" | long last sequence | long detections | int species
+//           | (str leaf_type | long count | short n | str feature * n) * species | int CRC32 of all before it
+// where str is a short byte length and UTF-8 bytes. A torn or corrupt record ends the log: it and anything
+// after it are cut off when the journal is opened.
+final class DetectionJournal implements Closeable {
+    private static final int LOG_MAGIC = 0x4C444A31; // "LDJ1"
+    private static final int SNAPSHOT_MAGIC = 0x4C444A53; // "LDJS"
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final int MAX_BATCH = 4096;
+
+    private static final class Entry {
+        final long time;
+        final String leafType;
+        final float confidence;
+        final String[] features;
+
+        Entry(long time, String leafType, float confidence, String[] features) {
+            this.time = time;
+            this.leafType = leafType;
+            this.confidence = confidence;
+            this.features = features;
+        }
+    }
+
+    private static final class Species {
+        long count;
+        final Set<String> features = new LinkedHashSet<>();
+    }
+
+    private static final Entry CLOSE = new Entry(0, "", 0, new String[0]);
+
+    private final Path logFile;
+    private final Path snapshotFile;
+    private final int compactRecords;
+    private final boolean sync;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final CompletableFuture<List<JSONObject>> restored = new CompletableFuture<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Owned by the writer thread.
+    private final Map<String, Species> species = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private long sequence;
+    private long detections;
+    private int tailRecords;
+
+    // The journal is opened and read on its own thread; restored() completes once that is done.
+    DetectionJournal(Path logFile, int compactRecords, boolean sync) {
+        this.logFile = logFile;
+        this.snapshotFile = logFile.resolveSibling(logFile.getFileName() + ".snapshot");
+        this.compactRecords = compactRecords;
+        this.sync = sync;
+        this.writer = new Thread(this::run, "detection-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // leaf.journal (default detections.journal, "" turns the history off), leaf.journal.compact
+    // (records in the log before it is compacted, default 10000) and leaf.journal.sync (fsync every
+    // batch, default true). Returns null when turned off.
+    static DetectionJournal fromSystemProperties() {
+        String file = System.getProperty("leaf.journal", "detections.journal");
+        if (file.isEmpty()) {
+            return null;
+        }
+        DetectionJournal journal = new DetectionJournal(Paths.get(file), Integer.getInteger("leaf.journal.compact", 10_000),
+            Boolean.parseBoolean(System.getProperty("leaf.journal.sync", "true")));
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "detection-journal-close"));
+        return journal;
+    }
+
+    // The history as of opening, one {"leaf_type", "features", "count"} per species in first-seen order.
+    // Empty if the journal could not be read. Detections appended since are not included.
+    CompletableFuture<List<JSONObject>> restored() {
+        return restored;
+    }
+
+    // Queues a detection result for writing; returns immediately.
+    void append(JSONObject result) {
+        if (closed) {
+            return;
+        }
+        JSONArray featuresArray = result.optJSONArray("features");
+        String[] features = new String[featuresArray == null ? 0 : featuresArray.length()];
+        for (int i = 0; i < features.length; i++) {
+            features[i] = featuresArray.getString(i);
+        }
+        queue.add(new Entry(System.currentTimeMillis(), result.getString("leaf_type"),
+            (float) result.optDouble("confidence", 0), features));
+    }
+
+    // Writes what is still queued, compacts and closes the files. Appends after this are ignored.
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            open();
+        } catch (IOException e) {
+            System.err.println("Detection history disabled: " + e.getMessage());
+            closed = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Reported above.
+                }
+            }
+            queue.clear();
+            restored.complete(Collections.emptyList());
+            return;
+        }
+        restored.complete(toJson());
+        List<Entry> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                boolean closing = batch.remove(CLOSE);
+                write(batch);
+                batch.clear();
+                if (closing) {
+                    if (tailRecords > 0) {
+                        compact();
+                    }
+                    break;
+                }
+                if (tailRecords >= compactRecords) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Detection history stopped: " + e.getMessage());
+            closed = true;
+            queue.clear();
+        } catch (InterruptedException e) {
+            // Daemon thread; nothing else to do.
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already closing.
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        if (Files.exists(snapshotFile)) {
+            try {
+                readSnapshot(ByteBuffer.wrap(Files.readAllBytes(snapshotFile)));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ignoring unreadable " + snapshotFile + ": " + e.getMessage());
+                species.clear();
+                sequence = 0;
+                detections = 0;
+            }
+        }
+        long snapshotSequence = sequence;
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < 4) {
+            buffer.clear();
+            buffer.putInt(LOG_MAGIC).flip();
+            channel.truncate(0);
+            writeFully(0);
+            channel.force(true);
+            channel.position(4);
+            return;
+        }
+        buffer.clear().limit(4);
+        channel.read(buffer, 0);
+        if (buffer.flip().getInt() != LOG_MAGIC) {
+            throw new IOException(logFile + " is not a detection journal");
+        }
+        long validEnd = readLog(snapshotSequence);
+        if (validEnd < size) {
+            System.err.println("Detection history: dropped " + (size - validEnd) + " bytes of incomplete records from " + logFile);
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+        channel.position(validEnd);
+        if (tailRecords >= compactRecords) {
+            compact();
+        }
+    }
+
+    // Applies the log's records after the snapshot and returns where the last intact one ends.
+    private long readLog(long snapshotSequence) throws IOException {
+        long filePosition = 4;
+        long validEnd = filePosition;
+        buffer.clear();
+        while (true) {
+            int read = channel.read(buffer, filePosition);
+            if (read > 0) {
+                filePosition += read;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= 8) {
+                int start = buffer.position();
+                int length = buffer.getInt(start);
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    return validEnd;
+                }
+                if (buffer.remaining() < 8 + length) {
+                    break;
+                }
+                ByteBuffer body = buffer.duplicate();
+                body.position(start + 8).limit(start + 8 + length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+                    return validEnd;
+                }
+                try {
+                    apply(body, snapshotSequence);
+                } catch (RuntimeException e) {
+                    return validEnd;
+                }
+                buffer.position(start + 8 + length);
+                validEnd += 8 + length;
+            }
+            buffer.compact();
+            if (read <= 0) {
+                return validEnd; // Whatever is left is a record cut short
+            }
+            if (!buffer.hasRemaining()) {
+                ensureCapacity(buffer.capacity());
+            }
+        }
+    }
+
+    private void apply(ByteBuffer body, long snapshotSequence) {
+        long recordSequence = body.getLong();
+        if (recordSequence <= snapshotSequence) {
+            return; // Written before the last compaction, which crashed before the log was cleared
+        }
+        body.getLong(); // time
+        body.getFloat(); // confidence
+        Species entry = species.computeIfAbsent(getString(body), k -> new Species());
+        entry.count++;
+        for (int n = body.getShort() & 0xFFFF; n > 0; n--) {
+            entry.features.add(getString(body));
+        }
+        sequence = recordSequence;
+        detections++;
+        tailRecords++;
+    }
+
+    private void readSnapshot(ByteBuffer in) throws IOException {
+        if (in.remaining() < 28 || in.getInt(0) != SNAPSHOT_MAGIC) {
+            throw new IOException("not a detection snapshot");
+        }
+        crc.reset();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+            throw new IOException("checksum mismatch");
+        }
+        in.position(4);
+        sequence = in.getLong();
+        detections = in.getLong();
+        for (int count = in.getInt(); count > 0; count--) {
+            Species entry = species.computeIfAbsent(getString(in), k -> new Species());
+            entry.count += in.getLong();
+            for (int n = in.getShort() & 0xFFFF; n > 0; n--) {
+                entry.features.add(getString(in));
+            }
+        }
+    }
+
+    // One write and, with sync on, one fsync for the whole batch.
+    private void write(List<Entry> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        buffer.clear();
+        for (Entry entry : batch) {
+            Species known = species.computeIfAbsent(entry.leafType, k -> new Species());
+            known.count++;
+            Collections.addAll(known.features, entry.features);
+            sequence++;
+            detections++;
+            tailRecords++;
+            ensureCapacity(64 + 3 * (entry.leafType.length() + Arrays.stream(entry.features).mapToInt(f -> 2 + f.length()).sum()));
+            int start = buffer.position();
+            buffer.position(start + 8);
+            buffer.putLong(sequence).putLong(entry.time).putFloat(entry.confidence);
+            putString(entry.leafType);
+            buffer.putShort((short) entry.features.length);
+            for (String feature : entry.features) {
+                putString(feature);
+            }
+            int end = buffer.position();
+            ByteBuffer body = buffer.duplicate();
+            body.position(start + 8).limit(end);
+            crc.reset();
+            crc.update(body);
+            buffer.putInt(start, end - start - 8).putInt(start + 4, (int) crc.getValue());
+        }
+        buffer.flip();
+        writeFully(channel.position());
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    // Writes the snapshot next to the log and swaps it in atomically, then starts the log over. A crash in
+    // between leaves records the new snapshot already covers; their sequence numbers mark them as such.
+    private void compact() throws IOException {
+        buffer.clear();
+        ensureCapacity(24);
+        buffer.putInt(SNAPSHOT_MAGIC).putLong(sequence).putLong(detections).putInt(species.size());
+        for (Map.Entry<String, Species> entry : species.entrySet()) {
+            ensureCapacity(16 + 3 * (entry.getKey().length() + entry.getValue().features.stream().mapToInt(f -> 2 + f.length()).sum()));
+            putString(entry.getKey());
+            buffer.putLong(entry.getValue().count).putShort((short) entry.getValue().features.size());
+            for (String feature : entry.getValue().features) {
+                putString(feature);
+            }
+        }
+        ByteBuffer body = buffer.duplicate().flip();
+        crc.reset();
+        crc.update(body);
+        ensureCapacity(4);
+        buffer.putInt((int) crc.getValue()).flip();
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.truncate(4);
+        channel.force(true);
+        channel.position(4);
+        tailRecords = 0;
+    }
+
+    private void writeFully(long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.position(position);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 0xFFFF);
+        buffer.putShort((short) length).put(bytes, 0, length);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<JSONObject> toJson() {
+        List<JSONObject> leaves = new ArrayList<>(species.size());
+        for (Map.Entry<String, Species> entry : species.entrySet()) {
+            leaves.add(new JSONObject()
+                .put("leaf_type", entry.getKey())
+                .put("features", new JSONArray(entry.getValue().features))
+                .put("count", entry.getValue().count));
+        }
+        return leaves;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example;
+
+import javax.swing.*;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+
+// Runs detections one at a time, in submission order, on a background thread so the EDT never
+// blocks on inference. Callbacks and queue-change notifications are delivered on the EDT.
+class DetectionQueue {
+    private final ImageProcessor imageProcessor;
+    private final ThreadPoolExecutor executor;
+    private final Deque<Future<JSONObject>> pending = new ConcurrentLinkedDeque<>();
+    private final Runnable onQueueChanged;
+
+    public DetectionQueue(ImageProcessor imageProcessor, int capacity, Runnable onQueueChanged) {
+        this.imageProcessor = imageProcessor;
+        this.onQueueChanged = onQueueChanged;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(capacity), r -> {
+                Thread t = new Thread(r, "detection");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    // Returns false if the queue is full.
+    public boolean submit(PreparedImage image, Consumer<JSONObject> onResult, Consumer<Exception> onError) {
+        FutureTask<JSONObject> task = new FutureTask<>(() -> imageProcessor.classify(image)) {
+            @Override
+            protected void done() {
+                SwingUtilities.invokeLater(() -> {
+                    pending.remove(this);
+                    if (!isCancelled()) {
+                        try {
+                            onResult.accept(get());
+                        } catch (ExecutionException e) {
+                            Throwable cause = e.getCause();
+                            onError.accept(cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    onQueueChanged.run();
+                });
+            }
+        };
+        pending.add(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(task);
+            return false;
+        }
+        onQueueChanged.run();
+        return true;
+    }
+
+    // Number of detections running or waiting.
+    public int size() {
+        return pending.size();
+    }
+
+    // Cancels queued detections and interrupts the running one.
+    public void cancelAll() {
+        for (Future<JSONObject> future : pending) {
+            future.cancel(true);
+        }
+        executor.purge();
+    }
+}
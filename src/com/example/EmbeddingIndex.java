@@ -0,0 +1,605 @@
+package com.example;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Nearest-neighbour search over image embeddings: the Dense(64) activations of the model's
+// penultimate layer, L2-normalized so cosine similarity is a dot product. All vectors live in one
+// contiguous float[]. Small indexes are scanned exactly. Larger ones are searched through an HNSW
+// graph (hierarchical navigable small world): a greedy walk down sparse upper layers, then a beam
+// search of the bottom layer. Inserts are incremental. Searches share a read lock and inserts take
+// the write lock.
+final class EmbeddingIndex {
+    static final int DIMENSION = CnnEngine.EMBEDDING_SIZE;
+    private static final int MAGIC = 0x4C454931; // "LEI1"
+    private static final int M = 16; // Links per node on the upper layers
+    private static final int M0 = 2 * M; // and on the bottom layer
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 64;
+    private static final int EXACT_BELOW = 2048;
+    private static final double LEVEL_FACTOR = 1 / Math.log(M);
+
+    static final class Match {
+        final String key;
+        final String path;
+        final String label;
+        final float similarity;
+
+        Match(String key, String path, String label, float similarity) {
+            this.key = key;
+            this.path = path;
+            this.label = label;
+            this.similarity = similarity;
+        }
+    }
+
+    private float[] vectors = new float[1024 * DIMENSION];
+    private int[][] links = new int[1024][]; // links[node][level]: count, then neighbour ids
+    private int[][][] upperLinks = new int[1024][][]; // levels 1.. of the few nodes that have them
+    private String[] keys = new String[1024];
+    private String[] paths = new String[1024];
+    private String[] labels = new String[1024];
+    private final Map<String, Integer> byKey = new HashMap<>();
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private final Random random = new Random(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<SearchState> searchStates = ThreadLocal.withInitial(SearchState::new);
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(String key) {
+        lock.readLock().lock();
+        try {
+            return byKey.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Adds one image; false if its key is already indexed or the embedding is all zeros.
+    boolean add(String key, String path, String label, float[] embedding) {
+        float[] vector = normalize(embedding);
+        if (vector == null) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            if (byKey.containsKey(key)) {
+                return false;
+            }
+            int node = size;
+            ensureCapacity(node + 1);
+            System.arraycopy(vector, 0, vectors, node * DIMENSION, DIMENSION);
+            keys[node] = key;
+            paths[node] = path;
+            labels[node] = label;
+            byKey.put(key, node);
+            size++;
+            insert(node, (int) (-Math.log(1 - random.nextDouble()) * LEVEL_FACTOR));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The k most similar images, best first, leaving out excludeKey (may be null).
+    java.util.List<Match> nearest(float[] embedding, int k, String excludeKey) {
+        float[] query = normalize(embedding);
+        if (query == null) {
+            return java.util.List.of();
+        }
+        lock.readLock().lock();
+        try {
+            int wanted = excludeKey != null && byKey.containsKey(excludeKey) ? k + 1 : k;
+            LongHeap found = size < EXACT_BELOW ? scan(query, wanted) : search(query, wanted);
+            return matches(found, k, excludeKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Exact answer by scanning every vector, for checking the graph search.
+    java.util.List<Match> nearestExact(float[] embedding, int k, String excludeKey) {
+        float[] query = normalize(embedding);
+        if (query == null) {
+            return java.util.List.of();
+        }
+        lock.readLock().lock();
+        try {
+            return matches(scan(query, excludeKey != null ? k + 1 : k), k, excludeKey);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private java.util.List<Match> matches(LongHeap found, int k, String excludeKey) {
+        long[] entries = found.sortedDescending();
+        java.util.List<Match> result = new ArrayList<>(k);
+        for (long entry : entries) {
+            int node = node(entry);
+            if (result.size() < k && !keys[node].equals(excludeKey)) {
+                result.add(new Match(keys[node], paths[node], labels[node], similarity(entry)));
+            }
+        }
+        return result;
+    }
+
+    private LongHeap scan(float[] query, int k) {
+        LongHeap best = new LongHeap(k + 1);
+        for (int node = 0; node < size; node++) {
+            float similarity = dot(query, 0, vectors, node * DIMENSION);
+            if (best.size() < k || similarity > similarity(best.peek())) {
+                best.push(entry(similarity, node));
+                if (best.size() > k) {
+                    best.pop();
+                }
+            }
+        }
+        return best;
+    }
+
+    private LongHeap search(float[] query, int k) {
+        int current = entryPoint;
+        for (int level = maxLevel; level > 0; level--) {
+            current = greedy(query, current, level);
+        }
+        LongHeap found = searchLayer(query, current, Math.max(EF_SEARCH, k), 0);
+        while (found.size() > k) {
+            found.pop();
+        }
+        return found;
+    }
+
+    private void insert(int node, int level) {
+        links[node] = new int[M0 + 1];
+        if (level > 0) {
+            upperLinks[node] = new int[level][];
+            for (int l = 0; l < level; l++) {
+                upperLinks[node][l] = new int[M + 1];
+            }
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        float[] query = Arrays.copyOfRange(vectors, node * DIMENSION, node * DIMENSION + DIMENSION);
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedy(query, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            LongHeap candidates = searchLayer(query, current, EF_CONSTRUCTION, l);
+            long[] sorted = candidates.sortedDescending();
+            current = node(sorted[0]);
+            int[] selected = selectNeighbours(node, sorted, l == 0 ? M0 : M);
+            int[] own = neighbours(node, l);
+            own[0] = selected.length;
+            System.arraycopy(selected, 0, own, 1, selected.length);
+            for (int neighbour : selected) {
+                connect(neighbour, node, l);
+            }
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    // Adds a link from node to added, re-selecting node's neighbours with the heuristic if the list is
+    // full. Simply dropping the least similar link is cheaper but loses about a quarter of the recall
+    // on clustered data.
+    private void connect(int node, int added, int level) {
+        int[] list = neighbours(node, level);
+        int max = list.length - 1;
+        if (list[0] < max) {
+            list[++list[0]] = added;
+            return;
+        }
+        LongHeap candidates = new LongHeap(max + 2);
+        for (int i = 1; i <= list[0]; i++) {
+            candidates.push(entry(dot(vectors, node * DIMENSION, vectors, list[i] * DIMENSION), list[i]));
+        }
+        candidates.push(entry(dot(vectors, node * DIMENSION, vectors, added * DIMENSION), added));
+        int[] selected = selectNeighbours(node, candidates.sortedDescending(), max);
+        list[0] = selected.length;
+        System.arraycopy(selected, 0, list, 1, selected.length);
+    }
+
+    // HNSW's neighbour heuristic: take candidates best first, skipping any that is closer to an
+    // already chosen neighbour than to the node, so links spread out in different directions. Skipped
+    // candidates fill up the remaining slots.
+    private int[] selectNeighbours(int node, long[] candidatesBestFirst, int max) {
+        int[] selected = new int[max];
+        int count = 0;
+        int[] skipped = new int[candidatesBestFirst.length];
+        int skippedCount = 0;
+        for (long candidate : candidatesBestFirst) {
+            int id = node(candidate);
+            if (id == node) {
+                continue;
+            }
+            if (count == max) {
+                break;
+            }
+            float toNode = similarity(candidate);
+            boolean keep = true;
+            for (int i = 0; i < count && keep; i++) {
+                keep = dot(vectors, id * DIMENSION, vectors, selected[i] * DIMENSION) <= toNode;
+            }
+            if (keep) {
+                selected[count++] = id;
+            } else {
+                skipped[skippedCount++] = id;
+            }
+        }
+        for (int i = 0; i < skippedCount && count < max; i++) {
+            selected[count++] = skipped[i];
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private int greedy(float[] query, int start, int level) {
+        int current = start;
+        float best = dot(query, 0, vectors, current * DIMENSION);
+        for (boolean improved = true; improved; ) {
+            improved = false;
+            int[] list = neighbours(current, level);
+            for (int i = 1; i <= list[0]; i++) {
+                float similarity = dot(query, 0, vectors, list[i] * DIMENSION);
+                if (similarity > best) {
+                    best = similarity;
+                    current = list[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Beam search of one layer: returns up to ef of the most similar nodes found, as a min-heap.
+    private LongHeap searchLayer(float[] query, int start, int ef, int level) {
+        SearchState state = searchStates.get();
+        state.reset(size);
+        LongHeap candidates = state.candidates; // Negated entries: a max-heap by similarity
+        LongHeap found = new LongHeap(ef + 1);
+        long first = entry(dot(query, 0, vectors, start * DIMENSION), start);
+        state.visit(start);
+        candidates.push(~first);
+        found.push(first);
+        while (candidates.size() > 0) {
+            long candidate = ~candidates.pop();
+            if (found.size() >= ef && similarity(candidate) < similarity(found.peek())) {
+                break;
+            }
+            int[] list = neighbours(node(candidate), level);
+            for (int i = 1; i <= list[0]; i++) {
+                int neighbour = list[i];
+                if (!state.visit(neighbour)) {
+                    continue;
+                }
+                float similarity = dot(query, 0, vectors, neighbour * DIMENSION);
+                if (found.size() < ef || similarity > similarity(found.peek())) {
+                    long entry = entry(similarity, neighbour);
+                    candidates.push(~entry);
+                    found.push(entry);
+                    if (found.size() > ef) {
+                        found.pop();
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int[] neighbours(int node, int level) {
+        return level == 0 ? links[node] : upperLinks[node][level - 1];
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= keys.length) {
+            return;
+        }
+        int capacity = Math.max(needed, keys.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * DIMENSION);
+        links = Arrays.copyOf(links, capacity);
+        upperLinks = Arrays.copyOf(upperLinks, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        paths = Arrays.copyOf(paths, capacity);
+        labels = Arrays.copyOf(labels, capacity);
+    }
+
+    private static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        // Four independent sums let the CPU overlap the multiply-adds.
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int i = 0; i < DIMENSION; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static float[] normalize(float[] embedding) {
+        if (embedding == null || embedding.length != DIMENSION) {
+            return null;
+        }
+        double norm = 0;
+        for (float v : embedding) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float[] vector = new float[DIMENSION];
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = embedding[i] * scale;
+        }
+        return vector;
+    }
+
+    // (similarity, node) packed so that ordering longs orders by similarity: the float's bits are
+    // made sign-magnitude-comparable as an int and put in the high half.
+    private static long entry(float similarity, int node) {
+        int bits = Float.floatToIntBits(similarity);
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return (long) bits << 32 | (node & 0xFFFFFFFFL);
+    }
+
+    private static float similarity(long entry) {
+        int bits = (int) (entry >> 32);
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return Float.intBitsToFloat(bits);
+    }
+
+    private static int node(long entry) {
+        return (int) entry;
+    }
+
+    // Stand-in embedding for backends without a model (the stub backend): the 8x8 grid of mean gray
+    // levels of the tensor, centred on their mean, so images with a similar layout come out close.
+    static float[] pixelEmbedding(float[] tensor, int offset) {
+        int size = ImagePreprocessor.SIZE;
+        float[] embedding = new float[DIMENSION];
+        int[] counts = new int[DIMENSION];
+        for (int y = 0; y < size; y++) {
+            int row = offset + y * size * 3;
+            int cellRow = y * 8 / size * 8;
+            for (int x = 0; x < size; x++) {
+                int p = row + x * 3;
+                int cell = cellRow + x * 8 / size;
+                embedding[cell] += tensor[p] + tensor[p + 1] + tensor[p + 2];
+                counts[cell]++;
+            }
+        }
+        float mean = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            embedding[i] /= counts[i];
+            mean += embedding[i] / DIMENSION;
+        }
+        for (int i = 0; i < DIMENSION; i++) {
+            embedding[i] -= mean;
+        }
+        return embedding;
+    }
+
+    // Layout: magic | dimension | size | entry point | max level | size * dimension floats |
+    // per node: level count, then per level the link count and ids | per node: key, path, label.
+    void save(Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 20))) {
+                out.writeInt(MAGIC);
+                out.writeInt(DIMENSION);
+                out.writeInt(size);
+                out.writeInt(entryPoint);
+                out.writeInt(maxLevel);
+                for (int i = 0; i < size * DIMENSION; i++) {
+                    out.writeFloat(vectors[i]);
+                }
+                for (int node = 0; node < size; node++) {
+                    int levels = upperLinks[node] == null ? 1 : upperLinks[node].length + 1;
+                    out.writeInt(levels);
+                    for (int level = 0; level < levels; level++) {
+                        int[] list = neighbours(node, level);
+                        for (int i = 0; i <= list[0]; i++) {
+                            out.writeInt(list[i]);
+                        }
+                    }
+                }
+                for (int node = 0; node < size; node++) {
+                    out.writeUTF(keys[node]);
+                    out.writeUTF(paths[node] == null ? "" : paths[node]);
+                    out.writeUTF(labels[node] == null ? "" : labels[node]);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static EmbeddingIndex load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != DIMENSION) {
+                throw new IOException(file + " is not an embedding index for " + DIMENSION + "-d vectors");
+            }
+            EmbeddingIndex index = new EmbeddingIndex();
+            int size = in.getInt();
+            index.ensureCapacity(size);
+            index.entryPoint = in.getInt();
+            index.maxLevel = in.getInt();
+            in.asFloatBuffer().get(index.vectors, 0, size * DIMENSION);
+            in.position(in.position() + size * DIMENSION * Float.BYTES);
+            for (int node = 0; node < size; node++) {
+                int levels = in.getInt();
+                index.links[node] = readLinks(in, M0);
+                if (levels > 1) {
+                    index.upperLinks[node] = new int[levels - 1][];
+                    for (int level = 1; level < levels; level++) {
+                        index.upperLinks[node][level - 1] = readLinks(in, M);
+                    }
+                }
+            }
+            DataInputStream strings = new DataInputStream(new ByteBufferInputStream(in));
+            for (int node = 0; node < size; node++) {
+                index.keys[node] = strings.readUTF();
+                index.paths[node] = strings.readUTF();
+                index.labels[node] = strings.readUTF();
+                index.byKey.put(index.keys[node], node);
+            }
+            index.size = size;
+            return index;
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is corrupt: " + e, e);
+        }
+    }
+
+    private static int[] readLinks(ByteBuffer in, int max) {
+        int[] list = new int[max + 1];
+        list[0] = in.getInt();
+        in.asIntBuffer().get(list, 1, list[0]);
+        in.position(in.position() + list[0] * Integer.BYTES);
+        return list;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+
+    // Visited marks by generation, so a search does not have to clear an array the size of the index.
+    private static final class SearchState {
+        private int[] visited = new int[0];
+        private int generation;
+        final LongHeap candidates = new LongHeap(256);
+
+        void reset(int size) {
+            if (visited.length < size) {
+                visited = new int[Math.max(size, visited.length * 2)];
+                generation = 0;
+            }
+            if (++generation == 0) {
+                Arrays.fill(visited, 0);
+                generation = 1;
+            }
+            candidates.clear();
+        }
+
+        // True the first time a node is seen in this search.
+        boolean visit(int node) {
+            if (visited[node] == generation) {
+                return false;
+            }
+            visited[node] = generation;
+            return true;
+        }
+    }
+
+    // Binary min-heap of longs.
+    static final class LongHeap {
+        private long[] heap;
+        private int size;
+
+        LongHeap(int capacity) {
+            heap = new long[Math.max(1, capacity)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        long peek() {
+            return heap[0];
+        }
+
+        void push(long value) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+
+        long pop() {
+            long top = heap[0];
+            long last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= last) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        long[] sortedDescending() {
+            long[] sorted = Arrays.copyOf(heap, size);
+            Arrays.sort(sorted);
+            for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+                long t = sorted[i];
+                sorted[i] = sorted[j];
+                sorted[j] = t;
+            }
+            return sorted;
+        }
+    }
+}
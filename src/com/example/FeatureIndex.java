@@ -0,0 +1,262 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+
+// Leaf/feature membership for GraphDisplay. Names are interned to dense int ids; every leaf keeps
+// its features as a long[] bitset and every feature keeps its leaves as an inverted bitset, so the
+// graph queries are word-wise ANDs and popcounts. Query results land in scratch bitsets owned by
+// the index (valid until the next query), so a query allocates nothing. Not thread-safe; used on the EDT.
+class FeatureIndex {
+    private final Map<String, Integer> leafIds = new HashMap<>();
+    private final Map<String, Integer> featureIds = new HashMap<>();
+    private final java.util.List<String> leafNames = new ArrayList<>();
+    private final java.util.List<String> featureNames = new ArrayList<>();
+    // Bitsets only grow as far as their highest set bit; missing words read as zero.
+    private long[][] leafFeatures = new long[16][];
+    private long[][] featureLeaves = new long[16][];
+    private long[] scratchFeatures = new long[1];
+    private long[] scratchLeaves = new long[1];
+
+    // Builds an index from an information.json-style catalog: {"species": ["feature", ...], ...}.
+    public static FeatureIndex fromCatalog(JSONObject catalog) {
+        FeatureIndex index = new FeatureIndex();
+        java.util.List<String> features = new ArrayList<>();
+        for (String leaf : catalog.keySet()) {
+            JSONArray array = catalog.getJSONArray(leaf);
+            features.clear();
+            for (int i = 0; i < array.length(); i++) {
+                features.add(array.getString(i));
+            }
+            index.addLeaf(leaf, features);
+        }
+        return index;
+    }
+
+    // Adds the features to the leaf, creating either as needed. Returns the leaf id.
+    public int addLeaf(String leaf, Collection<String> features) {
+        int leafId = internLeaf(leaf);
+        for (String feature : features) {
+            int featureId = internFeature(feature);
+            leafFeatures[leafId] = set(leafFeatures[leafId], featureId);
+            featureLeaves[featureId] = set(featureLeaves[featureId], leafId);
+        }
+        return leafId;
+    }
+
+    public int leafId(String leaf) {
+        Integer id = leafIds.get(leaf);
+        return id == null ? -1 : id;
+    }
+
+    public int featureId(String feature) {
+        Integer id = featureIds.get(feature);
+        return id == null ? -1 : id;
+    }
+
+    public String leafName(int leafId) {
+        return leafNames.get(leafId);
+    }
+
+    public String featureName(int featureId) {
+        return featureNames.get(featureId);
+    }
+
+    public int leafCount() {
+        return leafNames.size();
+    }
+
+    public int featureCount() {
+        return featureNames.size();
+    }
+
+    public boolean hasFeature(int leafId, int featureId) {
+        return get(leafFeatures[leafId], featureId);
+    }
+
+    // Features of one leaf, in feature id (first seen) order.
+    public java.util.List<String> features(int leafId) {
+        return names(leafFeatures[leafId], featureNames);
+    }
+
+    public int featureCount(int leafId) {
+        return cardinality(leafFeatures[leafId]);
+    }
+
+    public int commonFeatureCount(int leafA, int leafB) {
+        long[] a = leafFeatures[leafA];
+        long[] b = leafFeatures[leafB];
+        int count = 0;
+        for (int i = Math.min(a.length, b.length) - 1; i >= 0; i--) {
+            count += Long.bitCount(a[i] & b[i]);
+        }
+        return count;
+    }
+
+    // Leaf sharing the most features with leafId, or -1 if there is no other leaf.
+    public int mostSimilarLeaf(int leafId) {
+        int best = -1;
+        int bestCount = -1;
+        for (int other = 0; other < leafNames.size(); other++) {
+            if (other != leafId) {
+                int count = commonFeatureCount(leafId, other);
+                if (count > bestCount) {
+                    bestCount = count;
+                    best = other;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Features shared by the first n leaves. The returned bitset is scratch space.
+    public long[] commonFeatures(int[] leaves, int n) {
+        int words = words(featureNames.size());
+        scratchFeatures = ensure(scratchFeatures, words);
+        if (n == 0) {
+            Arrays.fill(scratchFeatures, 0, words, 0L);
+            return scratchFeatures;
+        }
+        copyInto(leafFeatures[leaves[0]], scratchFeatures, words);
+        for (int i = 1; i < n; i++) {
+            andInto(leafFeatures[leaves[i]], scratchFeatures, words);
+        }
+        return scratchFeatures;
+    }
+
+    // Leaves that have all of the first n features (all leaves when n == 0). The returned bitset is scratch space.
+    public long[] leavesWithAllFeatures(int[] features, int n) {
+        int words = words(leafNames.size());
+        scratchLeaves = ensure(scratchLeaves, words);
+        Arrays.fill(scratchLeaves, 0, words, -1L);
+        if (words > 0 && leafNames.size() % 64 != 0) {
+            scratchLeaves[words - 1] = (1L << (leafNames.size() % 64)) - 1;
+        }
+        for (int i = 0; i < n; i++) {
+            if (features[i] < 0) {
+                Arrays.fill(scratchLeaves, 0, words, 0L);
+                break;
+            }
+            andInto(featureLeaves[features[i]], scratchLeaves, words);
+        }
+        return scratchLeaves;
+    }
+
+    // Raw bitsets for SimilarityIndex; callers must not modify them.
+    long[] leafBits(int leafId) {
+        return leafFeatures[leafId];
+    }
+
+    long[] featureBits(int featureId) {
+        return featureLeaves[featureId];
+    }
+
+    java.util.List<String> featureNames(long[] bits) {
+        return names(bits, featureNames);
+    }
+
+    java.util.List<String> leafNames(long[] bits) {
+        return names(bits, leafNames);
+    }
+
+    static int nextSetBit(long[] bits, int from) {
+        int word = from >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long current = bits[word] & (-1L << from);
+        while (true) {
+            if (current != 0) {
+                return word * 64 + Long.numberOfTrailingZeros(current);
+            }
+            if (++word >= bits.length) {
+                return -1;
+            }
+            current = bits[word];
+        }
+    }
+
+    static int cardinality(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private int internLeaf(String leaf) {
+        Integer id = leafIds.get(leaf);
+        if (id != null) {
+            return id;
+        }
+        int newId = leafNames.size();
+        leafIds.put(leaf, newId);
+        leafNames.add(leaf);
+        if (newId == leafFeatures.length) {
+            leafFeatures = Arrays.copyOf(leafFeatures, newId * 2);
+        }
+        leafFeatures[newId] = new long[0];
+        return newId;
+    }
+
+    private int internFeature(String feature) {
+        Integer id = featureIds.get(feature);
+        if (id != null) {
+            return id;
+        }
+        int newId = featureNames.size();
+        featureIds.put(feature, newId);
+        featureNames.add(feature);
+        if (newId == featureLeaves.length) {
+            featureLeaves = Arrays.copyOf(featureLeaves, newId * 2);
+        }
+        featureLeaves[newId] = new long[0];
+        return newId;
+    }
+
+    private static java.util.List<String> names(long[] bits, java.util.List<String> names) {
+        java.util.List<String> result = new ArrayList<>();
+        for (int i = nextSetBit(bits, 0); i >= 0 && i < names.size(); i = nextSetBit(bits, i + 1)) {
+            result.add(names.get(i));
+        }
+        return result;
+    }
+
+    private static long[] set(long[] bits, int index) {
+        int word = index >>> 6;
+        if (word >= bits.length) {
+            bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+        }
+        bits[word] |= 1L << index;
+        return bits;
+    }
+
+    private static boolean get(long[] bits, int index) {
+        int word = index >>> 6;
+        return word < bits.length && (bits[word] & (1L << index)) != 0;
+    }
+
+    private static void copyInto(long[] source, long[] target, int words) {
+        int n = Math.min(source.length, words);
+        System.arraycopy(source, 0, target, 0, n);
+        Arrays.fill(target, n, words, 0L);
+    }
+
+    private static void andInto(long[] source, long[] target, int words) {
+        int n = Math.min(source.length, words);
+        for (int i = 0; i < n; i++) {
+            target[i] &= source[i];
+        }
+        Arrays.fill(target, n, words, 0L);
+    }
+
+    private static long[] ensure(long[] bits, int words) {
+        return bits.length >= words ? bits : new long[Math.max(words, bits.length * 2)];
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+}
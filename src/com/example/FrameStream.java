@@ -0,0 +1,465 @@
+package com.example;
+
+import org.json.JSONObject;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.FloatBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Classifies a stream of frames: an image sequence directory (frames in file name order) or an MJPEG
+// file (JPEGs back to back). A reader thread decodes frames into a small queue and an inference thread
+// classifies them. When inference falls behind, the reader drops the oldest queued frame rather than
+// wait, so results stay current instead of building latency. Frames whose perceptual hash is within a
+// few bits of the last frame sent to inference are skipped. Class probabilities are smoothed with an
+// exponential moving average; latest() is the smoothed result, for the UI to poll at a steady rate.
+//   java -cp ... com.example.FrameStream <directory|file.mjpeg> [--fps 25] [--queue 2]
+//        [--hash-distance 4] [--alpha 0.3]
+// --fps 0 reads frames as fast as they decode. The stream needs a backend that takes tensors
+// (leaf.workers > 0, leaf.backend=native or stub); the one-shot Python backend only takes files.
+class FrameStream implements AutoCloseable {
+    private final ImageProcessor processor;
+    private final FrameSource source;
+    private final double framesPerSecond;
+    private final int hashDistance;
+    private final double alpha;
+    private final BlockingQueue<Frame> queue;
+    // Tensors handed back by the inference thread or taken from dropped frames, reused for new frames.
+    private final BlockingQueue<float[]> freeTensors = new LinkedBlockingQueue<>();
+    // Looked up per result, so a catalog reloaded while the stream runs takes effect.
+    private final SpeciesKnowledgeBase knowledgeBase = SpeciesKnowledgeBase.fromSystemProperties();
+    private final AtomicReference<JSONObject> latest = new AtomicReference<>();
+    private final Thread reader;
+    private final Thread classifier;
+    private volatile boolean readerDone;
+    private volatile boolean finished;
+    private volatile String lastError;
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong classified = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private float[] smoothed; // Inference thread only
+    private java.util.List<String> smoothedLabels; // Labels of smoothed, in its order; inference thread only
+    private double lastLatencyMillis;
+    private long startNanos;
+
+    private static final class Frame {
+        final long index;
+        final long decodedAt;
+        final PreparedImage image;
+
+        Frame(long index, long decodedAt, PreparedImage image) {
+            this.index = index;
+            this.decodedAt = decodedAt;
+            this.image = image;
+        }
+    }
+
+    FrameStream(ImageProcessor processor, Path path, double framesPerSecond, int queueCapacity,
+                int hashDistance, double alpha) throws IOException {
+        this.processor = processor;
+        this.source = FrameSource.open(path);
+        this.framesPerSecond = framesPerSecond;
+        this.hashDistance = hashDistance;
+        this.alpha = alpha;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.reader = new Thread(this::readFrames, "frame-reader");
+        this.classifier = new Thread(this::classifyFrames, "frame-classifier");
+        reader.setDaemon(true);
+        classifier.setDaemon(true);
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+        reader.start();
+        classifier.start();
+    }
+
+    // The smoothed result so far with the stream's counters under "stream", or null before the first.
+    JSONObject latest() {
+        return latest.get();
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() {
+        reader.interrupt();
+        classifier.interrupt();
+        try {
+            reader.join(1000);
+            classifier.join(1000);
+            source.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Nothing left to read from it anyway
+        }
+        finished = true;
+    }
+
+    private void readFrames() {
+        long lastHash = 0;
+        boolean haveHash = false;
+        try {
+            for (byte[] bytes; !Thread.currentThread().isInterrupted() && (bytes = source.next()) != null; ) {
+                long index = frames.getAndIncrement();
+                if (framesPerSecond > 0) {
+                    long due = startNanos + (long) (index * 1e9 / framesPerSecond);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                StageTimings timings = new StageTimings();
+                long start = System.nanoTime();
+                BufferedImage image;
+                try {
+                    image = ImagePreprocessor.decode(bytes);
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                    lastError = "Frame " + index + ": " + e.getMessage();
+                    continue;
+                }
+                long decoded = System.nanoTime();
+                long hash = differenceHash(image);
+                if (haveHash && Long.bitCount(hash ^ lastHash) <= hashDistance) {
+                    duplicates.incrementAndGet();
+                    continue;
+                }
+                lastHash = hash;
+                haveHash = true;
+                float[] tensor = freeTensors.poll();
+                if (tensor == null) {
+                    tensor = new float[ImagePreprocessor.TENSOR_LENGTH];
+                }
+                ImagePreprocessor.writeTensor(image, FloatBuffer.wrap(tensor));
+                long prepared = System.nanoTime();
+                timings.decodeNanos = decoded - start;
+                timings.preprocessNanos = prepared - decoded;
+                String contentHash = ResultCache.toHex(ResultCache.sha256().digest(bytes));
+                Frame frame = new Frame(index, prepared, new PreparedImage(source.file(), contentHash, tensor, null, timings));
+                while (!queue.offer(frame)) {
+                    Frame stale = queue.poll();
+                    if (stale != null) {
+                        dropped.incrementAndGet();
+                        freeTensors.offer(stale.image.getTensor());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            lastError = "Failed to read frames: " + e.getMessage();
+        } catch (InterruptedException e) {
+            // Stopped
+        } finally {
+            readerDone = true;
+        }
+    }
+
+    private void classifyFrames() {
+        try {
+            while (!(readerDone && queue.isEmpty())) {
+                Frame frame = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                JSONObject result;
+                try {
+                    result = processor.classify(frame.image);
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                    lastError = "Frame " + frame.index + ": " + e.getMessage();
+                    continue;
+                } finally {
+                    freeTensors.offer(frame.image.getTensor());
+                }
+                classified.incrementAndGet();
+                latest.set(smooth(result, frame));
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } finally {
+            JSONObject last = latest.get();
+            if (last != null) {
+                latest.set(new JSONObject(last, JSONObject.getNames(last)).put("stream", stats(lastLatencyMillis)));
+            }
+            finished = true;
+        }
+    }
+
+    // EMA over the class probabilities, then ranked like a single result. Results without
+    // probabilities are passed through unsmoothed. The labels are the result's own, so a model version
+    // with its own labels.txt works; when they change with a deploy, smoothing starts over.
+    private JSONObject smooth(JSONObject result, Frame frame) {
+        double latencyMillis = (System.nanoTime() - frame.decodedAt) / 1e6;
+        lastLatencyMillis = latencyMillis;
+        JSONObject probabilities = result.optJSONObject("probabilities");
+        if (probabilities == null) {
+            return new JSONObject(result, JSONObject.getNames(result)).put("stream", stats(latencyMillis));
+        }
+        if (smoothed == null || !hasLabels(probabilities, smoothedLabels)) {
+            smoothedLabels = new ArrayList<>(probabilities.keySet());
+            smoothed = new float[smoothedLabels.size()];
+            for (int c = 0; c < smoothedLabels.size(); c++) {
+                smoothed[c] = (float) probabilities.optDouble(smoothedLabels.get(c), 0);
+            }
+        } else {
+            for (int c = 0; c < smoothedLabels.size(); c++) {
+                smoothed[c] += (float) (alpha * (probabilities.optDouble(smoothedLabels.get(c), 0) - smoothed[c]));
+            }
+        }
+        JSONObject out = new JSONObject();
+        String leafType = InferenceResults.addScores(out, smoothedLabels, smoothed, 0);
+        out.put("leaf_type", leafType).put("features", knowledgeBase.get().traitsJson(leafType));
+        if (result.has("timings_ms")) {
+            out.put("timings_ms", result.get("timings_ms"));
+        }
+        return out.put("stream", stats(latencyMillis));
+    }
+
+    private static boolean hasLabels(JSONObject probabilities, java.util.List<String> labels) {
+        if (probabilities.length() != labels.size()) {
+            return false;
+        }
+        for (String label : labels) {
+            if (!probabilities.has(label)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private JSONObject stats(double latencyMillis) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        JSONObject stats = new JSONObject()
+            .put("frames", frames.get())
+            .put("classified", classified.get())
+            .put("duplicates", duplicates.get())
+            .put("dropped", dropped.get())
+            .put("errors", errors.get())
+            .put("classified_per_sec", Math.round(classified.get() / seconds * 10) / 10.0)
+            .put("latency_ms", Math.round(latencyMillis * 10) / 10.0)
+            .put("finished", readerDone && queue.isEmpty());
+        if (lastError != null) {
+            stats.put("last_error", lastError);
+        }
+        return stats;
+    }
+
+    // dHash: 9x8 grayscale thumbnail (each cell averaged over a 4x4 sample grid), one bit per pair
+    // of horizontal neighbours. Robust to small noise and compression changes, cheap to compute.
+    static long differenceHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] cells = new int[9 * 8];
+        for (int cy = 0; cy < 8; cy++) {
+            for (int cx = 0; cx < 9; cx++) {
+                int sum = 0;
+                for (int sy = 0; sy < 4; sy++) {
+                    int y = Math.min(height - 1, (int) ((cy * 4 + sy + 0.5) * height / 32));
+                    for (int sx = 0; sx < 4; sx++) {
+                        int x = Math.min(width - 1, (int) ((cx * 4 + sx + 0.5) * width / 36));
+                        int rgb = image.getRGB(x, y);
+                        sum += ((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114;
+                    }
+                }
+                cells[cy * 9 + cx] = sum;
+            }
+        }
+        long hash = 0;
+        for (int cy = 0; cy < 8; cy++) {
+            for (int cx = 0; cx < 8; cx++) {
+                hash = hash << 1 | (cells[cy * 9 + cx] > cells[cy * 9 + cx + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    // Encoded frames one at a time; next() returns null at the end of the stream.
+    interface FrameSource extends Closeable {
+        byte[] next() throws IOException;
+
+        // File of the last frame returned, or null if it has none of its own.
+        File file();
+
+        static FrameSource open(Path path) throws IOException {
+            return Files.isDirectory(path) ? new DirectorySource(path) : new MjpegSource(path);
+        }
+    }
+
+    static final class DirectorySource implements FrameSource {
+        private final Iterator<Path> files;
+        private File current;
+
+        DirectorySource(Path directory) throws IOException {
+            java.util.List<Path> images = new ArrayList<>(BatchClassifier.findImages(directory));
+            Collections.sort(images);
+            this.files = images.iterator();
+        }
+
+        @Override
+        public byte[] next() throws IOException {
+            if (!files.hasNext()) {
+                return null;
+            }
+            Path path = files.next();
+            current = path.toFile();
+            return Files.readAllBytes(path);
+        }
+
+        @Override
+        public File file() {
+            return current;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Splits a motion JPEG file into its JPEGs by walking each one's marker segments from start of
+    // image (FF D8) to end of image (FF D9). Segments are skipped by their length, so an EXIF
+    // thumbnail inside APP1 does not end the frame early. In entropy-coded data 0xFF is followed by a
+    // stuffed 00 or a restart marker; anything else is the next marker.
+    static final class MjpegSource implements FrameSource {
+        private final InputStream in;
+        private final ByteArrayOutputStream frame = new ByteArrayOutputStream(256 * 1024);
+
+        MjpegSource(Path file) throws IOException {
+            this.in = new BufferedInputStream(Files.newInputStream(file), 256 * 1024);
+        }
+
+        @Override
+        public byte[] next() throws IOException {
+            int previous = -1;
+            for (int b; (b = in.read()) != -1; previous = b) {
+                if (previous == 0xFF && b == 0xD8) {
+                    frame.reset();
+                    frame.write(0xFF);
+                    frame.write(0xD8);
+                    return readSegments() ? frame.toByteArray() : null;
+                }
+            }
+            return null;
+        }
+
+        // False if the stream ends before the frame does.
+        private boolean readSegments() throws IOException {
+            int marker = -1;
+            while (true) {
+                if (marker < 0) {
+                    if (in.read() != 0xFF) {
+                        throw new IOException("Corrupt MJPEG stream: expected a JPEG marker");
+                    }
+                    marker = in.read();
+                }
+                while (marker == 0xFF) { // Fill bytes
+                    marker = in.read();
+                }
+                if (marker < 0) {
+                    return false;
+                }
+                frame.write(0xFF);
+                frame.write(marker);
+                if (marker == 0xD9) {
+                    return true;
+                }
+                int current = marker;
+                marker = -1;
+                if (current == 0x01 || (current >= 0xD0 && current <= 0xD7)) {
+                    continue; // No length
+                }
+                int high = in.read();
+                int low = in.read();
+                if (low < 0) {
+                    return false;
+                }
+                int length = high << 8 | low;
+                frame.write(high);
+                frame.write(low);
+                for (int i = 2; i < length; i++) {
+                    int c = in.read();
+                    if (c < 0) {
+                        return false;
+                    }
+                    frame.write(c);
+                }
+                if (current == 0xDA) { // Start of scan: entropy-coded data up to the next marker
+                    for (int c; ; ) {
+                        if ((c = in.read()) < 0) {
+                            return false;
+                        }
+                        if (c != 0xFF) {
+                            frame.write(c);
+                            continue;
+                        }
+                        int next = in.read();
+                        if (next == 0x00 || (next >= 0xD0 && next <= 0xD7)) {
+                            frame.write(c);
+                            frame.write(next);
+                        } else {
+                            marker = next;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public File file() {
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: FrameStream <directory|file.mjpeg> [--fps 25] [--queue 2] [--hash-distance 4] [--alpha 0.3]");
+            System.exit(2);
+        }
+        double fps = 25;
+        int queueCapacity = 2;
+        int hashDistance = 4;
+        double alpha = 0.3;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            }
+            switch (args[i]) {
+                case "--fps": fps = Double.parseDouble(args[i + 1]); break;
+                case "--queue": queueCapacity = Integer.parseInt(args[i + 1]); break;
+                case "--hash-distance": hashDistance = Integer.parseInt(args[i + 1]); break;
+                case "--alpha": alpha = Double.parseDouble(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        try (InferenceBackend backend = InferenceBackend.fromSystemProperties();
+             FrameStream stream = new FrameStream(new ImageProcessor(backend), Paths.get(args[0]), fps,
+                 queueCapacity, hashDistance, alpha)) {
+            stream.start();
+            while (!stream.isFinished()) {
+                Thread.sleep(1000);
+                JSONObject result = stream.latest();
+                if (result != null) {
+                    System.out.printf("%-26s %5.1f%%  %s%n", result.optString("leaf_type"),
+                        100 * result.optDouble("confidence", 0), result.getJSONObject("stream"));
+                }
+            }
+            JSONObject result = stream.latest();
+            System.out.println(result != null ? result.getJSONObject("stream") : "No frames classified");
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+// Node positions for the feature graph. Layouts work on a plain-array snapshot of the graph so
+// they can run off the EDT, and must return within the given time budget whatever the graph size.
+interface GraphLayout {
+    void layout(LayoutGraph graph, long budgetNanos);
+
+    static GraphLayout fromName(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "radial": return new RadialLayout();
+            case "force": return new ForceDirectedLayout();
+            default: throw new IllegalArgumentException("Unknown graph layout: " + name);
+        }
+    }
+}
+
+// Leaves evenly spaced on an outer circle sized to fit them; each feature sits inside the circle in
+// the direction of the leaves that have it, closer to the centre the more leaves share it. O(nodes + edges).
+class RadialLayout implements GraphLayout {
+    private static final double LEAF_SPACING = 140;
+    private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
+    @Override
+    public void layout(LayoutGraph graph, long budgetNanos) {
+        int leaves = graph.leafCount;
+        double radius = Math.max(400, leaves * LEAF_SPACING / (2 * Math.PI));
+        for (int i = 0; i < leaves; i++) {
+            double angle = 2 * Math.PI * i / leaves + Math.PI;
+            graph.x[i] = radius * Math.cos(angle);
+            graph.y[i] = radius * Math.sin(angle);
+        }
+
+        int features = graph.nodeCount - leaves;
+        double[] sumX = new double[features];
+        double[] sumY = new double[features];
+        int[] degree = new int[features];
+        for (int e = 0; e < graph.edgeCount; e++) {
+            int f = graph.edgeTarget[e] - leaves;
+            int leaf = graph.edgeSource[e];
+            sumX[f] += graph.x[leaf];
+            sumY[f] += graph.y[leaf];
+            degree[f]++;
+        }
+        for (int f = 0; f < features; f++) {
+            int node = leaves + f;
+            double angle = degree[f] == 0 ? f * GOLDEN_ANGLE : Math.atan2(sumY[f], sumX[f]);
+            // Features shared by every leaf end up near the centre; the id-based offsets spread features
+            // that point the same way.
+            double share = leaves == 0 ? 0 : (double) degree[f] / leaves;
+            double r = radius * (0.65 - 0.45 * share) + (f % 5) * 25;
+            graph.x[node] = r * Math.cos(angle + (f % 7 - 3) * 0.04);
+            graph.y[node] = r * Math.sin(angle + (f % 7 - 3) * 0.04);
+        }
+        graph.translateToOrigin(20);
+    }
+}
+
+// Fruchterman-Reingold spring embedder. Repulsion is only computed between nodes in neighbouring
+// cells of a uniform grid, so an iteration costs O(nodes + edges) on spread-out graphs. It starts
+// from the current positions, placing new nodes next to their already placed neighbours, and stops
+// after MAX_ITERATIONS or when the time budget runs out.
+class ForceDirectedLayout implements GraphLayout {
+    private static final int MAX_ITERATIONS = 300;
+    private static final double IDEAL_LENGTH = 150;
+
+    @Override
+    public void layout(LayoutGraph graph, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        int n = graph.nodeCount;
+        if (n == 0) {
+            return;
+        }
+        double[] x = graph.x;
+        double[] y = graph.y;
+        int placed = placeNewNodes(graph);
+        double k = IDEAL_LENGTH;
+        double k2 = k * k;
+        // A mostly settled graph only needs gentle adjustment around the new nodes.
+        double startTemperature = placed * 4 < n ? k * 0.5 : k * 2;
+
+        double[] dx = new double[n];
+        double[] dy = new double[n];
+        int[] cellOf = new int[n];
+        int[] order = new int[n];
+        int[] cellStart = new int[0];
+        int[] fill = new int[0];
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS && System.nanoTime() < deadline; iteration++) {
+            double temperature = startTemperature * (1 - (double) iteration / MAX_ITERATIONS);
+            Arrays.fill(dx, 0);
+            Arrays.fill(dy, 0);
+
+            // Bucket nodes into grid cells of size 2k, growing cells if the bounding box is sparse.
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            double cell = 2 * k;
+            while ((long) ((maxX - minX) / cell + 1) * (long) ((maxY - minY) / cell + 1) > 4L * n + 16) {
+                cell *= 2;
+            }
+            int columns = (int) ((maxX - minX) / cell) + 1;
+            int rows = (int) ((maxY - minY) / cell) + 1;
+            int cells = columns * rows;
+            if (cellStart.length < cells + 1) {
+                cellStart = new int[cells + 1];
+                fill = new int[cells + 1];
+            } else {
+                Arrays.fill(cellStart, 0, cells + 1, 0);
+            }
+            for (int i = 0; i < n; i++) {
+                int c = (int) ((y[i] - minY) / cell) * columns + (int) ((x[i] - minX) / cell);
+                cellOf[i] = c;
+                cellStart[c + 1]++;
+            }
+            for (int c = 0; c < cells; c++) {
+                cellStart[c + 1] += cellStart[c];
+            }
+            System.arraycopy(cellStart, 0, fill, 0, cells);
+            for (int i = 0; i < n; i++) {
+                order[fill[cellOf[i]]++] = i;
+            }
+
+            for (int i = 0; i < n; i++) {
+                int column = cellOf[i] % columns;
+                int row = cellOf[i] / columns;
+                for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                    for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                        int neighbourCell = r * columns + c;
+                        for (int o = cellStart[neighbourCell]; o < cellStart[neighbourCell + 1]; o++) {
+                            int j = order[o];
+                            if (j <= i) {
+                                continue;
+                            }
+                            double ddx = x[i] - x[j];
+                            double ddy = y[i] - y[j];
+                            double d2 = ddx * ddx + ddy * ddy;
+                            if (d2 < 1e-4) {
+                                ddx = ((i * 31 + j) % 7) - 3 + 0.5;
+                                ddy = ((i * 17 + j) % 5) - 2 + 0.5;
+                                d2 = ddx * ddx + ddy * ddy;
+                            }
+                            double force = k2 / d2;
+                            dx[i] += ddx * force;
+                            dy[i] += ddy * force;
+                            dx[j] -= ddx * force;
+                            dy[j] -= ddy * force;
+                        }
+                    }
+                }
+            }
+
+            for (int e = 0; e < graph.edgeCount; e++) {
+                int a = graph.edgeSource[e];
+                int b = graph.edgeTarget[e];
+                double ddx = x[a] - x[b];
+                double ddy = y[a] - y[b];
+                double d = Math.sqrt(ddx * ddx + ddy * ddy);
+                double force = d / k;
+                dx[a] -= ddx * force;
+                dy[a] -= ddy * force;
+                dx[b] += ddx * force;
+                dy[b] += ddy * force;
+            }
+
+            for (int i = 0; i < n; i++) {
+                double length = Math.sqrt(dx[i] * dx[i] + dy[i] * dy[i]);
+                if (length > 0) {
+                    double step = Math.min(length, temperature) / length;
+                    x[i] += dx[i] * step;
+                    y[i] += dy[i] * step;
+                }
+            }
+        }
+        graph.translateToOrigin(20);
+    }
+
+    // Gives NaN nodes a position next to the mean of their placed neighbours, or a random one.
+    // Returns the number of nodes placed.
+    private static int placeNewNodes(LayoutGraph graph) {
+        int n = graph.nodeCount;
+        double[] x = graph.x;
+        double[] y = graph.y;
+        double[] sumX = new double[n];
+        double[] sumY = new double[n];
+        int[] count = new int[n];
+        for (int e = 0; e < graph.edgeCount; e++) {
+            int a = graph.edgeSource[e];
+            int b = graph.edgeTarget[e];
+            if (!Double.isNaN(x[b])) {
+                sumX[a] += x[b];
+                sumY[a] += y[b];
+                count[a]++;
+            }
+            if (!Double.isNaN(x[a])) {
+                sumX[b] += x[a];
+                sumY[b] += y[a];
+                count[b]++;
+            }
+        }
+        Random random = new Random(n);
+        double spread = IDEAL_LENGTH * Math.sqrt(n);
+        int placed = 0;
+        for (int i = 0; i < n; i++) {
+            if (Double.isNaN(x[i])) {
+                double jitterX = (random.nextDouble() - 0.5) * IDEAL_LENGTH;
+                double jitterY = (random.nextDouble() - 0.5) * IDEAL_LENGTH;
+                if (count[i] > 0) {
+                    x[i] = sumX[i] / count[i] + jitterX;
+                    y[i] = sumY[i] / count[i] + jitterY;
+                } else {
+                    x[i] = random.nextDouble() * spread;
+                    y[i] = random.nextDouble() * spread;
+                }
+                placed++;
+            }
+        }
+        return placed;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example;
+
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.util.mxConstants;
+import com.mxgraph.util.mxStyleUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Highlights a set of vertices in the feature graph. Only the cells entering or leaving the highlighted
+// set are restyled, all in one model update, so a click costs O(old + new selection) whatever the graph
+// size. Each cell gets a whole precomputed style string shared by all cells with the same normal style,
+// instead of having single keys rewritten in its own style.
+class HighlightManager {
+    private static final String FILL_COLOR = "#FFFFE0";
+    private static final String STROKE_COLOR = "#FFD700";
+
+    private final mxIGraphModel model;
+    private final Map<String, String> highlightStyles = new HashMap<>(); // Normal style -> highlighted style
+    private Map<Object, String> highlighted = new HashMap<>(); // Highlighted cell -> its normal style
+    private Map<Object, String> next = new HashMap<>();
+
+    HighlightManager(mxIGraphModel model) {
+        this.model = model;
+    }
+
+    // Makes exactly the given cells highlighted.
+    void highlight(Collection<?> cells) {
+        model.beginUpdate();
+        try {
+            for (Object cell : cells) {
+                if (cell == null || next.containsKey(cell)) {
+                    continue;
+                }
+                String normalStyle;
+                if (highlighted.containsKey(cell)) {
+                    normalStyle = highlighted.remove(cell);
+                } else {
+                    normalStyle = model.getStyle(cell);
+                    model.setStyle(cell, highlightStyle(normalStyle));
+                }
+                next.put(cell, normalStyle);
+            }
+            for (Map.Entry<Object, String> entry : highlighted.entrySet()) {
+                model.setStyle(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            model.endUpdate();
+        }
+        Map<Object, String> previous = highlighted;
+        previous.clear();
+        highlighted = next;
+        next = previous;
+    }
+
+    void clear() {
+        highlight(Collections.emptyList());
+    }
+
+    boolean isHighlighted(Object cell) {
+        return highlighted.containsKey(cell);
+    }
+
+    private String highlightStyle(String normalStyle) {
+        return highlightStyles.computeIfAbsent(normalStyle == null ? "" : normalStyle, style ->
+            mxStyleUtils.setStyle(mxStyleUtils.setStyle(style, mxConstants.STYLE_FILLCOLOR, FILL_COLOR),
+                mxConstants.STYLE_STROKECOLOR, STROKE_COLOR));
+    }
+}
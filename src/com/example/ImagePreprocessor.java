@@ -0,0 +1,151 @@
+package com.example;
+
+import javax.swing.ImageIcon;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.FloatBuffer;
+import java.nio.file.*;
+import javax.imageio.ImageIO;
+
+// Single decode stage shared by the preview and inference. Each file is read and decoded once;
+// the same pixels produce the model tensor (what infer.py's preprocess_image feeds to Keras)
+// and the preview thumbnail.
+class ImagePreprocessor {
+    static final int SIZE = CnnEngine.INPUT_SIZE;
+    static final int TENSOR_LENGTH = CnnEngine.INPUT_LENGTH;
+
+    // Keras computes float32(v) / 255 for every channel value.
+    private static final float[] UNIT = new float[256];
+    static {
+        for (int v = 0; v < 256; v++) {
+            UNIT[v] = v / 255f;
+        }
+    }
+
+    // thumbnailWidth <= 0 skips the thumbnail (batch and server paths).
+    public PreparedImage prepare(File file, int thumbnailWidth, int thumbnailHeight) throws IOException {
+        long start = System.nanoTime();
+        return prepare(file, Files.readAllBytes(file.toPath()), start, thumbnailWidth, thumbnailHeight);
+    }
+
+    // For image bytes that are already in memory, e.g. an upload; the result has no file.
+    public PreparedImage prepare(byte[] bytes, int thumbnailWidth, int thumbnailHeight) throws IOException {
+        return prepare(null, bytes, System.nanoTime(), thumbnailWidth, thumbnailHeight);
+    }
+
+    private PreparedImage prepare(File file, byte[] bytes, long start, int thumbnailWidth, int thumbnailHeight)
+            throws IOException {
+        StageTimings timings = new StageTimings();
+        String contentHash = ResultCache.toHex(ResultCache.sha256().digest(bytes));
+        BufferedImage image = decode(bytes);
+        long decoded = System.nanoTime();
+        float[] tensor = new float[TENSOR_LENGTH];
+        writeTensor(image, FloatBuffer.wrap(tensor));
+        timings.decodeNanos = decoded - start;
+        timings.preprocessNanos = System.nanoTime() - decoded;
+        Image thumbnail = thumbnailWidth > 0 ? createThumbnail(image, thumbnailWidth, thumbnailHeight) : null;
+        return new PreparedImage(file, contentHash, tensor, thumbnail, timings);
+    }
+
+    // Decode and write straight into a caller-owned tensor, e.g. a reusable per-thread buffer.
+    // timings may be null.
+    public void prepareTensor(File file, float[] tensor, int offset, StageTimings timings) throws IOException {
+        prepareTensor(file, FloatBuffer.wrap(tensor, offset, TENSOR_LENGTH), timings);
+    }
+
+    // Decode straight into a (typically direct) buffer at its position, e.g. a worker request frame.
+    public void prepareTensor(File file, FloatBuffer tensor, StageTimings timings) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = decode(Files.readAllBytes(file.toPath()));
+        long decoded = System.nanoTime();
+        writeTensor(image, tensor);
+        if (timings != null) {
+            timings.decodeNanos = decoded - start;
+            timings.preprocessNanos = System.nanoTime() - decoded;
+        }
+    }
+
+    static BufferedImage decode(byte[] bytes) throws IOException {
+        BufferedImage image = null;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            // e.g. CMYK JPEGs, which the AWT toolkit below can still decode
+        }
+        if (image != null) {
+            return image;
+        }
+        Image toolkitImage = new ImageIcon(Toolkit.getDefaultToolkit().createImage(bytes)).getImage();
+        if (toolkitImage.getWidth(null) <= 0) {
+            throw new IOException("Unsupported or corrupt image");
+        }
+        BufferedImage rgb = new BufferedImage(toolkitImage.getWidth(null), toolkitImage.getHeight(null),
+            BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = rgb.createGraphics();
+        g.drawImage(toolkitImage, 0, 0, null);
+        g.dispose();
+        return rgb;
+    }
+
+    // Nearest-neighbour resize to 225x225 as PIL does it (source = floor((dst + 0.5) * scale)),
+    // written as normalized RGB channels-last floats at the buffer's position. Common JPEG/PNG layouts are read straight
+    // from the raster; anything else goes through getRGB. Gray images are read raw, not through
+    // Java's linear-gray color conversion, to match PIL's convert('RGB').
+    static void writeTensor(BufferedImage image, FloatBuffer tensor) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] sourceX = new int[SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            sourceX[x] = Math.min(width - 1, (int) ((x + 0.5) * width / SIZE));
+        }
+        Raster raster = image.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        SampleModel sampleModel = raster.getSampleModel();
+        if (dataBuffer instanceof DataBufferByte && sampleModel instanceof ComponentSampleModel &&
+                (image.getType() == BufferedImage.TYPE_3BYTE_BGR || image.getType() == BufferedImage.TYPE_BYTE_GRAY)) {
+            byte[] data = ((DataBufferByte) dataBuffer).getData();
+            ComponentSampleModel components = (ComponentSampleModel) sampleModel;
+            int scanline = components.getScanlineStride();
+            int pixelStride = components.getPixelStride();
+            int[] bands = components.getBandOffsets();
+            int r = bands[0];
+            int g = bands.length > 2 ? bands[1] : bands[0];
+            int b = bands.length > 2 ? bands[2] : bands[0];
+            int base = dataBuffer.getOffset() - raster.getSampleModelTranslateY() * scanline -
+                raster.getSampleModelTranslateX() * pixelStride;
+            for (int y = 0; y < SIZE; y++) {
+                int row = base + Math.min(height - 1, (int) ((y + 0.5) * height / SIZE)) * scanline;
+                for (int x = 0; x < SIZE; x++) {
+                    int p = row + sourceX[x] * pixelStride;
+                    tensor.put(UNIT[data[p + r] & 0xFF]);
+                    tensor.put(UNIT[data[p + g] & 0xFF]);
+                    tensor.put(UNIT[data[p + b] & 0xFF]);
+                }
+            }
+            return;
+        }
+        boolean packedRgb = dataBuffer instanceof DataBufferInt && raster.getSampleModelTranslateX() == 0 &&
+            raster.getSampleModelTranslateY() == 0 &&
+            (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = packedRgb ? ((DataBufferInt) dataBuffer).getData() : null;
+        for (int y = 0; y < SIZE; y++) {
+            int sy = Math.min(height - 1, (int) ((y + 0.5) * height / SIZE));
+            for (int x = 0; x < SIZE; x++) {
+                int pixel = packedRgb ? pixels[sy * width + sourceX[x]] : image.getRGB(sourceX[x], sy);
+                tensor.put(UNIT[(pixel >> 16) & 0xFF]);
+                tensor.put(UNIT[(pixel >> 8) & 0xFF]);
+                tensor.put(UNIT[pixel & 0xFF]);
+            }
+        }
+    }
+
+    static Image createThumbnail(Image source, int width, int height) {
+        Image scaled = new ImageIcon(source.getScaledInstance(width, height, Image.SCALE_SMOOTH)).getImage();
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        g.drawImage(scaled, 0, 0, null);
+        g.dispose();
+        return thumbnail;
+    }
+}
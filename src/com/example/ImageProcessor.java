@@ -0,0 +1,58 @@
+package com.example;
+
+import org.json.JSONObject;
+
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+
+class ImageProcessor {
+    private final InferenceBackend backend;
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor();
+    private volatile PreparedImage image;
+    private volatile JSONObject leafData;
+
+    public ImageProcessor() {
+        this(InferenceBackend.fromSystemProperties());
+    }
+
+    public ImageProcessor(InferenceBackend backend) {
+        this.backend = backend;
+    }
+
+    // Decodes the image once into the model tensor and a 400x300 preview; call off the EDT.
+    public PreparedImage loadImage(File file) {
+        try {
+            this.image = preprocessor.prepare(file, 400, 300);
+            return image;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load image: " + e.getMessage());
+        }
+    }
+
+    // Thread-safe; does not touch the loaded image state.
+    public JSONObject classify(File file) throws IOException, InterruptedException {
+        return backend.classify(file);
+    }
+
+    public JSONObject classify(PreparedImage prepared) throws IOException, InterruptedException {
+        return backend.classify(prepared);
+    }
+
+    public String runInference() throws IOException, InterruptedException {
+        if (image == null) {
+            throw new IllegalStateException("No image loaded");
+        }
+
+        leafData = classify(image);
+        return leafData.toString();
+    }
+
+    public Image getImage() {
+        return image != null ? image.getThumbnail() : null;
+    }
+
+    public JSONObject getLeafData() {
+        return leafData;
+    }
+}
@@ -0,0 +1,309 @@
+package com.example;
+
+import java.io.*;
+import java.nio.file.Paths;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+interface InferenceBackend extends AutoCloseable {
+    // Returns the {"leaf_type": ..., "features": [...]} result for one image, plus the class
+    // probabilities, top-k and per-stage timings where the backend can provide them.
+    JSONObject classify(File imageFile) throws IOException, InterruptedException;
+
+    // Backends that run the model in-process override this to use the already decoded tensor.
+    default JSONObject classify(PreparedImage image) throws IOException, InterruptedException {
+        if (image.getFile() == null) {
+            throw new IOException(getClass().getSimpleName() + " needs image files, not in-memory frames");
+        }
+        return classify(image.getFile());
+    }
+
+    // One result per file, in order. Failed images get {"error": ...} instead of failing the batch.
+    default java.util.List<JSONObject> classifyBatch(java.util.List<File> imageFiles) throws IOException, InterruptedException {
+        java.util.List<JSONObject> results = new java.util.ArrayList<>(imageFiles.size());
+        for (File imageFile : imageFiles) {
+            try {
+                results.add(classify(imageFile));
+            } catch (IOException e) {
+                results.add(new JSONObject().put("error", e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    // Like classifyBatch, for images that are already decoded, e.g. read from a DatasetShard.
+    default java.util.List<JSONObject> classifyPrepared(java.util.List<PreparedImage> images) throws IOException, InterruptedException {
+        java.util.List<JSONObject> results = new java.util.ArrayList<>(images.size());
+        for (PreparedImage image : images) {
+            try {
+                results.add(classify(image));
+            } catch (IOException e) {
+                results.add(new JSONObject().put("error", e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    default void close() {
+    }
+
+    // Backend selection, overridable with -D flags:
+    //   leaf.backend  "python" (default), "native" to run the model in-process with CnnEngine, or "stub"
+    //                 for made-up results without a model (never cached)
+    //   leaf.stub.delay.ms  time the stub backend spends per batch (default 20)
+    //   leaf.weights  weights exported by export_weights.py, for the native backend (default model.weights.bin)
+    //   leaf.python   interpreter to run (default "python")
+    //   leaf.script   inference script (default "infer.py", "stub_worker.py" needs no TensorFlow)
+    //   leaf.workers  warm worker processes, 0 = one process per image (default 2)
+    //   leaf.timeout.ms   per-request timeout (default 60000)
+    //   leaf.queue    requests allowed to wait for a free worker (default 16)
+    //   leaf.cache.mb     in-memory result cache size, 0 disables caching (default 16)
+    //   leaf.cache.dir    directory for the persistent cache tier (default: memory only)
+    //   leaf.topk     number of ranked labels in each result (default 3)
+    //   leaf.review.threshold  results below this confidence are flagged "needs_review" (default 0.6)
+    // Features come from SpeciesKnowledgeBase.fromSystemProperties(), see there for the leaf.catalog flags,
+    // and every backend is measured by InstrumentedBackend, see Metrics for the leaf.metrics flags. With a
+    // models/ directory, versioned models are served through ModelRegistry, see there for the leaf.models flags.
+    static InferenceBackend fromSystemProperties() {
+        Metrics.startExportFromSystemProperties();
+        return new InstrumentedBackend(createCached());
+    }
+
+    private static InferenceBackend createCached() {
+        if ("stub".equals(System.getProperty("leaf.backend"))) {
+            return new StubBackend(SpeciesKnowledgeBase.fromSystemProperties(), Long.getLong("leaf.stub.delay.ms", 20L));
+        }
+        ResultCache cache = createCache();
+        ModelRegistry registry = ModelRegistry.fromSystemProperties(InferenceBackend::createUncached,
+            (version, backend) -> withCache(backend, version, cache));
+        if (registry != null) {
+            return registry;
+        }
+        ModelVersion model = ModelVersion.unversioned();
+        return withCache(createUncached(model), model, cache);
+    }
+
+    // One cache for all model versions; results are keyed by the model they came from.
+    private static ResultCache createCache() {
+        long cacheMegabytes = Long.getLong("leaf.cache.mb", 16L);
+        if (cacheMegabytes <= 0) {
+            return null;
+        }
+        String cacheDir = System.getProperty("leaf.cache.dir");
+        try {
+            return new ResultCache(cacheMegabytes * 1024 * 1024, cacheDir == null ? null : Paths.get(cacheDir));
+        } catch (IOException e) {
+            System.err.println("Result cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static InferenceBackend withCache(InferenceBackend backend, ModelVersion version, ResultCache cache) {
+        if (cache == null) {
+            return backend;
+        }
+        ModelFingerprint model = new ModelFingerprint(version.getModelFile(),
+            version.cacheId(isNative() ? "native" : System.getProperty("leaf.script", "infer.py")));
+        return new CachingBackend(backend, cache, model, SpeciesKnowledgeBase.fromSystemProperties());
+    }
+
+    static boolean isNative() {
+        return "native".equals(System.getProperty("leaf.backend"));
+    }
+
+    private static InferenceBackend createUncached(ModelVersion version) {
+        SpeciesKnowledgeBase knowledgeBase = SpeciesKnowledgeBase.fromSystemProperties();
+        if (isNative()) {
+            try {
+                return new NativeBackend(version.getModelFile(), version.getLabels(), knowledgeBase,
+                    Runtime.getRuntime().availableProcessors());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load native model: " + e.getMessage(), e);
+            }
+        }
+        java.util.List<String> command = new java.util.ArrayList<>();
+        command.add(System.getProperty("leaf.python", "python"));
+        command.add(System.getProperty("leaf.script", "infer.py"));
+        command.addAll(version.scriptOptions());
+        int workers = Integer.getInteger("leaf.workers", 2);
+        long timeoutMillis = Long.getLong("leaf.timeout.ms", 60_000L);
+        if (workers <= 0) {
+            return new ProcessBackend(command, version.getLabels(), knowledgeBase, timeoutMillis);
+        }
+        command.add("--worker");
+        int maxQueued = Integer.getInteger("leaf.queue", 16);
+        return new InferenceWorkerPool(command, workers, maxQueued, timeoutMillis, knowledgeBase);
+    }
+}
+
+// Original behaviour: start `python infer.py <path>` for every image. Features of known species are
+// taken from the in-memory catalog rather than from the script's output. The script's output is read
+// as it arrives into per-thread buffers of bounded size, and a run past the timeout is killed along
+// with any processes it started.
+class ProcessBackend implements InferenceBackend {
+    private final java.util.List<String> command;
+    private final java.util.List<String> labels;
+    private final SpeciesKnowledgeBase knowledgeBase;
+    private final long timeoutMillis;
+    private final ThreadLocal<ProcessOutput> outputs = ThreadLocal.withInitial(ProcessOutput::new);
+
+    // command is e.g. [python, infer.py] and gets the image path appended; labels are the script's, in order.
+    public ProcessBackend(java.util.List<String> command, java.util.List<String> labels, SpeciesKnowledgeBase knowledgeBase,
+                          long timeoutMillis) {
+        this.command = java.util.List.copyOf(command);
+        this.labels = labels;
+        this.knowledgeBase = knowledgeBase;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public JSONObject classify(File imageFile) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        java.util.List<String> arguments = new java.util.ArrayList<>(command);
+        arguments.add(imageFile.getAbsolutePath());
+        ProcessBuilder pb = new ProcessBuilder(arguments);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        Metrics.PROCESSES_SPAWNED.increment();
+
+        ProcessOutput output = outputs.get();
+        boolean finished = output.readFrom(process, timeoutMillis);
+        long parseStart = System.nanoTime();
+        Metrics.PROCESS.record(parseStart - start);
+        if (!finished) {
+            Metrics.TIMEOUTS.increment();
+            throw new IOException("Inference script timed out after " + timeoutMillis + " ms\nCommand: " +
+                String.join(" ", pb.command()) + "\nOutput: " + output.tail());
+        }
+        int exitCode = process.exitValue();
+        if (exitCode != 0) {
+            throw new IOException("Inference script failed with exit code " + exitCode + "\nCommand: " +
+                String.join(" ", pb.command()) + "\nOutput: " + output.tail());
+        }
+
+        try {
+            String jsonOutput = output.lastLine();
+            if (jsonOutput.isEmpty()) {
+                throw new IOException("Inference script produced no output");
+            }
+            JSONObject result = new JSONObject(jsonOutput);
+            SpeciesCatalog catalog = knowledgeBase.get();
+            if (catalog.contains(result.optString("leaf_type"))) {
+                result.put("features", catalog.traitsJson(result.getString("leaf_type")));
+            }
+            StageTimings timings = new StageTimings();
+            // Decode, model load and forward pass all happen inside the one process.
+            timings.forwardNanos = System.nanoTime() - start;
+            JSONArray probabilities = result.optJSONArray("probabilities");
+            if (probabilities != null && probabilities.length() == labels.size()) {
+                long postprocessStart = System.nanoTime();
+                float[] scores = new float[probabilities.length()];
+                for (int i = 0; i < scores.length; i++) {
+                    scores[i] = probabilities.getFloat(i);
+                }
+                InferenceResults.addScores(result, labels, scores, 0);
+                timings.postprocessNanos = System.nanoTime() - postprocessStart;
+            }
+            Metrics.PARSE.record(System.nanoTime() - parseStart);
+            return result.put("timings_ms", timings.toJson());
+        } catch (Exception e) {
+            throw new IOException("Failed to parse inference output as JSON: " + e.getMessage() +
+                "\nOutput: " + output.tail());
+        }
+    }
+}
+
+// Needs no model: decodes the image like the real backends, then gives 0.9 probability to a label
+// picked from the image's content hash, so the same image always gets the same label. The embedding
+// is a coarse gray-level layout of the image (EmbeddingIndex.pixelEmbedding). Each call
+// sleeps for a fixed per-batch delay, so batching pays off as it does with a real model.
+class StubBackend implements InferenceBackend {
+    private final SpeciesKnowledgeBase knowledgeBase;
+    private final long delayMillis;
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor();
+    private final ThreadLocal<float[]> tensors = ThreadLocal.withInitial(() -> new float[ImagePreprocessor.TENSOR_LENGTH]);
+
+    public StubBackend(SpeciesKnowledgeBase knowledgeBase, long delayMillis) {
+        this.knowledgeBase = knowledgeBase;
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public JSONObject classify(File imageFile) throws IOException, InterruptedException {
+        JSONObject result = classifyBatch(java.util.List.of(imageFile)).get(0);
+        if (result.has("error")) {
+            throw new IOException(result.getString("error"));
+        }
+        return result;
+    }
+
+    @Override
+    public JSONObject classify(PreparedImage image) throws InterruptedException {
+        StageTimings timings = image.newTimings();
+        JSONObject result = result(image.getContentHash());
+        InferenceResults.putEmbedding(result, EmbeddingIndex.pixelEmbedding(image.getTensor(), 0), 0);
+        timings.forwardNanos = sleep();
+        return result.put("timings_ms", timings.toJson());
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyBatch(java.util.List<File> imageFiles) throws IOException, InterruptedException {
+        java.util.List<JSONObject> results = new java.util.ArrayList<>(imageFiles.size());
+        java.util.List<StageTimings> timings = new java.util.ArrayList<>(imageFiles.size());
+        for (File imageFile : imageFiles) {
+            StageTimings imageTimings = new StageTimings();
+            try {
+                preprocessor.prepareTensor(imageFile, tensors.get(), 0, imageTimings);
+                byte[] bytes = java.nio.file.Files.readAllBytes(imageFile.toPath());
+                JSONObject result = result(ResultCache.toHex(ResultCache.sha256().digest(bytes)));
+                results.add(InferenceResults.putEmbedding(result, EmbeddingIndex.pixelEmbedding(tensors.get(), 0), 0));
+            } catch (IOException e) {
+                results.add(new JSONObject().put("error", e.getMessage()));
+            }
+            timings.add(imageTimings);
+        }
+        long forwardNanos = sleep();
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).has("error")) {
+                timings.get(i).forwardNanos = forwardNanos;
+                results.get(i).put("timings_ms", timings.get(i).toJson());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyPrepared(java.util.List<PreparedImage> images) throws InterruptedException {
+        java.util.List<JSONObject> results = new java.util.ArrayList<>(images.size());
+        for (PreparedImage image : images) {
+            JSONObject result = result(image.getContentHash());
+            results.add(InferenceResults.putEmbedding(result, EmbeddingIndex.pixelEmbedding(image.getTensor(), 0), 0));
+        }
+        long forwardNanos = sleep();
+        for (int i = 0; i < results.size(); i++) {
+            StageTimings timings = images.get(i).newTimings();
+            timings.forwardNanos = forwardNanos;
+            results.get(i).put("timings_ms", timings.toJson());
+        }
+        return results;
+    }
+
+    private JSONObject result(String contentHash) {
+        java.util.List<String> labels = NativeBackend.LABELS;
+        int label = (int) (Long.parseLong(contentHash.substring(0, 8), 16) % labels.size());
+        float[] probabilities = new float[labels.size()];
+        for (int c = 0; c < probabilities.length; c++) {
+            probabilities[c] = c == label ? 0.9f : 0.1f / (labels.size() - 1);
+        }
+        return InferenceResults.toResult(labels, probabilities, 0, knowledgeBase.get());
+    }
+
+    private long sleep() throws InterruptedException {
+        long start = System.nanoTime();
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// Builds the result JSON from class probabilities the same way for every backend.
+final class InferenceResults {
+    static final int TOP_K = Integer.getInteger("leaf.topk", 3);
+    static final double REVIEW_THRESHOLD = Double.parseDouble(System.getProperty("leaf.review.threshold", "0.6"));
+
+    private InferenceResults() {
+    }
+
+    // Builds the full result from one row of class probabilities.
+    static JSONObject toResult(java.util.List<String> labels, float[] probabilities, int offset, SpeciesCatalog catalog) {
+        JSONObject result = new JSONObject();
+        String leafType = addScores(result, labels, probabilities, offset);
+        return result
+            .put("leaf_type", leafType)
+            .put("features", catalog.traitsJson(leafType));
+    }
+
+    // Adds "embedding", the image's Dense(64) activations, for EmbeddingIndex.
+    static JSONObject putEmbedding(JSONObject result, float[] values, int offset) {
+        JSONArray embedding = new JSONArray();
+        for (int i = 0; i < EmbeddingIndex.DIMENSION; i++) {
+            embedding.put(values[offset + i]);
+        }
+        return result.put("embedding", embedding);
+    }
+
+    // The result's embedding, or null if the backend did not provide one.
+    static float[] embedding(JSONObject result) {
+        JSONArray values = result.optJSONArray("embedding");
+        if (values == null || values.length() != EmbeddingIndex.DIMENSION) {
+            return null;
+        }
+        float[] embedding = new float[values.length()];
+        for (int i = 0; i < embedding.length; i++) {
+            embedding[i] = values.getFloat(i);
+        }
+        return embedding;
+    }
+
+    // Adds "probabilities" (label -> p), "top_k", "confidence" and "needs_review"; returns the top label.
+    static String addScores(JSONObject result, java.util.List<String> labels, float[] probabilities, int offset) {
+        int classes = labels.size();
+        Integer[] order = new Integer[classes];
+        JSONObject byLabel = new JSONObject();
+        for (int c = 0; c < classes; c++) {
+            order[c] = c;
+            byLabel.put(labels.get(c), probabilities[offset + c]);
+        }
+        java.util.Arrays.sort(order, (a, b) -> Float.compare(probabilities[offset + b], probabilities[offset + a]));
+        JSONArray topK = new JSONArray();
+        for (int i = 0; i < Math.min(TOP_K, classes); i++) {
+            topK.put(new JSONObject().put("label", labels.get(order[i])).put("score", probabilities[offset + order[i]]));
+        }
+        float confidence = probabilities[offset + order[0]];
+        result.put("probabilities", byLabel)
+            .put("top_k", topK)
+            .put("confidence", confidence)
+            .put("needs_review", confidence < REVIEW_THRESHOLD);
+        return labels.get(order[0]);
+    }
+}
@@ -0,0 +1,447 @@
+package com.example;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.json.JSONObject;
+
+// Keeps a fixed number of warm `infer.py --worker` processes so the model is loaded once per
+// process instead of once per image. Images are decoded and preprocessed in Java and reach the
+// workers as raw float32 tensors over a Unix domain socket (see TensorChannel). Crashed or hung
+// workers are replaced in the background.
+class InferenceWorkerPool implements InferenceBackend {
+    private static final long STARTUP_TIMEOUT_MILLIS = 180_000;
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = 10_000;
+    private static final long PING_TIMEOUT_MILLIS = 5_000;
+    private static final long MAX_RESTART_DELAY_MILLIS = 30_000;
+    private static final int TENSOR_BYTES = ImagePreprocessor.TENSOR_LENGTH * Float.BYTES;
+
+    private final java.util.List<String> command;
+    private final int size;
+    private final long requestTimeoutMillis;
+    private final SpeciesKnowledgeBase knowledgeBase;
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor();
+    // Request frames are filled on the caller's thread before a worker is taken, so decoding
+    // overlaps with other requests' inference.
+    private final ThreadLocal<ByteBuffer> requestBuffers = new ThreadLocal<>();
+    private final BlockingQueue<InferenceWorker> idleWorkers;
+    private final Set<InferenceWorker> liveWorkers = ConcurrentHashMap.newKeySet();
+    private final Semaphore admission;
+    private final ScheduledExecutorService supervisor;
+    private final Thread shutdownHook = new Thread(this::close);
+    private volatile String lastStartupError;
+    private volatile boolean closed;
+
+    public InferenceWorkerPool(java.util.List<String> command, int size, int maxQueued, long requestTimeoutMillis,
+                               SpeciesKnowledgeBase knowledgeBase) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Worker pool size must be positive: " + size);
+        }
+        this.knowledgeBase = knowledgeBase;
+        this.command = java.util.List.copyOf(command);
+        this.size = size;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.idleWorkers = new ArrayBlockingQueue<>(size);
+        this.admission = new Semaphore(size + Math.max(0, maxQueued));
+        this.supervisor = Executors.newScheduledThreadPool(1, r -> {
+            Thread t = new Thread(r, "inference-pool-supervisor");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < size; i++) {
+            scheduleStart(0);
+        }
+        supervisor.scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_INTERVAL_MILLIS,
+            HEALTH_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    @Override
+    public JSONObject classify(File imageFile) throws IOException, InterruptedException {
+        JSONObject result = classifyBatch(java.util.List.of(imageFile)).get(0);
+        if (result.has("error")) {
+            throw new IOException("Inference failed for " + imageFile + ": " + result.getString("error"));
+        }
+        return result;
+    }
+
+    @Override
+    public JSONObject classify(PreparedImage image) throws IOException, InterruptedException {
+        ByteBuffer request = requestBuffer(1);
+        request.asFloatBuffer().put(image.getTensor());
+        request.limit(TENSOR_BYTES);
+        StageTimings timings = image.newTimings();
+        return predict(request, 1, new StageTimings[]{timings}).get(0);
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyBatch(java.util.List<File> imageFiles) throws IOException, InterruptedException {
+        ByteBuffer request = requestBuffer(imageFiles.size());
+        JSONObject[] results = new JSONObject[imageFiles.size()];
+        StageTimings[] timings = new StageTimings[imageFiles.size()];
+        int count = 0;
+        for (int i = 0; i < imageFiles.size(); i++) {
+            try {
+                request.position(count * TENSOR_BYTES);
+                StageTimings imageTimings = new StageTimings();
+                preprocessor.prepareTensor(imageFiles.get(i), request.asFloatBuffer(), imageTimings);
+                timings[count] = imageTimings;
+                count++;
+            } catch (IOException | RuntimeException e) {
+                results[i] = new JSONObject().put("error", "Error preprocessing image: " + e.getMessage());
+            }
+        }
+        if (count > 0) {
+            request.position(0).limit(count * TENSOR_BYTES);
+            Iterator<JSONObject> predicted = predict(request, count, timings).iterator();
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    results[i] = predicted.next();
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyPrepared(java.util.List<PreparedImage> images) throws IOException, InterruptedException {
+        ByteBuffer request = requestBuffer(images.size());
+        FloatBuffer tensors = request.asFloatBuffer();
+        StageTimings[] timings = new StageTimings[images.size()];
+        for (int i = 0; i < images.size(); i++) {
+            tensors.put(images.get(i).getTensor());
+            timings[i] = images.get(i).newTimings();
+        }
+        request.limit(images.size() * TENSOR_BYTES);
+        return predict(request, images.size(), timings);
+    }
+
+    private ByteBuffer requestBuffer(int images) {
+        ByteBuffer buffer = requestBuffers.get();
+        if (buffer == null || buffer.capacity() < images * TENSOR_BYTES) {
+            buffer = ByteBuffer.allocateDirect(images * TENSOR_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            requestBuffers.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    // timings[i] belongs to the i-th tensor; the forward time of a batch is shared by its images.
+    private java.util.List<JSONObject> predict(ByteBuffer tensors, int count, StageTimings[] timings)
+            throws IOException, InterruptedException {
+        if (closed) {
+            throw new IOException("Inference pool is closed");
+        }
+        if (!admission.tryAcquire()) {
+            throw new IOException("Inference pool is overloaded: " + admission.availablePermits() +
+                " free slots for " + size + " workers");
+        }
+        try {
+            InferenceWorker worker = idleWorkers.poll(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (worker == null) {
+                Metrics.TIMEOUTS.increment();
+                String reason = lastStartupError != null && liveWorkers.isEmpty()
+                    ? "\nLast worker startup error: " + lastStartupError : "";
+                throw new IOException("No inference worker became available within " + requestTimeoutMillis + " ms" + reason);
+            }
+            boolean healthy = false;
+            try {
+                long start = System.nanoTime();
+                float[] probabilities = worker.predict(tensors, count, requestTimeoutMillis);
+                healthy = true;
+                long forwardNanos = System.nanoTime() - start;
+                java.util.List<String> labels = worker.getLabels();
+                java.util.List<JSONObject> results = new ArrayList<>(count);
+                SpeciesCatalog catalog = knowledgeBase.get();
+                // Workers that report embeddings append them after all the probabilities.
+                int embeddingSize = probabilities.length / count - labels.size();
+                for (int i = 0; i < count; i++) {
+                    long postprocessStart = System.nanoTime();
+                    JSONObject result = InferenceResults.toResult(labels, probabilities, i * labels.size(), catalog);
+                    if (embeddingSize == EmbeddingIndex.DIMENSION) {
+                        InferenceResults.putEmbedding(result, probabilities, count * labels.size() + i * embeddingSize);
+                    }
+                    timings[i].forwardNanos = forwardNanos;
+                    timings[i].postprocessNanos = System.nanoTime() - postprocessStart;
+                    results.add(result.put("timings_ms", timings[i].toJson()));
+                }
+                return results;
+            } catch (RemoteInferenceException e) {
+                healthy = true; // The worker reported the error and is still in sync
+                throw e;
+            } catch (SocketTimeoutException e) {
+                Metrics.TIMEOUTS.increment();
+                throw e;
+            } finally {
+                if (healthy) {
+                    release(worker);
+                } else {
+                    // Timed out, crashed or interrupted mid-frame: the stream can no longer be trusted.
+                    replace(worker);
+                }
+            }
+        } finally {
+            admission.release();
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getLiveWorkerCount() {
+        return liveWorkers.size();
+    }
+
+    public int getIdleWorkerCount() {
+        return idleWorkers.size();
+    }
+
+    private void release(InferenceWorker worker) {
+        if (closed || !idleWorkers.offer(worker)) {
+            liveWorkers.remove(worker);
+            worker.destroy();
+        }
+    }
+
+    private void replace(InferenceWorker worker) {
+        liveWorkers.remove(worker);
+        worker.destroy();
+        if (!closed) {
+            scheduleStart(0);
+        }
+    }
+
+    private void scheduleStart(long delayMillis) {
+        try {
+            supervisor.schedule(() -> startWorker(delayMillis), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Pool closed while a restart was pending.
+        }
+    }
+
+    private void startWorker(long previousDelayMillis) {
+        if (closed) {
+            return;
+        }
+        try {
+            InferenceWorker worker = InferenceWorker.start(command, STARTUP_TIMEOUT_MILLIS);
+            liveWorkers.add(worker);
+            lastStartupError = null;
+            release(worker);
+        } catch (IOException e) {
+            lastStartupError = e.getMessage();
+            System.err.println("Failed to start inference worker: " + e.getMessage());
+            scheduleStart(Math.min(MAX_RESTART_DELAY_MILLIS, Math.max(1_000, previousDelayMillis * 2)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkHealth() {
+        for (int i = idleWorkers.size(); i > 0 && !closed; i--) {
+            InferenceWorker worker = idleWorkers.poll();
+            if (worker == null) {
+                return;
+            }
+            boolean healthy = false;
+            try {
+                healthy = worker.isAlive() && worker.ping(PING_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                System.err.println("Inference worker failed health check: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (healthy) {
+                release(worker);
+            } else {
+                replace(worker);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        supervisor.shutdownNow();
+        for (InferenceWorker worker : liveWorkers) {
+            worker.destroy();
+        }
+        liveWorkers.clear();
+        idleWorkers.clear();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down.
+        }
+    }
+}
+
+// The worker answered with an ERROR frame; the connection itself is fine.
+class RemoteInferenceException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    RemoteInferenceException(String message) {
+        super(message);
+    }
+}
+
+// One `infer.py --worker <socket>` process. Its stdout and stderr are logs only; requests and
+// results travel over the socket it connects back to.
+class InferenceWorker {
+    private final Process process;
+    private final Path socketDirectory;
+    private final TensorChannel channel;
+    private final java.util.List<String> labels;
+    private long nextId;
+
+    private InferenceWorker(Process process, Path socketDirectory, TensorChannel channel, java.util.List<String> labels) {
+        this.process = process;
+        this.socketDirectory = socketDirectory;
+        this.channel = channel;
+        this.labels = labels;
+    }
+
+    static InferenceWorker start(java.util.List<String> command, long startupTimeoutMillis)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(startupTimeoutMillis);
+        Path directory = Files.createTempDirectory("leaf-worker");
+        Path socketPath = directory.resolve("worker.sock");
+        Process process = null;
+        TensorChannel channel = null;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            java.util.List<String> fullCommand = new ArrayList<>(command);
+            fullCommand.add(socketPath.toString());
+            process = new ProcessBuilder(fullCommand)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            Metrics.PROCESSES_SPAWNED.increment();
+            long spawned = System.nanoTime();
+            channel = new TensorChannel(awaitConnection(server, process, deadline));
+            channel.receive(deadline);
+            if (channel.type() != TensorChannel.HELLO) {
+                throw new IOException("Inference worker did not say hello, got frame type " + channel.type());
+            }
+            java.util.List<String> labels = java.util.List.of(channel.text().split("\n"));
+            if (labels.size() != channel.shape(0)) {
+                throw new IOException("Inference worker sent " + labels.size() + " labels for " + channel.shape(0) + " classes");
+            }
+            Metrics.WORKER_STARTUP.record(System.nanoTime() - spawned);
+            // Older workers leave these at 0.
+            if (channel.shape(1) > 0 || channel.shape(2) > 0) {
+                Metrics.WORKER_IMPORT.record(TimeUnit.MILLISECONDS.toNanos(channel.shape(1)));
+                Metrics.WORKER_MODEL_LOAD.record(TimeUnit.MILLISECONDS.toNanos(channel.shape(2)));
+            }
+            return new InferenceWorker(process, directory, channel, labels);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            throw e;
+        } finally {
+            Files.deleteIfExists(socketPath);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static SocketChannel awaitConnection(ServerSocketChannel server, Process process, long deadline)
+            throws IOException, InterruptedException {
+        server.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (true) {
+                SocketChannel connection = server.accept();
+                if (connection != null) {
+                    return connection;
+                }
+                if (!process.isAlive()) {
+                    throw new IOException("Inference worker exited with code " + process.exitValue() + " before connecting");
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException("Inference worker did not connect within the startup timeout");
+                }
+                selector.select(Math.max(1, Math.min(500, TimeUnit.NANOSECONDS.toMillis(remaining))));
+                selector.selectedKeys().clear();
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+
+    // tensors: count NHWC float32 images between position and limit. Returns count x classes probabilities,
+    // followed by count x embedding size activations if the worker sends them (shape[2] of the response).
+    float[] predict(ByteBuffer tensors, int count, long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long id = ++nextId;
+        channel.send(TensorChannel.PREDICT, id, tensors, count,
+            ImagePreprocessor.SIZE, ImagePreprocessor.SIZE, CnnEngine.CHANNELS, deadline);
+        ByteBuffer response = receive(id, deadline);
+        if (channel.type() == TensorChannel.ERROR) {
+            throw new RemoteInferenceException("Inference worker failed: " + channel.text());
+        }
+        if (channel.type() != TensorChannel.PROBABILITIES || channel.shape(0) != count ||
+                channel.shape(1) != labels.size()) {
+            throw new IOException("Unexpected response from inference worker " + process.pid());
+        }
+        float[] probabilities = new float[count * (labels.size() + channel.shape(2))];
+        response.asFloatBuffer().get(probabilities);
+        return probabilities;
+    }
+
+    boolean ping(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long id = ++nextId;
+        channel.send(TensorChannel.PING, id, null, 0, 0, 0, 0, deadline);
+        receive(id, deadline);
+        return channel.type() == TensorChannel.PONG;
+    }
+
+    java.util.List<String> getLabels() {
+        return labels;
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    void destroy() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+        process.destroyForcibly();
+    }
+
+    private ByteBuffer receive(long id, long deadline) throws IOException, InterruptedException {
+        try {
+            ByteBuffer response = channel.receive(deadline);
+            if (channel.id() != id) {
+                throw new IOException("Inference worker answered request " + channel.id() + " instead of " + id);
+            }
+            return response;
+        } catch (EOFException e) {
+            process.waitFor(1, TimeUnit.SECONDS);
+            throw new IOException("Inference worker " + process.pid() + " exited" +
+                (process.isAlive() ? "" : " with exit code " + process.exitValue()));
+        }
+    }
+}
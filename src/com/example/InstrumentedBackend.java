@@ -0,0 +1,189 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.util.*;
+
+// Outermost backend decorator: times every classification end to end, records the stage timings the
+// backend reports, counts failures and cache hits, and emits a JFR DetectionEvent per image.
+class InstrumentedBackend implements InferenceBackend {
+    private final InferenceBackend delegate;
+    private final String name;
+
+    InstrumentedBackend(InferenceBackend delegate) {
+        this.delegate = delegate;
+        this.name = delegate.getClass().getSimpleName();
+    }
+
+    @Override
+    public JSONObject classify(File imageFile) throws IOException, InterruptedException {
+        DetectionEvent event = new DetectionEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            JSONObject result = delegate.classify(imageFile);
+            record(result, System.nanoTime() - start, event);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            fail(e, event);
+            throw e;
+        }
+    }
+
+    @Override
+    public JSONObject classify(PreparedImage image) throws IOException, InterruptedException {
+        DetectionEvent event = new DetectionEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            JSONObject result = delegate.classify(image);
+            // Decoding happened before this call; count it in, as the stage timings do.
+            StageTimings decoded = image.newTimings();
+            record(result, System.nanoTime() - start + decoded.decodeNanos + decoded.preprocessNanos, event);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            fail(e, event);
+            throw e;
+        }
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyBatch(java.util.List<File> imageFiles) throws IOException, InterruptedException {
+        return recordBatch(imageFiles.size(), () -> delegate.classifyBatch(imageFiles));
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyPrepared(java.util.List<PreparedImage> images) throws IOException, InterruptedException {
+        return recordBatch(images.size(), () -> delegate.classifyPrepared(images));
+    }
+
+    private interface BatchCall {
+        java.util.List<JSONObject> run() throws IOException, InterruptedException;
+    }
+
+    private java.util.List<JSONObject> recordBatch(int size, BatchCall call) throws IOException, InterruptedException {
+        DetectionEvent[] events = new DetectionEvent[size];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new DetectionEvent();
+            events[i].begin();
+        }
+        long start = System.nanoTime();
+        try {
+            java.util.List<JSONObject> results = call.run();
+            long elapsed = System.nanoTime() - start;
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).has("error")) {
+                    Metrics.FAILURES.increment();
+                    events[i].end();
+                    commit(events[i], null, results.get(i).optString("error"));
+                } else {
+                    record(results.get(i), elapsed, events[i]);
+                }
+            }
+            return results;
+        } catch (IOException | RuntimeException e) {
+            for (DetectionEvent event : events) {
+                fail(e, event);
+            }
+            throw e;
+        }
+    }
+
+    private void record(JSONObject result, long elapsedNanos, DetectionEvent event) {
+        event.end();
+        Metrics.DETECTIONS.increment();
+        Metrics.DETECTION.record(elapsedNanos);
+        if (result.optBoolean("cached")) {
+            Metrics.CACHE_HITS.increment();
+        }
+        JSONObject timings = result.optJSONObject("timings_ms");
+        if (timings != null) {
+            Metrics.DECODE.record(nanos(timings, "decode"));
+            Metrics.PREPROCESS.record(nanos(timings, "preprocess"));
+            Metrics.FORWARD.record(nanos(timings, "forward"));
+            Metrics.POSTPROCESS.record(nanos(timings, "postprocess"));
+        }
+        commit(event, result, null);
+    }
+
+    private void fail(Exception e, DetectionEvent event) {
+        event.end();
+        Metrics.FAILURES.increment();
+        commit(event, null, String.valueOf(e.getMessage()));
+    }
+
+    private void commit(DetectionEvent event, JSONObject result, String error) {
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.backend = name;
+        event.error = error;
+        if (result != null) {
+            event.leafType = result.optString("leaf_type");
+            event.confidence = result.optDouble("confidence", Double.NaN);
+            event.cached = result.optBoolean("cached");
+            JSONObject timings = result.optJSONObject("timings_ms");
+            if (timings != null) {
+                event.decode = nanos(timings, "decode");
+                event.preprocess = nanos(timings, "preprocess");
+                event.forward = nanos(timings, "forward");
+                event.postprocess = nanos(timings, "postprocess");
+            }
+        }
+        event.commit();
+    }
+
+    private static long nanos(JSONObject timingsMillis, String stage) {
+        return (long) (timingsMillis.optDouble(stage, 0) * 1_000_000);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
+
+// Recorded with e.g. `java -XX:StartFlightRecording=filename=leaf.jfr ...`; costs nothing otherwise.
+@Name("com.example.Detection")
+@Label("Leaf Detection")
+@Category("Leaf Detection")
+@Description("One image classified by the inference backend")
+class DetectionEvent extends Event {
+    @Label("Backend")
+    String backend;
+
+    @Label("Leaf Type")
+    String leafType;
+
+    @Label("Confidence")
+    double confidence;
+
+    @Label("Cached")
+    boolean cached;
+
+    @Label("Error")
+    String error;
+
+    @Label("Decode")
+    @Timespan(Timespan.NANOSECONDS)
+    long decode;
+
+    @Label("Preprocess")
+    @Timespan(Timespan.NANOSECONDS)
+    long preprocess;
+
+    @Label("Forward Pass")
+    @Timespan(Timespan.NANOSECONDS)
+    long forward;
+
+    @Label("Postprocess")
+    @Timespan(Timespan.NANOSECONDS)
+    long postprocess;
+}
@@ -0,0 +1,45 @@
+package com.example;
+
+import java.util.Arrays;
+
+// Snapshot of the leaf/feature graph. Nodes [0, leafCount) are leaves and the rest are features.
+// x/y are node centres: current positions on input (NaN for nodes never laid out), new ones on output.
+final class LayoutGraph {
+    final int leafCount;
+    final int nodeCount;
+    final double[] x;
+    final double[] y;
+    final double[] width;
+    final double[] height;
+    final int[] edgeSource;
+    final int[] edgeTarget;
+    final int edgeCount;
+
+    LayoutGraph(int leafCount, int nodeCount, int[] edgeSource, int[] edgeTarget, int edgeCount) {
+        this.leafCount = leafCount;
+        this.nodeCount = nodeCount;
+        this.x = new double[nodeCount];
+        this.y = new double[nodeCount];
+        this.width = new double[nodeCount];
+        this.height = new double[nodeCount];
+        this.edgeSource = edgeSource;
+        this.edgeTarget = edgeTarget;
+        this.edgeCount = edgeCount;
+        Arrays.fill(x, Double.NaN);
+        Arrays.fill(y, Double.NaN);
+    }
+
+    // Shifts the layout so its top-left node corner sits at (margin, margin).
+    void translateToOrigin(double margin) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < nodeCount; i++) {
+            minX = Math.min(minX, x[i] - width[i] / 2);
+            minY = Math.min(minY, y[i] - height[i] / 2);
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            x[i] += margin - minX;
+            y[i] += margin - minY;
+        }
+    }
+}
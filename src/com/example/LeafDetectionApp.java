@@ -5,15 +5,27 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.nio.file.*;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxGraphModel;
+import com.mxgraph.model.mxIGraphModel;
 import com.mxgraph.swing.mxGraphComponent;
 import com.mxgraph.view.mxGraph;
 import org.json.JSONObject;
 import org.json.JSONArray;
 import java.util.*;
-import com.mxgraph.util.mxConstants;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class LeafDetectionApp {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchClassifier.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            ClassificationServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             ImageProcessor processor = new ImageProcessor();
             ResultDisplay display = new ResultDisplay();
@@ -26,17 +38,28 @@ class MainFrame extends JFrame {
     private final ImageProcessor imageProcessor;
     private final ResultDisplay resultDisplay;
     private JLabel imageLabel;
-    private JTextArea resultArea;
+    // Created up front: GraphDisplay writes into it and is built before the rest of the UI.
+    private final JTextArea resultArea = new JTextArea(10, 40);
     private File selectedImage;
+    private PreparedImage preparedImage;
     private JPanel graphPanel;
     private mxGraphComponent graphComponent;
     private GraphDisplay graphDisplay;
     private JButton edgeToggleButton; // New button for toggling edges
+    private JButton cancelButton;
+    private JProgressBar detectionProgress;
+    private DiagnosticsDialog diagnosticsDialog;
+    private FrameStream frameStream;
+    private javax.swing.Timer streamDisplayTimer;
+    private final DetectionQueue detectionQueue;
+    private final SimilarImageFinder similarImages = SimilarImageFinder.fromSystemProperties();
+    private final DetectionJournal journal = DetectionJournal.fromSystemProperties();
 
     public MainFrame(ImageProcessor processor, ResultDisplay display) {
         this.imageProcessor = processor;
         this.resultDisplay = display;
         this.graphDisplay = new GraphDisplay(display, resultArea);
+        this.detectionQueue = new DetectionQueue(processor, 32, this::updateDetectionStatus);
         initializeUI();
     }
 
@@ -62,6 +85,14 @@ class MainFrame extends JFrame {
         detectButton.setEnabled(false);
         graphButton.setEnabled(false);
         edgeToggleButton.setEnabled(false); // Disabled until graph is shown
+        cancelButton = createStyledButton("Cancel");
+        cancelButton.setEnabled(false);
+        JButton diagnosticsButton = createStyledButton("Diagnostics");
+        JButton streamButton = createStyledButton("Classify Stream");
+        detectionProgress = new JProgressBar();
+        detectionProgress.setStringPainted(true);
+        detectionProgress.setPreferredSize(new Dimension(260, 30));
+        detectionProgress.setVisible(false);
 
         // Graph panel
         graphPanel = new JPanel(new BorderLayout());
@@ -78,7 +109,6 @@ class MainFrame extends JFrame {
         imagePanel.add(new JScrollPane(imageLabel), BorderLayout.CENTER);
 
         // Result display with modern styling
-        resultArea = new JTextArea(10, 40);
         resultArea.setEditable(false);
         resultArea.setFont(new Font("Monospaced", Font.PLAIN, 14));
         resultArea.setBorder(BorderFactory.createLineBorder(Color.GRAY));
@@ -92,29 +122,56 @@ class MainFrame extends JFrame {
             fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Images", "jpg", "png"));
             if (fileChooser.showOpenDialog(MainFrame.this) == JFileChooser.APPROVE_OPTION) {
                 selectedImage = fileChooser.getSelectedFile();
-                imageProcessor.loadImage(selectedImage);
-                displayImage();
-                detectButton.setEnabled(true);
+                detectButton.setEnabled(false);
+                loadImageInBackground(selectedImage, detectButton);
                 graphButton.setEnabled(graphDisplay.hasData());
                 edgeToggleButton.setEnabled(graphPanel.isVisible() && graphDisplay.hasData());
             }
         });
 
         detectButton.addActionListener(e -> {
-            try {
-                String result = imageProcessor.runInference();
-                resultDisplay.showResult(resultArea, result);
-                graphDisplay.addLeafData(imageProcessor.getLeafData());
+            PreparedImage image = preparedImage;
+            boolean queued = detectionQueue.submit(image, leafData -> {
+                JSONObject shown = new JSONObject(leafData, JSONObject.getNames(leafData))
+                    .put("similar_images", similarImages.addAndFind(image, leafData, 5));
+                resultDisplay.showResult(resultArea, shown.toString());
+                graphDisplay.addLeafData(leafData);
+                if (journal != null) {
+                    journal.append(leafData);
+                }
                 graphButton.setEnabled(true);
                 edgeToggleButton.setEnabled(graphPanel.isVisible() && graphDisplay.hasData());
                 if (graphPanel.isVisible()) {
                     updateGraphPanel();
                 }
-            } catch (Exception ex) {
-                resultDisplay.showResult(resultArea, "Error: " + ex.getMessage());
+            }, ex -> resultDisplay.showResult(resultArea, "Error: " + ex.getMessage()));
+            if (!queued) {
+                resultArea.setText("Too many detections queued, please wait for some to finish.");
             }
         });
 
+        cancelButton.addActionListener(e -> detectionQueue.cancelAll());
+
+        streamButton.addActionListener(e -> {
+            if (frameStream != null) {
+                stopStream(streamButton);
+                return;
+            }
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("Image sequence folder or MJPEG file");
+            fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+            if (fileChooser.showOpenDialog(MainFrame.this) == JFileChooser.APPROVE_OPTION) {
+                startStream(fileChooser.getSelectedFile().toPath(), streamButton);
+            }
+        });
+
+        diagnosticsButton.addActionListener(e -> {
+            if (diagnosticsDialog == null) {
+                diagnosticsDialog = new DiagnosticsDialog(this);
+            }
+            diagnosticsDialog.setVisible(true);
+        });
+
         graphButton.addActionListener(e -> {
             if (graphPanel.isVisible()) {
                 graphPanel.setVisible(false);
@@ -143,6 +200,10 @@ class MainFrame extends JFrame {
         controlPanel.add(detectButton);
         controlPanel.add(graphButton);
         controlPanel.add(edgeToggleButton); // Add new button to control panel
+        controlPanel.add(cancelButton);
+        controlPanel.add(streamButton);
+        controlPanel.add(diagnosticsButton);
+        controlPanel.add(detectionProgress);
 
         mainPanel.add(controlPanel, BorderLayout.NORTH);
         mainPanel.add(imagePanel, BorderLayout.CENTER);
@@ -151,6 +212,87 @@ class MainFrame extends JFrame {
 
         setLocationRelativeTo(null);
         setVisible(true);
+        restoreHistory(graphButton);
+    }
+
+    // Puts the species from earlier sessions back into the graph once the journal has been read, in one
+    // model update.
+    private void restoreHistory(JButton graphButton) {
+        if (journal == null) {
+            return;
+        }
+        journal.restored().thenAccept(leaves -> SwingUtilities.invokeLater(() -> {
+            if (leaves.isEmpty()) {
+                return;
+            }
+            graphDisplay.addLeafData(leaves);
+            graphButton.setEnabled(true);
+            if (graphPanel.isVisible()) {
+                updateGraphPanel();
+            }
+        }));
+    }
+
+    // Frame rate and smoothing can be tuned with leaf.stream.fps (default 25), leaf.stream.queue (2),
+    // leaf.stream.hash.distance (4) and leaf.stream.alpha (0.3); see FrameStream.
+    private void startStream(Path source, JButton streamButton) {
+        try {
+            frameStream = new FrameStream(imageProcessor, source,
+                Double.parseDouble(System.getProperty("leaf.stream.fps", "25")),
+                Integer.getInteger("leaf.stream.queue", 2),
+                Integer.getInteger("leaf.stream.hash.distance", 4),
+                Double.parseDouble(System.getProperty("leaf.stream.alpha", "0.3")));
+        } catch (IOException ex) {
+            resultArea.setText("Error: " + ex.getMessage());
+            return;
+        }
+        frameStream.start();
+        streamButton.setText("Stop Stream");
+        resultArea.setText("Classifying " + source.getFileName() + "...");
+        // Results reach the panel at a steady 5 per second however fast frames are classified.
+        JSONObject[] shown = new JSONObject[1];
+        FrameStream stream = frameStream;
+        streamDisplayTimer = new javax.swing.Timer(200, e -> {
+            if (frameStream != stream) {
+                return; // A tick that was already queued when the stream was stopped
+            }
+            boolean finished = stream.isFinished();
+            JSONObject latest = stream.latest();
+            if (latest != null && latest != shown[0]) {
+                shown[0] = latest;
+                resultDisplay.showResult(resultArea, latest.toString());
+            }
+            if (finished) {
+                stopStream(streamButton);
+            }
+        });
+        streamDisplayTimer.start();
+    }
+
+    // Closing joins the stream's threads, which may be waiting on a backend call, so it runs off the EDT.
+    private void stopStream(JButton streamButton) {
+        streamDisplayTimer.stop();
+        FrameStream stream = frameStream;
+        frameStream = null;
+        streamButton.setEnabled(false);
+        streamButton.setText("Stopping...");
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                stream.close();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                JSONObject latest = stream.latest();
+                if (latest != null) {
+                    resultDisplay.showResult(resultArea, latest.toString());
+                }
+                streamButton.setText("Classify Stream");
+                streamButton.setEnabled(true);
+            }
+        }.execute();
     }
 
     private JButton createStyledButton(String text) {
@@ -167,7 +309,7 @@ class MainFrame extends JFrame {
     }
 
     private void updateGraphPanel() {
-        if (graphComponent == null || graphDisplay.isGraphUpdated()) {
+        if (graphComponent == null) {
             graphComponent = graphDisplay.createGraphComponent();
             graphPanel.removeAll();
             graphPanel.add(graphComponent, BorderLayout.CENTER);
@@ -177,78 +319,45 @@ class MainFrame extends JFrame {
         graphPanel.repaint();
     }
 
-    private void displayImage() {
-        if (imageProcessor.getImage() != null) {
-            Image scaledImage = imageProcessor.getImage().getScaledInstance(400, 300, Image.SCALE_SMOOTH);
-            imageLabel.setIcon(new ImageIcon(scaledImage));
-            imageLabel.setText("");
-        }
-    }
-}
-class ImageProcessor {
-    private Image image;
-    private File imageFile;
-    private JSONObject leafData;
-
-    public void loadImage(File file) {
-        try {
-            this.imageFile = file;
-            this.image = new ImageIcon(file.getAbsolutePath()).getImage();
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load image: " + e.getMessage());
-        }
-    }
-
-    public String runInference() throws IOException, InterruptedException {
-        if (imageFile == null) {
-            throw new IllegalStateException("No image loaded");
-        }
-
-        String pythonCommand = "python";
-        String scriptPath = "infer.py";
-        ProcessBuilder pb = new ProcessBuilder(pythonCommand, scriptPath, imageFile.getAbsolutePath());
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-
-        StringBuilder output = new StringBuilder();
-        StringBuilder errorOutput = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!line.trim().isEmpty()) {
-                    output.setLength(0);
-                    output.append(line);
-                }
-                errorOutput.append(line).append("\n");
+    private void loadImageInBackground(File file, JButton detectButton) {
+        imageLabel.setIcon(null);
+        imageLabel.setText("Loading " + file.getName() + "...");
+        new SwingWorker<PreparedImage, Void>() {
+            @Override
+            protected PreparedImage doInBackground() {
+                return imageProcessor.loadImage(file);
             }
-        }
-
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new IOException("Inference script failed with exit code " + exitCode + "\nCommand: " +
-                String.join(" ", pb.command()) + "\nOutput: " + errorOutput.toString());
-        }
 
-        try {
-            String jsonOutput = output.toString().trim();
-            if (jsonOutput.isEmpty()) {
-                throw new IOException("Inference script produced no output");
+            @Override
+            protected void done() {
+                if (file != selectedImage) {
+                    return; // A newer upload replaced this one
+                }
+                try {
+                    preparedImage = get();
+                    displayImage(preparedImage.getThumbnail());
+                    detectButton.setEnabled(true);
+                } catch (Exception ex) {
+                    imageLabel.setText("Failed to load image");
+                    resultDisplay.showResult(resultArea, "Error: " + ex.getMessage());
+                }
             }
-            leafData = new JSONObject(jsonOutput);
-        } catch (Exception e) {
-            throw new IOException("Failed to parse inference output as JSON: " + e.getMessage() +
-                "\nOutput: " + output.toString());
-        }
-
-        return output.toString();
+        }.execute();
     }
 
-    public Image getImage() {
-        return image;
+    private void displayImage(Image preview) {
+        if (preview != null) {
+            imageLabel.setIcon(new ImageIcon(preview));
+            imageLabel.setText("");
+        }
     }
 
-    public JSONObject getLeafData() {
-        return leafData;
+    private void updateDetectionStatus() {
+        int pending = detectionQueue.size();
+        cancelButton.setEnabled(pending > 0);
+        detectionProgress.setVisible(pending > 0);
+        detectionProgress.setIndeterminate(pending > 0);
+        detectionProgress.setString(pending > 1 ? "Detecting... (" + (pending - 1) + " queued)" : "Detecting...");
     }
 }
 
@@ -261,11 +370,53 @@ class ResultDisplay {
             JSONArray featuresArray = jsonResult.getJSONArray("features");
             StringBuilder formattedResult = new StringBuilder();
             formattedResult.append("=== Detection Result ===\n");
-            formattedResult.append("Leaf Type: ").append(leafType).append("\n");
+            formattedResult.append("Leaf Type: ").append(leafType);
+            if (jsonResult.has("confidence")) {
+                formattedResult.append(String.format(" (%.1f%%)", 100 * jsonResult.getDouble("confidence")));
+            }
+            formattedResult.append(jsonResult.optBoolean("cached") ? " [cached]\n" : "\n");
+            if (jsonResult.optBoolean("needs_review")) {
+                formattedResult.append("Low confidence: please review manually\n");
+            }
             formattedResult.append("Features:\n");
             for (int i = 0; i < featuresArray.length(); i++) {
                 formattedResult.append("  - ").append(featuresArray.getString(i)).append("\n");
             }
+            JSONArray topK = jsonResult.optJSONArray("top_k");
+            if (topK != null) {
+                formattedResult.append("Top Predictions:\n");
+                for (int i = 0; i < topK.length(); i++) {
+                    JSONObject entry = topK.getJSONObject(i);
+                    formattedResult.append(String.format("  %d. %-26s %5.1f%%\n", i + 1,
+                        entry.getString("label"), 100 * entry.getDouble("score")));
+                }
+            }
+            JSONObject timings = jsonResult.optJSONObject("timings_ms");
+            if (timings != null) {
+                formattedResult.append(String.format("Timings (ms): decode %.1f, preprocess %.1f, forward %.1f, postprocess %.1f\n",
+                    timings.optDouble("decode"), timings.optDouble("preprocess"),
+                    timings.optDouble("forward"), timings.optDouble("postprocess")));
+            }
+            JSONArray similarImages = jsonResult.optJSONArray("similar_images");
+            if (similarImages != null && similarImages.length() > 0) {
+                formattedResult.append("Visually Similar Images:\n");
+                for (int i = 0; i < similarImages.length(); i++) {
+                    JSONObject similar = similarImages.getJSONObject(i);
+                    formattedResult.append(String.format("  %d. %s (%s, %.1f%%)\n", i + 1, similar.getString("path"),
+                        similar.getString("leaf_type"), 100 * similar.getDouble("similarity")));
+                }
+            }
+            JSONObject stream = jsonResult.optJSONObject("stream");
+            if (stream != null) {
+                formattedResult.append(String.format("Stream: %d frames, %d classified (%.1f/s), %d near-duplicates skipped, " +
+                        "%d stale dropped, %d errors, latency %.0f ms%s\n",
+                    stream.optLong("frames"), stream.optLong("classified"), stream.optDouble("classified_per_sec"),
+                    stream.optLong("duplicates"), stream.optLong("dropped"), stream.optLong("errors"),
+                    stream.optDouble("latency_ms"), stream.optBoolean("finished") ? ", finished" : ""));
+                if (stream.has("last_error")) {
+                    formattedResult.append("Last error: ").append(stream.getString("last_error")).append("\n");
+                }
+            }
             resultArea.setText(formattedResult.toString());
         } catch (Exception e) {
             resultArea.setText("Error parsing result: " + e.getMessage());
@@ -321,28 +472,57 @@ class ResultDisplay {
 }
 
 class GraphDisplay {
+    private static final int SIMILAR_LEAVES = 5;
+    private static final String LEAF_STYLE = "fillColor=#ADD8E6;strokeColor=#4682B4;fontColor=black;fontSize=12";
+    private static final String FEATURE_STYLE = "fillColor=#98FB98;strokeColor=#228B22;fontColor=black;fontSize=12";
     private final ResultDisplay resultDisplay;
     private final JTextArea resultArea;
     private mxGraph graph;
-    private Map<String, java.util.List<String>> leafFeatureMap;
+    private final FeatureIndex featureIndex;
+    private final SimilarityIndex similarityIndex;
+    private final SimilarityIndex.Scoring similarityScoring;
+    private final SpeciesKnowledgeBase knowledgeBase;
     private Map<String, Object> leafNodes;
     private Map<String, Object> featureNodes;
-    private boolean graphUpdated;
     private Set<Object> selectedCells;
+    private final HighlightManager highlights;
     private boolean edgesVisible; // Track edge visibility state
-    private Map<String, java.util.List<Object>> edgeMap; // Store edges for restoration
+    private int[] queryIds = new int[8]; // Scratch ids for the FeatureIndex queries
+    private final java.util.List<Object> leafCells = new ArrayList<>(); // Vertices by FeatureIndex leaf id
+    private final java.util.List<Object> featureCells = new ArrayList<>(); // Vertices by FeatureIndex feature id
+    private final Map<Long, Object> edgeCells = new HashMap<>(); // Edges by (leaf id, feature id)
+    private final Set<Object> unplacedCells = new HashSet<>(); // Vertices not positioned by a layout yet
+    private final GraphLayout layout;
+    private final long layoutBudgetNanos;
+    private final ExecutorService layoutExecutor;
+    private boolean layoutRunning;
+    private boolean layoutPending;
 
     public GraphDisplay(ResultDisplay display, JTextArea resultArea) {
         this.resultDisplay = display;
         this.resultArea = resultArea;
         this.graph = new mxGraph();
-        this.leafFeatureMap = new HashMap<>();
+        // Every cell lives directly under the default parent, so there is no edge parent to maintain; keeping
+        // it on walks the parent's whole child list for each inserted edge, which dominates restoring a
+        // large history.
+        ((mxGraphModel) graph.getModel()).setMaintainEdgeParent(false);
+        this.featureIndex = new FeatureIndex();
+        this.similarityIndex = new SimilarityIndex(featureIndex, SIMILAR_LEAVES, 32, 2);
+        this.knowledgeBase = SpeciesKnowledgeBase.fromSystemProperties();
+        this.similarityScoring = SimilarityIndex.Scoring.valueOf(
+            System.getProperty("leaf.similarity", "jaccard").toUpperCase(Locale.ROOT));
         this.leafNodes = new HashMap<>();
         this.featureNodes = new HashMap<>();
         this.selectedCells = new HashSet<>();
-        this.graphUpdated = false;
+        this.highlights = new HighlightManager(graph.getModel());
         this.edgesVisible = true; // Edges are visible by default
-        this.edgeMap = new HashMap<>(); // Initialize edge storage
+        this.layout = GraphLayout.fromName(System.getProperty("leaf.graph.layout", "force"));
+        this.layoutBudgetNanos = Long.getLong("leaf.graph.layout.ms", 200) * 1_000_000L;
+        this.layoutExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "graph-layout");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     public void addLeafData(JSONObject leafData) {
@@ -353,142 +533,196 @@ class GraphDisplay {
             features.add(featuresArray.getString(i));
         }
 
-        leafFeatureMap.compute(leafType, (k, v) -> {
-            if (v == null) {
-                return new ArrayList<>(features);
-            } else {
-                v.addAll(features);
-                return new ArrayList<>(new LinkedHashSet<>(v));
-            }
-        });
+        similarityIndex.update(featureIndex.addLeaf(leafType, features));
 
-        graphUpdated = true;
-        updateGraph(leafType, features);
+        updateGraph(leafType);
+    }
+
+    // Adds many detections in one model transaction, so the graph view is validated once for all of them.
+    public void addLeafData(Collection<JSONObject> detections) {
+        graph.getModel().beginUpdate();
+        try {
+            for (JSONObject leafData : detections) {
+                addLeafData(leafData);
+            }
+        } finally {
+            graph.getModel().endUpdate();
+        }
     }
 
     public boolean hasData() {
-        return !leafFeatureMap.isEmpty();
+        return featureIndex.leafCount() > 0;
     }
 
-    public boolean isGraphUpdated() {
-        return graphUpdated;
+    mxGraph getGraph() {
+        return graph;
     }
 
-    private void updateGraph(String newLeafType, java.util.List<String> newFeatures) {
+    // Inserts only the vertices and edges the new detection adds, then lays the graph out again off the EDT.
+    private void updateGraph(String newLeafType) {
+        int leafId = featureIndex.leafId(newLeafType);
         graph.getModel().beginUpdate();
         try {
             Object parent = graph.getDefaultParent();
-            int originX = 600;
-            int originY = 500;
-            int leafRadius = 400;
-            int featureRadius = 250;
-            int numberOfLeaves = leafNodes.size() + (leafNodes.containsKey(newLeafType) ? 0 : 1);
-            int leafIndex = leafNodes.size();
-
-            java.util.List<Double> xPositions = new java.util.ArrayList<>();
-            java.util.List<Double> yPositions = new java.util.ArrayList<>();
-            for (double i = -1.0; i <= 1.0; i += 0.2) {
-                xPositions.add(Math.round(i * 10.0) / 10.0);
-                yPositions.add(Math.round(i * 10.0) / 10.0);
-            }
-            java.util.Collections.shuffle(xPositions);
-            java.util.Collections.shuffle(yPositions);
-
             Object newLeafNode;
-            if (!leafNodes.containsKey(newLeafType)) {
+            if (leafId == leafCells.size()) {
                 int width = Math.max(80, newLeafType.length() * 8);
-                double angle = Math.toRadians(360.0 / 7.0 * leafIndex + 180);
-                int leafX = (int) (originX + leafRadius * Math.cos(angle));
-                int leafY = (int) (originY + leafRadius * Math.sin(angle));
-                newLeafNode = graph.insertVertex(parent, null, newLeafType, leafX, leafY, width, 30,
-                    "fillColor=#ADD8E6;strokeColor=#4682B4;fontColor=black;fontSize=12");
+                newLeafNode = graph.insertVertex(parent, null, newLeafType, 20, 20, width, 30, LEAF_STYLE);
+                leafCells.add(newLeafNode);
                 leafNodes.put(newLeafType, newLeafNode);
+                unplacedCells.add(newLeafNode);
             } else {
-                newLeafNode = leafNodes.get(newLeafType);
+                newLeafNode = leafCells.get(leafId);
             }
 
-            // Store edges for this leaf
-            java.util.List<Object> leafEdges = edgeMap.computeIfAbsent(newLeafType, k -> new ArrayList<>());
-            java.util.List<String> existingFeatures = leafFeatureMap.get(newLeafType);
-            for (int i = 0; i < existingFeatures.size(); i++) {
-                String feature = existingFeatures.get(i);
-                Object featureNode;
-                if (!featureNodes.containsKey(feature)) {
+            long[] bits = featureIndex.leafBits(leafId);
+            for (int featureId = FeatureIndex.nextSetBit(bits, 0); featureId >= 0; featureId = FeatureIndex.nextSetBit(bits, featureId + 1)) {
+                while (featureCells.size() <= featureId) {
+                    String feature = featureIndex.featureName(featureCells.size());
                     int width = Math.max(100, feature.length() * 8);
-                    double xPos = xPositions.isEmpty() ? 0.0 : xPositions.remove(0);
-                    double yPos = yPositions.isEmpty() ? 0.0 : yPositions.remove(0);
-                    int featureX = (int) (originX + featureRadius * (xPos + Math.random() * 0.01));
-                    int featureY = (int) (originY + featureRadius * (yPos + Math.random() * 0.01));
-                    featureNode = graph.insertVertex(parent, null, feature, featureX, featureY, width, 30,
-                        "fillColor=#98FB98;strokeColor=#228B22;fontColor=black;fontSize=12");
+                    Object featureNode = graph.insertVertex(parent, null, feature, 20, 20, width, 30, FEATURE_STYLE);
+                    featureCells.add(featureNode);
                     featureNodes.put(feature, featureNode);
-                } else {
-                    featureNode = featureNodes.get(feature);
+                    unplacedCells.add(featureNode);
                 }
-                Object[] edges = graph.getEdgesBetween(newLeafNode, featureNode);
-                if (edges.length == 0 && edgesVisible) {
-                    Object edge = graph.insertEdge(parent, null, "", newLeafNode, featureNode);
-                    leafEdges.add(edge);
+                long key = edgeKey(leafId, featureId);
+                if (!edgeCells.containsKey(key)) {
+                    // Edges always exist; while hidden, new ones are created hidden too.
+                    Object edge = graph.insertEdge(parent, null, "", newLeafNode, featureCells.get(featureId));
+                    if (!edgesVisible) {
+                        graph.getModel().setVisible(edge, false);
+                    }
+                    edgeCells.put(key, edge);
                 }
             }
-
         } finally {
             graph.getModel().endUpdate();
-            graphUpdated = false;
         }
+        requestLayout();
     }
 
+    private static long edgeKey(int leafId, int featureId) {
+        return ((long) leafId << 32) | featureId;
+    }
+
+    // Snapshots the graph on the EDT and runs the layout on the layout thread. Requests made while a
+    // layout is running are coalesced into one follow-up run.
+    private void requestLayout() {
+        if (layoutRunning) {
+            layoutPending = true;
+            return;
+        }
+        layoutRunning = true;
+        int leaves = leafCells.size();
+        Object[] cells = new Object[leaves + featureCells.size()];
+        int edgeCount = 0;
+        for (int leafId = 0; leafId < leaves; leafId++) {
+            edgeCount += featureIndex.featureCount(leafId);
+        }
+        int[] edgeSource = new int[edgeCount];
+        int[] edgeTarget = new int[edgeCount];
+        int e = 0;
+        for (int leafId = 0; leafId < leaves; leafId++) {
+            long[] bits = featureIndex.leafBits(leafId);
+            for (int featureId = FeatureIndex.nextSetBit(bits, 0); featureId >= 0; featureId = FeatureIndex.nextSetBit(bits, featureId + 1)) {
+                edgeSource[e] = leafId;
+                edgeTarget[e++] = leaves + featureId;
+            }
+        }
+        LayoutGraph snapshot = new LayoutGraph(leaves, cells.length, edgeSource, edgeTarget, edgeCount);
+        mxIGraphModel model = graph.getModel();
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = i < leaves ? leafCells.get(i) : featureCells.get(i - leaves);
+            mxGeometry geometry = model.getGeometry(cells[i]);
+            snapshot.width[i] = geometry.getWidth();
+            snapshot.height[i] = geometry.getHeight();
+            if (!unplacedCells.contains(cells[i])) {
+                snapshot.x[i] = geometry.getCenterX();
+                snapshot.y[i] = geometry.getCenterY();
+            }
+        }
+        layoutExecutor.execute(() -> {
+            boolean completed = false;
+            try {
+                layout.layout(snapshot, layoutBudgetNanos);
+                completed = true;
+            } catch (RuntimeException ex) {
+                System.err.println("Graph layout failed: " + ex);
+            }
+            boolean apply = completed;
+            SwingUtilities.invokeLater(() -> applyLayout(cells, apply ? snapshot : null));
+        });
+    }
+
+    // Moves every vertex in one model transaction, so the component repaints once.
+    private void applyLayout(Object[] cells, LayoutGraph snapshot) {
+        if (snapshot != null) {
+            mxIGraphModel model = graph.getModel();
+            model.beginUpdate();
+            try {
+                for (int i = 0; i < cells.length; i++) {
+                    mxGeometry geometry = (mxGeometry) model.getGeometry(cells[i]).clone();
+                    geometry.setX(snapshot.x[i] - geometry.getWidth() / 2);
+                    geometry.setY(snapshot.y[i] - geometry.getHeight() / 2);
+                    model.setGeometry(cells[i], geometry);
+                    unplacedCells.remove(cells[i]);
+                }
+            } finally {
+                model.endUpdate();
+            }
+        }
+        layoutRunning = false;
+        if (layoutPending) {
+            layoutPending = false;
+            requestLayout();
+        }
+    }
+
+    // Flips the visibility flag of every edge in one model update; no cells are created or removed.
     public boolean toggleEdges() {
-        graph.getModel().beginUpdate();
+        edgesVisible = !edgesVisible;
+        mxIGraphModel model = graph.getModel();
+        model.beginUpdate();
         try {
-            if (edgesVisible) {
-                // Hide edges by removing them
-                for (Object edge : graph.getChildEdges(graph.getDefaultParent())) {
-                    graph.getModel().remove(edge);
-                }
-                edgesVisible = false;
-            } else {
-                // Show edges by re-adding them
-                Object parent = graph.getDefaultParent();
-                for (Map.Entry<String, java.util.List<Object>> entry : edgeMap.entrySet()) {
-                    String leafType = entry.getKey();
-                    Object leafNode = leafNodes.get(leafType);
-                    java.util.List<String> features = leafFeatureMap.get(leafType);
-                    for (String feature : features) {
-                        Object featureNode = featureNodes.get(feature);
-                        if (leafNode != null && featureNode != null) {
-                            Object edge = graph.insertEdge(parent, null, "", leafNode, featureNode);
-                            entry.getValue().add(edge);
-                        }
-                    }
-                }
-                edgesVisible = true;
+            for (Object edge : edgeCells.values()) {
+                model.setVisible(edge, edgesVisible);
             }
         } finally {
-            graph.getModel().endUpdate();
+            model.endUpdate();
         }
         return edgesVisible;
     }
 
     public mxGraphComponent createGraphComponent() {
-        mxGraphComponent graphComponent = new mxGraphComponent(graph);
+        // The culled, level-of-detail component keeps large graphs responsive; -Dleaf.graph.lod=false uses the plain one.
+        mxGraphComponent graphComponent = Boolean.parseBoolean(System.getProperty("leaf.graph.lod", "true"))
+            ? new LodGraphComponent(graph) : new mxGraphComponent(graph);
         graphComponent.setConnectable(false);
+        graphComponent.addMouseWheelListener(e -> {
+            if (e.isControlDown()) {
+                if (e.getWheelRotation() < 0) {
+                    graphComponent.zoomIn();
+                } else {
+                    graphComponent.zoomOut();
+                }
+            }
+        });
         graphComponent.getGraphControl().addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
                 Object cell = graphComponent.getCellAt(e.getX(), e.getY());
                 if (cell != null) {
-                    handleCellClick(cell, e, graphComponent);
+                    handleCellClick(cell, e);
                 }
             }
         });
         return graphComponent;
     }
 
-    private void handleCellClick(Object cell, MouseEvent e, mxGraphComponent graphComponent) {
-        graph.getModel().beginUpdate();
+    private void handleCellClick(Object cell, MouseEvent e) {
+        Set<Object> highlightedCells = new HashSet<>();
+        // Highlight even if writing the result text fails.
         try {
-            resetHighlights();
             String label = (String) graph.getModel().getValue(cell);
             if (leafNodes.containsKey(label)) {
                 if (e.isControlDown()) {
@@ -499,14 +733,18 @@ class GraphDisplay {
                 }
 
                 if (selectedCells.size() == 1) {
-                    java.util.List<String> features = leafFeatureMap.get(label);
-                    highlightFeatures(features);
-                    showSimilarLeaves(label, features);
-                    resultDisplay.showResult(resultArea, "Leaf Type: " + label + "\nFeatures: " + String.join(", ", features));
+                    java.util.List<String> features = featureIndex.features(featureIndex.leafId(label));
+                    addCells(highlightedCells, features, featureNodes);
+                    resultArea.setText("Leaf Type: " + label + "\nFeatures: " + String.join(", ", features));
+                    addCells(highlightedCells, showSimilarLeaves(label), leafNodes);
                 } else {
-                    Set<String> commonFeatures = getCommonFeatures();
-                    highlightFeatures(commonFeatures);
-                    resultDisplay.showResult(resultArea, "Common Features: " +
+                    java.util.List<String> selectedLeaves = new ArrayList<>();
+                    for (Object selectedCell : selectedCells) {
+                        selectedLeaves.add((String) graph.getModel().getValue(selectedCell));
+                    }
+                    Set<String> commonFeatures = getCommonFeatures(selectedLeaves);
+                    addCells(highlightedCells, commonFeatures, featureNodes);
+                    resultArea.setText("Common Features: " +
                         (commonFeatures.isEmpty() ? "None" : String.join(", ", commonFeatures)));
                 }
             } else if (featureNodes.containsKey(label)) {
@@ -517,7 +755,7 @@ class GraphDisplay {
                     selectedCells.add(cell);
                 }
 
-                Set<String> selectedFeatures = new HashSet<>();
+                Set<String> selectedFeatures = new LinkedHashSet<>();
                 for (Object selectedCell : selectedCells) {
                     String featureLabel = (String) graph.getModel().getValue(selectedCell);
                     if (featureNodes.containsKey(featureLabel)) {
@@ -525,98 +763,111 @@ class GraphDisplay {
                     }
                 }
 
-                highlightFeatures(selectedFeatures);
-                showLeavesWithFeatures(selectedFeatures);
+                addCells(highlightedCells, selectedFeatures, featureNodes);
+                addCells(highlightedCells, showLeavesWithFeatures(selectedFeatures), leafNodes);
             }
         } finally {
-            graph.getModel().endUpdate();
-            graphComponent.refresh();
+            highlights.highlight(highlightedCells);
         }
     }
 
-    private void resetHighlights() {
-        for (Object node : leafNodes.values()) {
-            graph.setCellStyles(mxConstants.STYLE_FILLCOLOR, "#ADD8E6", new Object[]{node});
-            graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "#4682B4", new Object[]{node});
-        }
-        for (Object node : featureNodes.values()) {
-            graph.setCellStyles(mxConstants.STYLE_FILLCOLOR, "#98FB98", new Object[]{node});
-            graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "#228B22", new Object[]{node});
+    private static void addCells(Set<Object> cells, Collection<String> labels, Map<String, Object> nodes) {
+        for (String label : labels) {
+            Object node = nodes.get(label);
+            if (node != null) {
+                cells.add(node);
+            }
         }
     }
 
-    private void highlightFeatures(Collection<String> features) {
-        for (String feature : features) {
-            Object node = featureNodes.get(feature);
-            if (node != null) {
-                graph.setCellStyles(mxConstants.STYLE_FILLCOLOR, "#FFFFE0", new Object[]{node});
-                graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "#FFD700", new Object[]{node});
+    // Appends the most similar leaves to the result area and returns their names.
+    java.util.List<String> showSimilarLeaves(String leafType) {
+        int leafId = featureIndex.leafId(leafType);
+        java.util.List<SimilarityIndex.Neighbor> similar = similarityScoring == SimilarityIndex.Scoring.JACCARD
+            ? similarityIndex.neighbors(leafId)
+            : similarityIndex.topK(leafId, SIMILAR_LEAVES, similarityScoring);
+
+        java.util.List<String> similarLeaves = new ArrayList<>();
+        if (!similar.isEmpty()) {
+            resultArea.append("\nMost similar leaves:");
+            for (int i = 0; i < similar.size(); i++) {
+                SimilarityIndex.Neighbor neighbor = similar.get(i);
+                resultArea.append(String.format("\n  %d. %s", i + 1, neighbor));
+                similarLeaves.add(neighbor.getLeaf());
             }
         }
+        return similarLeaves;
     }
 
-    private void highlightLeaves(Collection<String> leaves) {
+    Set<String> getCommonFeatures(Collection<String> leaves) {
+        int count = 0;
         for (String leaf : leaves) {
-            Object node = leafNodes.get(leaf);
-            if (node != null) {
-                graph.setCellStyles(mxConstants.STYLE_FILLCOLOR, "#FFFFE0", new Object[]{node});
-                graph.setCellStyles(mxConstants.STYLE_STROKECOLOR, "#FFD700", new Object[]{node});
+            int leafId = featureIndex.leafId(leaf);
+            if (leafId >= 0) {
+                queryIds = ensureCapacity(queryIds, count + 1);
+                queryIds[count++] = leafId;
             }
         }
+        return new LinkedHashSet<>(featureIndex.featureNames(featureIndex.commonFeatures(queryIds, count)));
     }
 
-    private void showSimilarLeaves(String leafType, java.util.List<String> features) {
-        Map<String, Integer> similarityScores = new HashMap<>();
-        for (Map.Entry<String, java.util.List<String>> entry : leafFeatureMap.entrySet()) {
-            if (!entry.getKey().equals(leafType)) {
-                Set<String> otherFeatures = new HashSet<>(entry.getValue());
-                Set<String> common = new HashSet<>(features);
-                common.retainAll(otherFeatures);
-                similarityScores.put(entry.getKey(), common.size());
-            }
+    java.util.List<String> showLeavesWithFeatures(Set<String> selectedFeatures) {
+        int count = 0;
+        queryIds = ensureCapacity(queryIds, selectedFeatures.size());
+        for (String feature : selectedFeatures) {
+            queryIds[count++] = featureIndex.featureId(feature);
         }
+        java.util.List<String> matchingLeaves = featureIndex.leafNames(featureIndex.leavesWithAllFeatures(queryIds, count));
+
+        resultArea.setText("Leaves containing features [" + String.join(", ", selectedFeatures) + "]:\n" +
+            (matchingLeaves.isEmpty() ? "None" : String.join(", ", matchingLeaves)));
 
-        String mostSimilarLeaf = null;
-        int maxCommon = -1;
-        for (Map.Entry<String, Integer> entry : similarityScores.entrySet()) {
-            if (entry.getValue() > maxCommon) {
-                maxCommon = entry.getValue();
-                mostSimilarLeaf = entry.getKey();
+        // Species from the catalog that have not been detected yet.
+        java.util.List<String> undetected = new ArrayList<>();
+        for (String species : knowledgeBase.get().speciesWithAllTraits(selectedFeatures)) {
+            if (featureIndex.leafId(species) < 0) {
+                undetected.add(species);
             }
         }
-
-        if (mostSimilarLeaf != null && maxCommon > 0) {
-            resultArea.append("\nMost similar leaf: " + mostSimilarLeaf + " (" + maxCommon + " common features)");
-            highlightLeaves(Collections.singletonList(mostSimilarLeaf));
+        if (!undetected.isEmpty()) {
+            resultArea.append("\nNot detected yet: " + String.join(", ", undetected));
         }
+        return matchingLeaves;
     }
 
-    private Set<String> getCommonFeatures() {
-        Set<String> commonFeatures = null;
-        for (Object cell : selectedCells) {
-            String leafType = (String) graph.getModel().getValue(cell);
-            if (leafNodes.containsKey(leafType)) {
-                Set<String> features = new HashSet<>(leafFeatureMap.get(leafType));
-                if (commonFeatures == null) {
-                    commonFeatures = features;
-                } else {
-                    commonFeatures.retainAll(features);
-                }
-            }
-        }
-        return commonFeatures != null ? commonFeatures : new HashSet<>();
+    private static int[] ensureCapacity(int[] ids, int size) {
+        return ids.length >= size ? ids : Arrays.copyOf(ids, Math.max(size, ids.length * 2));
     }
+}
 
-    private void showLeavesWithFeatures(Set<String> selectedFeatures) {
-        Set<String> matchingLeaves = new HashSet<>();
-        for (Map.Entry<String, java.util.List<String>> entry : leafFeatureMap.entrySet()) {
-            if (entry.getValue().containsAll(selectedFeatures)) {
-                matchingLeaves.add(entry.getKey());
+// Live view of Metrics. The refresh timer only runs while the dialog is showing.
+class DiagnosticsDialog extends JDialog {
+    private static final long serialVersionUID = 1L;
+    private final JTextArea text = new JTextArea(24, 80);
+    private final javax.swing.Timer refresh = new javax.swing.Timer(1000, e -> update());
+
+    DiagnosticsDialog(Frame owner) {
+        super(owner, "Diagnostics", false);
+        text.setEditable(false);
+        text.setFont(new Font("Monospaced", Font.PLAIN, 13));
+        add(new JScrollPane(text), BorderLayout.CENTER);
+        pack();
+        setLocationRelativeTo(owner);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentShown(ComponentEvent e) {
+                update();
+                refresh.start();
             }
-        }
 
-        highlightLeaves(matchingLeaves);
-        resultDisplay.showResult(resultArea, "Leaves containing features [" + String.join(", ", selectedFeatures) + "]:\n" +
-            (matchingLeaves.isEmpty() ? "None" : String.join(", ", matchingLeaves)));
+            @Override
+            public void componentHidden(ComponentEvent e) {
+                refresh.stop();
+            }
+        });
+    }
+
+    private void update() {
+        text.setText(Metrics.snapshotText());
     }
-}
\ No newline at end of file
+}
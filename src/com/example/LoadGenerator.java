@@ -0,0 +1,178 @@
+package com.example;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Closed-loop load against ClassificationServer: each of `concurrency` clients sends its next request
+// as soon as the previous one is answered. Reports throughput, latency percentiles of successful
+// requests and the status codes seen, e.g. how many were turned away with 429.
+//   java -cp ... com.example.LoadGenerator [--url http://localhost:8080] [--images data/test]
+//        [--concurrency 32] [--requests 2000] [--batch 1]
+// Without --images it sends a few generated JPEGs. --batch N > 1 uses /classify/batch with N images.
+class LoadGenerator {
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080";
+        Path imageDir = null;
+        int concurrency = 32;
+        int requests = 2000;
+        int batch = 1;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            }
+            switch (args[i]) {
+                case "--url": url = args[i + 1]; break;
+                case "--images": imageDir = Paths.get(args[i + 1]); break;
+                case "--concurrency": concurrency = Integer.parseInt(args[i + 1]); break;
+                case "--requests": requests = Integer.parseInt(args[i + 1]); break;
+                case "--batch": batch = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        java.util.List<byte[]> images = imageDir != null ? readImages(imageDir) : generateImages(8);
+        if (images.isEmpty()) {
+            System.err.println("No images found in " + imageDir);
+            System.exit(2);
+        }
+        Result result = run(URI.create(url), images, concurrency, requests, batch);
+        result.print(System.out);
+    }
+
+    static final class Result {
+        final long[] latencyNanos; // Successful requests only, sorted
+        final Map<Integer, Integer> statusCounts;
+        final int failures;
+        final long elapsedNanos;
+        final int imagesPerRequest;
+
+        Result(long[] latencyNanos, Map<Integer, Integer> statusCounts, int failures, long elapsedNanos, int imagesPerRequest) {
+            this.latencyNanos = latencyNanos;
+            this.statusCounts = statusCounts;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.imagesPerRequest = imagesPerRequest;
+        }
+
+        void print(PrintStream out) {
+            double seconds = elapsedNanos / 1e9;
+            int ok = latencyNanos.length;
+            out.printf("%d requests in %.2f s: %.1f ok requests/sec (%.1f images/sec)%n",
+                statusCounts.values().stream().mapToInt(Integer::intValue).sum() + failures, seconds,
+                ok / seconds, ok * imagesPerRequest / seconds);
+            out.println("Status codes: " + statusCounts + (failures > 0 ? ", connection failures: " + failures : ""));
+            if (ok > 0) {
+                out.printf("Latency ms: p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n",
+                    BatchClassifier.percentile(latencyNanos, 0.50), BatchClassifier.percentile(latencyNanos, 0.90),
+                    BatchClassifier.percentile(latencyNanos, 0.99), latencyNanos[ok - 1] / 1e6);
+            }
+        }
+    }
+
+    static Result run(URI base, java.util.List<byte[]> images, int concurrency, int requests, int batch)
+            throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newFixedThreadPool(Math.max(2, concurrency / 4), r -> {
+                Thread t = new Thread(r, "load-client");
+                t.setDaemon(true);
+                return t;
+            }))
+            .build();
+        String boundary = "leaf-load-" + Long.toHexString(System.nanoTime());
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        long[] latencies = new long[requests];
+        AtomicInteger succeeded = new AtomicInteger();
+        Map<Integer, Integer> statusCounts = new ConcurrentSkipListMap<>();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int c = 0; c < concurrency; c++) {
+            clients.execute(() -> {
+                for (int n; (n = next.getAndIncrement()) < requests; ) {
+                    HttpRequest request = batch <= 1
+                        ? HttpRequest.newBuilder(base.resolve("/classify"))
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(images.get(n % images.size())))
+                            .header("Content-Type", "application/octet-stream")
+                            .build()
+                        : HttpRequest.newBuilder(base.resolve("/classify/batch"))
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(multipart(images, n * batch, batch, boundary)))
+                            .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                            .build();
+                    long requestStart = System.nanoTime();
+                    try {
+                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        long elapsed = System.nanoTime() - requestStart;
+                        statusCounts.merge(response.statusCode(), 1, Integer::sum);
+                        if (response.statusCode() == 200) {
+                            latencies[succeeded.getAndIncrement()] = elapsed;
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.DAYS);
+        long elapsed = System.nanoTime() - start;
+        long[] sorted = Arrays.copyOf(latencies, succeeded.get());
+        Arrays.sort(sorted);
+        return new Result(sorted, new TreeMap<>(statusCounts), failures.get(), elapsed, Math.max(1, batch));
+    }
+
+    private static byte[] multipart(java.util.List<byte[]> images, int first, int count, String boundary) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            String header = "--" + boundary + "\r\nContent-Disposition: form-data; name=\"image\"; filename=\"" + i
+                + ".jpg\"\r\nContent-Type: application/octet-stream\r\n\r\n";
+            body.writeBytes(header.getBytes(StandardCharsets.ISO_8859_1));
+            body.writeBytes(images.get((first + i) % images.size()));
+            body.writeBytes("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+        body.writeBytes(("--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        return body.toByteArray();
+    }
+
+    private static java.util.List<byte[]> readImages(Path dir) throws IOException {
+        java.util.List<byte[]> images = new ArrayList<>();
+        for (Path path : BatchClassifier.findImages(dir)) {
+            images.add(Files.readAllBytes(path));
+            if (images.size() == 256) {
+                break;
+            }
+        }
+        return images;
+    }
+
+    static java.util.List<byte[]> generateImages(int count) throws IOException {
+        Random random = new Random(7);
+        java.util.List<byte[]> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillRect(0, 0, 320, 240);
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillOval(random.nextInt(160), random.nextInt(120), 160, 120);
+            g.dispose();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", out);
+            images.add(out.toByteArray());
+        }
+        return images;
+    }
+}
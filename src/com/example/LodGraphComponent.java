@@ -0,0 +1,582 @@
+package com.example;
+
+import com.mxgraph.canvas.mxGraphics2DCanvas;
+import com.mxgraph.model.mxGeometry;
+import com.mxgraph.model.mxGraphModel;
+import com.mxgraph.model.mxIGraphModel;
+import com.mxgraph.swing.mxGraphComponent;
+import com.mxgraph.util.mxConstants;
+import com.mxgraph.util.mxEvent;
+import com.mxgraph.util.mxPoint;
+import com.mxgraph.util.mxUndoableEdit;
+import com.mxgraph.util.mxUtils;
+import com.mxgraph.view.mxCellState;
+import com.mxgraph.view.mxGraph;
+import com.mxgraph.view.mxGraphView;
+
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+// mxGraphComponent that scales to graphs with tens of thousands of cells.
+//
+// - Culling: vertices and edges are kept in a uniform grid (model coordinates), and a repaint only
+//   visits the cells whose bounds intersect the clip, instead of walking the whole model.
+// - Level of detail: labels are skipped below LABEL_SCALE. Below EDGE_DETAIL_SCALE edges are plain
+//   lines without markers or antialiasing. Below BUNDLE_SCALE vertices are filled rectangles and
+//   edges are replaced by one line per pair of BUNDLE_CELL-sized regions, drawn thicker the more
+//   edges it stands for.
+// - Static layer: edges are painted into offscreen tiles that are reused until the zoom or the graph
+//   structure changes, so panning only renders newly exposed tiles and selection and highlight
+//   repaints only redraw vertices. Style and value changes do not invalidate the tiles.
+//
+// Edges are always drawn behind vertices.
+class LodGraphComponent extends mxGraphComponent {
+    private static final long serialVersionUID = 1L;
+    static final double LABEL_SCALE = 0.5;
+    static final double EDGE_DETAIL_SCALE = 0.75;
+    static final double BUNDLE_SCALE = 0.35;
+    private static final double GRID_CELL = 200;
+    private static final double BUNDLE_CELL = 400;
+    private static final Color BUNDLE_COLOR = new Color(100, 130, 185, 140);
+    private static final Color EDGE_COLOR = new Color(100, 130, 185);
+    private static final int TILE = 512;
+
+    private final SpatialGrid vertexGrid = new SpatialGrid(GRID_CELL);
+    private final SpatialGrid edgeGrid = new SpatialGrid(GRID_CELL);
+    private boolean indexDirty = true;
+    private long structureVersion;
+    private int[] queryResult = new int[256];
+    private Object[] edgeCells = new Object[0];
+    private double[] edgeEnds = new double[0]; // x1, y1, x2, y2 per edge, by edgeGrid index
+
+    // Bundled edges: one segment per (source region, target region) pair.
+    private double[] bundleLines = new double[0];
+    private int[] bundleCounts = new int[0];
+    private int bundleCount;
+
+    // Edge layer tiles (TILE x TILE view pixels, keyed by row and column) and the view they were rendered for.
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > maxTiles;
+        }
+    };
+    private int maxTiles = 16;
+    private double tileScale = Double.NaN;
+    private double tileDeviceScale = Double.NaN;
+    private final mxPoint tileTranslate = new mxPoint();
+    private long tileVersion = -1;
+
+    // Paint scratch state; painting only happens on the EDT.
+    private final Path2D.Double path = new Path2D.Double();
+    private final Map<String, Color> colors = new HashMap<>();
+    private final Map<Float, BasicStroke> strokes = new HashMap<>();
+    private double clipStart;
+    private double clipEnd;
+
+    LodGraphComponent(mxGraph graph) {
+        super(graph);
+        graph.getModel().addListener(mxEvent.CHANGE, (sender, evt) -> {
+            mxUndoableEdit edit = (mxUndoableEdit) evt.getProperty("edit");
+            for (mxUndoableEdit.mxUndoableChange change : edit.getChanges()) {
+                if (!(change instanceof mxGraphModel.mxStyleChange) && !(change instanceof mxGraphModel.mxValueChange)) {
+                    indexDirty = true;
+                    structureVersion++;
+                    return;
+                }
+            }
+        });
+    }
+
+    @Override
+    protected mxGraphControl createGraphControl() {
+        return new LodGraphControl();
+    }
+
+    class LodGraphControl extends mxGraphControl {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void drawFromRootCell() {
+            mxGraphics2DCanvas canvas = getCanvas();
+            Graphics2D g = canvas.getGraphics();
+            Rectangle clip = g == null ? null : g.getClipBounds();
+            if (clip == null) {
+                super.drawFromRootCell();
+                return;
+            }
+            ensureIndex();
+            mxGraphView view = graph.getView();
+            double scale = view.getScale();
+            mxPoint translate = view.getTranslate();
+
+            drawEdgeLayer(g, clip, scale, translate);
+
+            int count = query(vertexGrid, clip, scale, translate);
+            if (scale < BUNDLE_SCALE) {
+                // Too small to show anything but their fill colour.
+                for (int i = 0; i < count; i++) {
+                    mxCellState state = graph.getView().getState(vertexGrid.item(queryResult[i]));
+                    if (state != null) {
+                        g.setColor(color(state.getStyle().get(mxConstants.STYLE_FILLCOLOR), Color.WHITE));
+                        g.fill(state.getRectangle());
+                    }
+                }
+                return;
+            }
+            boolean drawLabels = canvas.isDrawLabels();
+            canvas.setDrawLabels(drawLabels && scale >= LABEL_SCALE);
+            try {
+                for (int i = 0; i < count; i++) {
+                    drawCell(canvas, vertexGrid.item(queryResult[i]));
+                }
+            } finally {
+                canvas.setDrawLabels(drawLabels);
+            }
+        }
+
+        // Draws the edge tiles covering the clip, rendering the ones not cached for the current view.
+        private void drawEdgeLayer(Graphics2D g, Rectangle clip, double scale, mxPoint translate) {
+            double deviceScale = g.getTransform().getScaleX();
+            if (tileVersion != structureVersion || tileScale != scale || tileDeviceScale != deviceScale
+                    || !tileTranslate.equals(translate)) {
+                tiles.clear();
+                tileVersion = structureVersion;
+                tileScale = scale;
+                tileDeviceScale = deviceScale;
+                tileTranslate.setX(translate.getX());
+                tileTranslate.setY(translate.getY());
+            }
+            // Keep about three screens of tiles so panning back and forth stays cached.
+            Rectangle visible = getVisibleRect();
+            maxTiles = Math.max(16, 3 * ((visible.width / TILE + 2) * (visible.height / TILE + 2)));
+
+            int column0 = Math.floorDiv(clip.x, TILE);
+            int row0 = Math.floorDiv(clip.y, TILE);
+            int column1 = Math.floorDiv(clip.x + clip.width - 1, TILE);
+            int row1 = Math.floorDiv(clip.y + clip.height - 1, TILE);
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    long key = ((long) row << 32) | (column & 0xFFFFFFFFL);
+                    BufferedImage tile = tiles.get(key);
+                    if (tile == null) {
+                        tile = renderTile(g, column * TILE, row * TILE, scale, translate, deviceScale);
+                        tiles.put(key, tile);
+                    }
+                    g.drawImage(tile, column * TILE, row * TILE, TILE, TILE, null);
+                }
+            }
+        }
+
+        private BufferedImage renderTile(Graphics2D g, int x, int y, double scale, mxPoint translate, double deviceScale) {
+            int size = (int) Math.ceil(TILE * deviceScale);
+            BufferedImage tile = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D layer = tile.createGraphics();
+            try {
+                layer.setRenderingHints(g.getRenderingHints());
+                if (scale < EDGE_DETAIL_SCALE) {
+                    // Antialiasing makes a line several times more expensive and is barely visible when zoomed out.
+                    layer.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+                }
+                layer.scale(deviceScale, deviceScale);
+                layer.translate(-x, -y);
+                Rectangle bounds = new Rectangle(x, y, TILE, TILE);
+                layer.setClip(bounds);
+                if (scale < BUNDLE_SCALE) {
+                    renderBundles(layer, bounds, scale, translate);
+                } else {
+                    renderEdges(layer, bounds, scale, translate);
+                }
+            } finally {
+                layer.dispose();
+            }
+            return tile;
+        }
+
+        // Paints edges straight from their view states. mxGraph.drawState would copy the Graphics and
+        // resolve the style for each edge, which dominates frame time on dense graphs.
+        private void renderEdges(Graphics2D layer, Rectangle bounds, double scale, mxPoint translate) {
+            double minX = bounds.x / scale - translate.getX();
+            double minY = bounds.y / scale - translate.getY();
+            double maxX = minX + bounds.width / scale;
+            double maxY = minY + bounds.height / scale;
+            boolean arrows = scale >= EDGE_DETAIL_SCALE;
+            mxGraphView view = graph.getView();
+            int count = query(edgeGrid, bounds, scale, translate);
+            for (int i = 0; i < count; i++) {
+                int e = queryResult[i];
+                if (!crosses(e, minX, minY, maxX, maxY)) {
+                    continue;
+                }
+                mxCellState state = view.getState(edgeCells[e]);
+                java.util.List<mxPoint> points = state == null ? null : state.getAbsolutePoints();
+                if (points == null || points.size() < 2) {
+                    continue;
+                }
+                Map<String, Object> style = state.getStyle();
+                layer.setColor(color(style.get(mxConstants.STYLE_STROKECOLOR), EDGE_COLOR));
+                layer.setStroke(stroke((float) (mxUtils.getFloat(style, mxConstants.STYLE_STROKEWIDTH, 1) * scale)));
+                path.reset();
+                path.moveTo(points.get(0).getX(), points.get(0).getY());
+                for (int p = 1; p < points.size(); p++) {
+                    path.lineTo(points.get(p).getX(), points.get(p).getY());
+                }
+                layer.draw(path);
+                if (arrows && !mxConstants.NONE.equals(mxUtils.getString(style, mxConstants.STYLE_ENDARROW, mxConstants.ARROW_CLASSIC))) {
+                    drawArrow(layer, points.get(points.size() - 2), points.get(points.size() - 1),
+                        mxUtils.getFloat(style, mxConstants.STYLE_ENDSIZE, mxConstants.DEFAULT_MARKERSIZE) * scale);
+                }
+            }
+        }
+
+        private void drawArrow(Graphics2D layer, mxPoint from, mxPoint to, double size) {
+            double dx = to.getX() - from.getX();
+            double dy = to.getY() - from.getY();
+            double length = Math.sqrt(dx * dx + dy * dy);
+            if (length == 0) {
+                return;
+            }
+            double ux = dx / length * (size + 1);
+            double uy = dy / length * (size + 1);
+            path.reset();
+            path.moveTo(to.getX(), to.getY());
+            path.lineTo(to.getX() - ux - uy / 2, to.getY() - uy + ux / 2);
+            path.lineTo(to.getX() - ux * 3 / 4, to.getY() - uy * 3 / 4);
+            path.lineTo(to.getX() - ux + uy / 2, to.getY() - uy - ux / 2);
+            path.closePath();
+            layer.fill(path);
+        }
+
+        // Whether the segment of edge e passes through the rectangle (Liang-Barsky clipping). The grid
+        // only tests bounding boxes, which for long diagonal edges cover far more than the edge.
+        private boolean crosses(int e, double minX, double minY, double maxX, double maxY) {
+            double x1 = edgeEnds[4 * e];
+            double y1 = edgeEnds[4 * e + 1];
+            double dx = edgeEnds[4 * e + 2] - x1;
+            double dy = edgeEnds[4 * e + 3] - y1;
+            clipStart = 0;
+            clipEnd = 1;
+            return clip(-dx, x1 - minX) && clip(dx, maxX - x1) && clip(-dy, y1 - minY) && clip(dy, maxY - y1);
+        }
+
+        private boolean clip(double p, double q) {
+            if (p == 0) {
+                return q >= 0;
+            }
+            double t = q / p;
+            if (p < 0) {
+                clipStart = Math.max(clipStart, t);
+            } else {
+                clipEnd = Math.min(clipEnd, t);
+            }
+            return clipStart <= clipEnd;
+        }
+
+        private void renderBundles(Graphics2D layer, Rectangle bounds, double scale, mxPoint translate) {
+            double minX = bounds.x / scale - translate.getX();
+            double minY = bounds.y / scale - translate.getY();
+            double maxX = minX + bounds.width / scale;
+            double maxY = minY + bounds.height / scale;
+            layer.setColor(BUNDLE_COLOR);
+            Line2D.Double line = new Line2D.Double();
+            for (int b = 0; b < bundleCount; b++) {
+                double x1 = bundleLines[4 * b];
+                double y1 = bundleLines[4 * b + 1];
+                double x2 = bundleLines[4 * b + 2];
+                double y2 = bundleLines[4 * b + 3];
+                if (Math.max(x1, x2) < minX || Math.min(x1, x2) > maxX || Math.max(y1, y2) < minY || Math.min(y1, y2) > maxY) {
+                    continue;
+                }
+                layer.setStroke(stroke((float) (1 + Math.log(bundleCounts[b]) / Math.log(2))));
+                line.setLine((x1 + translate.getX()) * scale, (y1 + translate.getY()) * scale,
+                    (x2 + translate.getX()) * scale, (y2 + translate.getY()) * scale);
+                layer.draw(line);
+            }
+        }
+
+        // Cells of the grid whose model-space bounds intersect the given view-space rectangle.
+        private int query(SpatialGrid grid, Rectangle viewRect, double scale, mxPoint translate) {
+            double x = viewRect.x / scale - translate.getX();
+            double y = viewRect.y / scale - translate.getY();
+            queryResult = grid.query(x, y, viewRect.width / scale, viewRect.height / scale, queryResult);
+            return grid.resultCount();
+        }
+    }
+
+    private Color color(Object value, Color defaultColor) {
+        if (value == null) {
+            return defaultColor;
+        }
+        Color color = colors.computeIfAbsent(value.toString(), mxUtils::parseColor);
+        return color != null ? color : defaultColor;
+    }
+
+    private BasicStroke stroke(float width) {
+        return strokes.computeIfAbsent(Math.round(width * 4) / 4f, BasicStroke::new);
+    }
+
+    // Rebuilds the grids and edge bundles from the model after structural changes.
+    private void ensureIndex() {
+        if (!indexDirty) {
+            return;
+        }
+        indexDirty = false;
+        mxIGraphModel model = graph.getModel();
+        Object parent = graph.getDefaultParent();
+        int children = model.getChildCount(parent);
+        vertexGrid.clear();
+        edgeGrid.clear();
+        Arrays.fill(edgeCells, null);
+        Map<Long, Integer> bundles = new HashMap<>();
+        bundleCount = 0;
+        for (int i = 0; i < children; i++) {
+            Object cell = model.getChildAt(parent, i);
+            if (!model.isVisible(cell)) {
+                continue;
+            }
+            if (model.isVertex(cell)) {
+                mxGeometry geometry = model.getGeometry(cell);
+                if (geometry != null) {
+                    vertexGrid.add(cell, geometry.getX(), geometry.getY(), geometry.getWidth(), geometry.getHeight());
+                }
+            } else if (model.isEdge(cell)) {
+                mxGeometry source = model.getGeometry(model.getTerminal(cell, true));
+                mxGeometry target = model.getGeometry(model.getTerminal(cell, false));
+                if (source == null || target == null) {
+                    continue;
+                }
+                double x1 = source.getCenterX();
+                double y1 = source.getCenterY();
+                double x2 = target.getCenterX();
+                double y2 = target.getCenterY();
+                int e = edgeGrid.add(cell, Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+                if (edgeCells.length <= e) {
+                    edgeCells = Arrays.copyOf(edgeCells, Math.max(64, e * 2));
+                    edgeEnds = Arrays.copyOf(edgeEnds, edgeCells.length * 4);
+                }
+                edgeCells[e] = cell;
+                edgeEnds[4 * e] = x1;
+                edgeEnds[4 * e + 1] = y1;
+                edgeEnds[4 * e + 2] = x2;
+                edgeEnds[4 * e + 3] = y2;
+                addToBundle(bundles, x1, y1, x2, y2);
+            }
+        }
+        for (int b = 0; b < bundleCount; b++) {
+            for (int k = 0; k < 4; k++) {
+                bundleLines[4 * b + k] /= bundleCounts[b];
+            }
+        }
+        vertexGrid.build();
+        edgeGrid.build();
+    }
+
+    // Accumulates the endpoints of an edge into the bundle for its pair of regions; ensureIndex turns the sums into means.
+    private void addToBundle(Map<Long, Integer> bundles, double x1, double y1, double x2, double y2) {
+        long a = region(x1, y1);
+        long b = region(x2, y2);
+        if (a > b) {
+            long swap = a;
+            a = b;
+            b = swap;
+            double t = x1;
+            x1 = x2;
+            x2 = t;
+            t = y1;
+            y1 = y2;
+            y2 = t;
+        }
+        long key = a * 0x9E3779B97F4A7C15L + b;
+        Integer index = bundles.get(key);
+        if (index == null) {
+            index = bundleCount++;
+            bundles.put(key, index);
+            if (bundleCounts.length < bundleCount) {
+                bundleCounts = Arrays.copyOf(bundleCounts, Math.max(16, bundleCount * 2));
+                bundleLines = Arrays.copyOf(bundleLines, bundleCounts.length * 4);
+            }
+            bundleCounts[index] = 0;
+            Arrays.fill(bundleLines, 4 * index, 4 * index + 4, 0);
+        }
+        bundleCounts[index]++;
+        bundleLines[4 * index] += x1;
+        bundleLines[4 * index + 1] += y1;
+        bundleLines[4 * index + 2] += x2;
+        bundleLines[4 * index + 3] += y2;
+    }
+
+    private static long region(double x, double y) {
+        return ((long) Math.floor(x / BUNDLE_CELL) << 32) ^ ((long) Math.floor(y / BUNDLE_CELL) & 0xFFFFFFFFL);
+    }
+}
+
+// Uniform grid over axis-aligned boxes in model coordinates, stored as flat arrays (CSR layout).
+// add() everything, build(), then query(). Boxes covering more than MAX_CELLS cells are kept in a
+// separate list that every query scans, so long edges do not bloat the grid.
+class SpatialGrid {
+    private static final int MAX_CELLS = 64;
+
+    private final double cellSize;
+    private Object[] items = new Object[64];
+    private double[] bounds = new double[64 * 4];
+    private int size;
+    private final java.util.List<Integer> large = new ArrayList<>();
+
+    private double originX;
+    private double originY;
+    private int columns;
+    private int rows;
+    private int[] cellStart = new int[1];
+    private int[] entries = new int[0];
+    private int[] seen = new int[64];
+    private int stamp;
+    private int resultCount;
+
+    SpatialGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    void clear() {
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+        large.clear();
+    }
+
+    // Returns the index the box is reported under by query().
+    int add(Object item, double x, double y, double width, double height) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            bounds = Arrays.copyOf(bounds, size * 8);
+        }
+        items[size] = item;
+        bounds[4 * size] = x;
+        bounds[4 * size + 1] = y;
+        bounds[4 * size + 2] = x + width;
+        bounds[4 * size + 3] = y + height;
+        return size++;
+    }
+
+    Object item(int index) {
+        return items[index];
+    }
+
+    void build() {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, bounds[4 * i]);
+            minY = Math.min(minY, bounds[4 * i + 1]);
+            maxX = Math.max(maxX, bounds[4 * i + 2]);
+            maxY = Math.max(maxY, bounds[4 * i + 3]);
+        }
+        if (size == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        originX = minX;
+        originY = minY;
+        columns = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+        int cells = columns * rows;
+        cellStart = new int[cells + 1];
+        if (seen.length < size) {
+            seen = new int[size];
+            stamp = 0;
+        }
+
+        // Two passes: count entries per cell, then fill.
+        for (int pass = 0; pass < 2; pass++) {
+            int[] fill = pass == 1 ? Arrays.copyOf(cellStart, cells) : null;
+            for (int i = 0; i < size; i++) {
+                int c0 = column(bounds[4 * i]);
+                int r0 = row(bounds[4 * i + 1]);
+                int c1 = column(bounds[4 * i + 2]);
+                int r1 = row(bounds[4 * i + 3]);
+                if ((long) (c1 - c0 + 1) * (r1 - r0 + 1) > MAX_CELLS) {
+                    if (pass == 0) {
+                        large.add(i);
+                    }
+                    continue;
+                }
+                for (int r = r0; r <= r1; r++) {
+                    for (int c = c0; c <= c1; c++) {
+                        if (pass == 0) {
+                            cellStart[r * columns + c + 1]++;
+                        } else {
+                            entries[fill[r * columns + c]++] = i;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int c = 0; c < cells; c++) {
+                    cellStart[c + 1] += cellStart[c];
+                }
+                entries = new int[cellStart[cells]];
+            }
+        }
+    }
+
+    // Indices of the boxes intersecting the rectangle, written to result (grown if needed, and returned);
+    // resultCount() gives how many.
+    int[] query(double x, double y, double width, double height, int[] result) {
+        if (++stamp == 0) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        int count = 0;
+        double maxX = x + width;
+        double maxY = y + height;
+        int c0 = Math.max(0, column(x));
+        int r0 = Math.max(0, row(y));
+        int c1 = Math.min(columns - 1, column(maxX));
+        int r1 = Math.min(rows - 1, row(maxY));
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * columns + c;
+                for (int e = cellStart[cell]; e < cellStart[cell + 1]; e++) {
+                    int i = entries[e];
+                    if (seen[i] != stamp && intersects(i, x, y, maxX, maxY)) {
+                        seen[i] = stamp;
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, count * 2);
+                        }
+                        result[count++] = i;
+                    }
+                }
+            }
+        }
+        for (int i : large) {
+            if (intersects(i, x, y, maxX, maxY)) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = i;
+            }
+        }
+        // Keep the model's paint order.
+        Arrays.sort(result, 0, count);
+        resultCount = count;
+        return result;
+    }
+
+    int resultCount() {
+        return resultCount;
+    }
+
+    private boolean intersects(int i, double minX, double minY, double maxX, double maxY) {
+        return bounds[4 * i] <= maxX && bounds[4 * i + 2] >= minX && bounds[4 * i + 1] <= maxY && bounds[4 * i + 3] >= minY;
+    }
+
+    private int column(double x) {
+        return (int) Math.floor((x - originX) / cellSize);
+    }
+
+    private int row(double y) {
+        return (int) Math.floor((y - originY) / cellSize);
+    }
+}
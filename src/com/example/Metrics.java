@@ -0,0 +1,215 @@
+package com.example;
+
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide latency distributions and counters for the inference path. Recording is a few atomic
+// adds and never allocates; percentiles are only worked out when someone takes a snapshot.
+//   leaf.metrics.interval.s  write a snapshot every N seconds (default 0, off)
+//   leaf.metrics.out         append snapshots as JSON lines to this file instead of text to stderr
+final class Metrics {
+    private static final ConcurrentMap<String, LatencyHistogram> TIMERS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+
+    // End to end through the backend, and the stages reported in "timings_ms".
+    static final LatencyHistogram DETECTION = timer("detection");
+    static final LatencyHistogram DECODE = timer("decode");
+    static final LatencyHistogram PREPROCESS = timer("preprocess");
+    static final LatencyHistogram FORWARD = timer("forward");
+    static final LatencyHistogram POSTPROCESS = timer("postprocess");
+    // One-shot `python infer.py <image>` runs and parsing their output.
+    static final LatencyHistogram PROCESS = timer("process");
+    static final LatencyHistogram PARSE = timer("parse");
+    // Warm workers: spawn to HELLO, and the TensorFlow import and weight loading the worker reports.
+    static final LatencyHistogram WORKER_STARTUP = timer("worker_startup");
+    static final LatencyHistogram WORKER_IMPORT = timer("worker_import");
+    static final LatencyHistogram WORKER_MODEL_LOAD = timer("worker_model_load");
+    static final LatencyHistogram MODEL_LOAD = timer("model_load");
+
+    static final LongAdder DETECTIONS = counter("detections");
+    static final LongAdder PROCESSES_SPAWNED = counter("processes_spawned");
+    static final LongAdder FAILURES = counter("failures");
+    static final LongAdder TIMEOUTS = counter("timeouts");
+    static final LongAdder CACHE_HITS = counter("cache_hits");
+
+    private static ScheduledExecutorService exporter;
+
+    private Metrics() {
+    }
+
+    static LatencyHistogram timer(String name) {
+        return TIMERS.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    // {"timers": {name: {"count", "mean_ms", "p50_ms", "p90_ms", "p99_ms", "max_ms"}}, "counters": {name: n}}
+    static JSONObject snapshot() {
+        JSONObject timers = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : TIMERS.entrySet()) {
+            LatencyHistogram.Snapshot timer = entry.getValue().snapshot();
+            if (timer.count() > 0) {
+                timers.put(entry.getKey(), new JSONObject()
+                    .put("count", timer.count())
+                    .put("mean_ms", round(timer.meanMillis()))
+                    .put("p50_ms", round(timer.percentileMillis(0.50)))
+                    .put("p90_ms", round(timer.percentileMillis(0.90)))
+                    .put("p99_ms", round(timer.percentileMillis(0.99)))
+                    .put("max_ms", round(timer.maxMillis())));
+            }
+        }
+        JSONObject counters = new JSONObject();
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().sum());
+        }
+        return new JSONObject()
+            .put("time", System.currentTimeMillis())
+            .put("timers", timers)
+            .put("counters", counters);
+    }
+
+    static String snapshotText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-18s %8s %9s %9s %9s %9s %9s%n", "stage (ms)", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, LatencyHistogram> entry : TIMERS.entrySet()) {
+            LatencyHistogram.Snapshot timer = entry.getValue().snapshot();
+            if (timer.count() > 0) {
+                text.append(String.format("%-18s %8d %9.1f %9.1f %9.1f %9.1f %9.1f%n", entry.getKey(), timer.count(),
+                    timer.meanMillis(), timer.percentileMillis(0.50), timer.percentileMillis(0.90),
+                    timer.percentileMillis(0.99), timer.maxMillis()));
+            }
+        }
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            text.append(String.format("%-18s %8d%n", entry.getKey(), entry.getValue().sum()));
+        }
+        return text.toString();
+    }
+
+    private static double round(double millis) {
+        return Math.round(millis * 1000) / 1000.0;
+    }
+
+    // Starts the periodic export configured with -D flags, once.
+    static synchronized void startExportFromSystemProperties() {
+        long intervalSeconds = Long.getLong("leaf.metrics.interval.s", 0L);
+        if (exporter != null || intervalSeconds <= 0) {
+            return;
+        }
+        String out = System.getProperty("leaf.metrics.out");
+        exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-export");
+            t.setDaemon(true);
+            return t;
+        });
+        exporter.scheduleAtFixedRate(() -> {
+            try {
+                if (out == null) {
+                    System.err.print(snapshotText());
+                } else {
+                    Files.writeString(Paths.get(out), snapshot() + "\n", StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write metrics to " + out + ": " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
+
+// Log-linear latency histogram in the style of HdrHistogram: 16 linear sub-buckets per power of two
+// of nanoseconds, so any recorded value is reported within 6.25%, from 1 ns up to Long.MAX_VALUE, in
+// a fixed 960 buckets. Thread-safe and lock-free.
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // Middle of the range of values that land in the bucket.
+    static long value(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + ((1L << shift) >> 1);
+    }
+
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum(), max.get());
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        long count() {
+            return count;
+        }
+
+        double meanMillis() {
+            return count == 0 ? 0 : sum / 1e6 / count;
+        }
+
+        double maxMillis() {
+            return max / 1e6;
+        }
+
+        double percentileMillis(double quantile) {
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(value(i), max) / 1e6;
+                }
+            }
+            return max / 1e6;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+
+// Content hash of the model file, recomputed only when its size or modification time changes.
+class ModelFingerprint {
+    private final Path modelFile;
+    private final String backendId;
+    private long lastSize = -1;
+    private long lastModified = -1;
+    private String fingerprint;
+
+    // backendId keeps results of different inference scripts apart (e.g. the stub worker).
+    public ModelFingerprint(Path modelFile, String backendId) {
+        this.modelFile = modelFile;
+        this.backendId = backendId;
+    }
+
+    public synchronized String get() throws IOException {
+        if (!Files.exists(modelFile)) {
+            return digest(backendId + ":no-model");
+        }
+        long size = Files.size(modelFile);
+        long modified = Files.getLastModifiedTime(modelFile).toMillis();
+        if (fingerprint == null || size != lastSize || modified != lastModified) {
+            MessageDigest digest = ResultCache.sha256();
+            digest.update((backendId + ":").getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = Files.newInputStream(modelFile)) {
+                byte[] buffer = new byte[256 * 1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            fingerprint = ResultCache.toHex(digest.digest()).substring(0, 16);
+            lastSize = size;
+            lastModified = modified;
+        }
+        return fingerprint;
+    }
+
+    private static String digest(String text) {
+        return ResultCache.toHex(ResultCache.sha256().digest(text.getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    }
+}
@@ -0,0 +1,419 @@
+package com.example;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// Serves classifications from one of several versioned models kept in a directory, one subdirectory
+// per version:
+//   models/2026-10-17/model.keras        (model.weights.bin for the native backend)
+//   models/2026-10-17/labels.txt         one label per line in class index order (optional)
+// A new version is loaded next to the one serving, warmed up with a few canned images and checked,
+// and only then switched to with a single reference swap. Requests already running on the old version
+// finish there; the old version stays loaded for an instant rollback, and the one before it is closed
+// once its last request is done. Versions are ordered by name, and the newest is served at startup.
+// A version directory should appear complete, e.g. `python train.py /tmp/v` then a move into models/.
+class ModelRegistry implements InferenceBackend {
+    interface Loader {
+        // Starts the model without any caching in front of it, so warm-up reaches the model.
+        InferenceBackend load(ModelVersion version) throws IOException;
+    }
+
+    private static final class Deployment {
+        final ModelVersion version;
+        final InferenceBackend backend;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicBoolean closed = new AtomicBoolean();
+        volatile boolean retired;
+
+        Deployment(ModelVersion version, InferenceBackend backend) {
+            this.version = version;
+            this.backend = backend;
+        }
+
+        void closeIfIdle() {
+            if (retired && inFlight.get() == 0 && closed.compareAndSet(false, true)) {
+                backend.close();
+            }
+        }
+    }
+
+    private static volatile ModelRegistry current;
+
+    private final Path directory;
+    private final Loader loader;
+    private final java.util.function.BiFunction<ModelVersion, InferenceBackend, InferenceBackend> serving;
+    private final java.util.List<File> warmupImages;
+    private final int warmupRounds;
+    private final AtomicReference<Deployment> active = new AtomicReference<>();
+    private volatile Deployment previous;
+    private volatile String deploying;
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final ExecutorService deployer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "model-deploy");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledExecutorService poller;
+
+    // serving wraps a warmed-up backend for traffic, e.g. with a cache; the result is what gets closed.
+    ModelRegistry(Path directory, Loader loader,
+                  java.util.function.BiFunction<ModelVersion, InferenceBackend, InferenceBackend> serving,
+                  java.util.List<File> warmupImages, int warmupRounds) {
+        this.directory = directory;
+        this.loader = loader;
+        this.serving = serving;
+        this.warmupImages = java.util.List.copyOf(warmupImages);
+        this.warmupRounds = Math.max(1, warmupRounds);
+    }
+
+    // The registry behind InferenceBackend.fromSystemProperties(), or null if it serves a single model.
+    static ModelRegistry current() {
+        return current;
+    }
+
+    // Configured with -D flags:
+    //   leaf.models   version directory (default "models"); without it the single model.keras /
+    //                 leaf.weights model is served as before
+    //   leaf.models.poll.s     how often to look for new versions to deploy, 0 = never (default 10)
+    //   leaf.models.warmup     folder of canned images to warm new versions with (default data/val)
+    //   leaf.models.warmup.images  how many of them, taken across its subfolders (default 8)
+    // Returns null when the directory does not exist.
+    static ModelRegistry fromSystemProperties(Loader loader,
+                                              java.util.function.BiFunction<ModelVersion, InferenceBackend, InferenceBackend> serving) {
+        Path directory = Paths.get(System.getProperty("leaf.models", "models"));
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+        java.util.List<File> images = warmupImages(Paths.get(System.getProperty("leaf.models.warmup", "data/val")),
+            Integer.getInteger("leaf.models.warmup.images", 8));
+        ModelRegistry registry = new ModelRegistry(directory, loader, serving, images,
+            Math.max(2, Integer.getInteger("leaf.workers", 2)));
+        try {
+            registry.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load a model from " + directory + ": " + e.getMessage(), e);
+        }
+        registry.poll(Long.getLong("leaf.models.poll.s", 10L));
+        current = registry;
+        return registry;
+    }
+
+    // Deploys the newest version that loads and passes warm-up, falling back to older ones.
+    void start() throws IOException {
+        java.util.List<ModelVersion> versions = versions();
+        if (versions.isEmpty()) {
+            throw new IOException("No model versions in " + directory);
+        }
+        IOException failure = null;
+        for (ModelVersion version : versions) {
+            seen.add(version.getId());
+        }
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            try {
+                switchTo(prepare(versions.get(i)));
+                return;
+            } catch (IOException e) {
+                System.err.println("Model " + versions.get(i).getId() + " not deployed: " + e.getMessage());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    // The complete versions in the directory, oldest first.
+    java.util.List<ModelVersion> versions() throws IOException {
+        return versions(directory);
+    }
+
+    static java.util.List<ModelVersion> versions(Path directory) throws IOException {
+        java.util.List<ModelVersion> versions = new ArrayList<>();
+        try (Stream<Path> children = Files.list(directory)) {
+            for (Path child : (Iterable<Path>) children.sorted()::iterator) {
+                if (Files.isDirectory(child) && !child.getFileName().toString().startsWith(".")) {
+                    try {
+                        ModelVersion version = ModelVersion.inDirectory(child);
+                        if (Files.exists(version.getModelFile())) {
+                            versions.add(version);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Skipping model " + child.getFileName() + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        return versions;
+    }
+
+    // Loads and warms the version in the background, then switches to it. The future fails, and the
+    // current version keeps serving, if the version is missing or fails to load or warm up.
+    CompletableFuture<ModelVersion> deploy(String id) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                // A version is a plain directory name: no separators, and not "." or "..".
+                Path versionDirectory = directory.resolve(id).normalize();
+                if (id.isEmpty() || id.chars().allMatch(c -> c == '.') || id.contains("/") || id.contains("\\") ||
+                        !directory.normalize().equals(versionDirectory.getParent()) || !Files.isDirectory(versionDirectory)) {
+                    throw new IOException("No model version " + id + " in " + directory);
+                }
+                ModelVersion version = ModelVersion.inDirectory(versionDirectory);
+                if (!Files.exists(version.getModelFile())) {
+                    throw new IOException("No model version " + id + " in " + directory);
+                }
+                switchTo(prepare(version));
+                return version;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, deployer);
+    }
+
+    // Switches back to the version served before the last deploy or rollback; it is still loaded and warm.
+    synchronized ModelVersion rollback() {
+        Deployment back = previous;
+        if (back == null) {
+            throw new IllegalStateException("No previous model version to roll back to");
+        }
+        previous = active.getAndSet(back);
+        System.err.println("Rolled back to model " + back.version.getId() + " from " + previous.version.getId());
+        return back.version;
+    }
+
+    ModelVersion activeVersion() {
+        return active.get().version;
+    }
+
+    JSONObject status() throws IOException {
+        Deployment back = previous;
+        JSONArray available = new JSONArray();
+        for (ModelVersion version : versions()) {
+            available.put(version.getId());
+        }
+        return new JSONObject()
+            .put("active", activeVersion().getId())
+            .put("labels", new JSONArray(activeVersion().getLabels()))
+            .put("previous", back == null ? JSONObject.NULL : back.version.getId())
+            .put("deploying", deploying == null ? JSONObject.NULL : deploying)
+            .put("available", available);
+    }
+
+    // Checks the directory every `seconds` and deploys a version newer than any seen before.
+    synchronized void poll(long seconds) {
+        if (seconds <= 0 || poller != null) {
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "model-registry-poll");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            try {
+                java.util.List<ModelVersion> versions = versions();
+                if (versions.isEmpty()) {
+                    return;
+                }
+                ModelVersion newest = versions.get(versions.size() - 1);
+                if (seen.add(newest.getId())) {
+                    deploy(newest.getId()).exceptionally(e -> {
+                        System.err.println("Model " + newest.getId() + " not deployed: " + e.getCause().getMessage());
+                        return null;
+                    }).join();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to look for new models in " + directory + ": " + e.getMessage());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private Deployment prepare(ModelVersion version) throws IOException {
+        deploying = version.getId();
+        long start = System.nanoTime();
+        InferenceBackend backend = null;
+        try {
+            backend = loader.load(version);
+            long loaded = System.nanoTime();
+            warmUp(backend, version);
+            System.err.printf("Model %s ready (load %.0f ms, warm-up %.0f ms)%n", version.getId(),
+                (loaded - start) / 1e6, (System.nanoTime() - loaded) / 1e6);
+            return new Deployment(version, serving.apply(version, backend));
+        } catch (IOException | RuntimeException e) {
+            if (backend != null) {
+                backend.close();
+            }
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        } finally {
+            deploying = null;
+        }
+    }
+
+    // Runs the canned images through the new model one at a time and then as a batch, warmupRounds times,
+    // and checks the answers. Sequential calls go to a pool's workers in turn, so with as many rounds as
+    // workers every worker has served both kinds of request before real traffic arrives, while the
+    // warm-up never takes more than one worker from the version still serving.
+    private void warmUp(InferenceBackend backend, ModelVersion version) throws IOException {
+        if (warmupImages.isEmpty()) {
+            return;
+        }
+        try {
+            for (int round = 0; round < warmupRounds; round++) {
+                for (File image : warmupImages) {
+                    check(backend.classify(image), version);
+                }
+                for (JSONObject result : backend.classifyBatch(warmupImages)) {
+                    check(result, version);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Warm-up interrupted");
+        }
+    }
+
+    private static void check(JSONObject result, ModelVersion version) throws IOException {
+        if (result.has("error")) {
+            throw new IOException(result.getString("error"));
+        }
+        if (!version.getLabels().contains(result.optString("leaf_type"))) {
+            throw new IOException("Answered \"" + result.optString("leaf_type") + "\", which is not one of its labels");
+        }
+    }
+
+    private synchronized void switchTo(Deployment next) {
+        Deployment old = previous;
+        previous = active.getAndSet(next);
+        if (old != null) {
+            old.retired = true;
+            old.closeIfIdle();
+        }
+        System.err.println("Serving model " + next.version.getId() +
+            (previous == null ? "" : ", previous " + previous.version.getId() + " kept for rollback"));
+    }
+
+    // A deployment that is swapped out between the read and the increment may already be closing, so
+    // in that case the read is retried.
+    private Deployment acquire() {
+        while (true) {
+            Deployment deployment = active.get();
+            deployment.inFlight.incrementAndGet();
+            if (!deployment.retired) {
+                return deployment;
+            }
+            release(deployment);
+        }
+    }
+
+    private static void release(Deployment deployment) {
+        if (deployment.inFlight.decrementAndGet() == 0) {
+            deployment.closeIfIdle();
+        }
+    }
+
+    @Override
+    public JSONObject classify(File imageFile) throws IOException, InterruptedException {
+        Deployment deployment = acquire();
+        try {
+            return stamp(deployment.backend.classify(imageFile), deployment);
+        } finally {
+            release(deployment);
+        }
+    }
+
+    @Override
+    public JSONObject classify(PreparedImage image) throws IOException, InterruptedException {
+        Deployment deployment = acquire();
+        try {
+            return stamp(deployment.backend.classify(image), deployment);
+        } finally {
+            release(deployment);
+        }
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyBatch(java.util.List<File> imageFiles) throws IOException, InterruptedException {
+        Deployment deployment = acquire();
+        try {
+            return stamp(deployment.backend.classifyBatch(imageFiles), deployment);
+        } finally {
+            release(deployment);
+        }
+    }
+
+    @Override
+    public java.util.List<JSONObject> classifyPrepared(java.util.List<PreparedImage> images) throws IOException, InterruptedException {
+        Deployment deployment = acquire();
+        try {
+            return stamp(deployment.backend.classifyPrepared(images), deployment);
+        } finally {
+            release(deployment);
+        }
+    }
+
+    private static JSONObject stamp(JSONObject result, Deployment deployment) {
+        return result.has("error") ? result : result.put("model_version", deployment.version.getId());
+    }
+
+    private static java.util.List<JSONObject> stamp(java.util.List<JSONObject> results, Deployment deployment) {
+        for (JSONObject result : results) {
+            stamp(result, deployment);
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        deployer.shutdownNow();
+        for (Deployment deployment : new Deployment[] {active.get(), previous}) {
+            if (deployment != null) {
+                deployment.retired = true;
+                deployment.closeIfIdle();
+            }
+        }
+    }
+
+    // Up to count images from the folder's subfolders, taking one from each in turn so that every
+    // species is represented.
+    static java.util.List<File> warmupImages(Path folder, int count) {
+        java.util.List<java.util.List<File>> bySpecies = new ArrayList<>();
+        File[] subfolders = folder.toFile().listFiles(File::isDirectory);
+        if (subfolders == null) {
+            return java.util.List.of();
+        }
+        Arrays.sort(subfolders);
+        for (File subfolder : subfolders) {
+            File[] images = subfolder.listFiles((dir, name) -> {
+                String lower = name.toLowerCase(Locale.ROOT);
+                return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png");
+            });
+            if (images != null && images.length > 0) {
+                Arrays.sort(images);
+                bySpecies.add(Arrays.asList(images));
+            }
+        }
+        java.util.List<File> picked = new ArrayList<>();
+        for (int i = 0; picked.size() < count && !bySpecies.isEmpty(); i++) {
+            boolean any = false;
+            for (java.util.List<File> images : bySpecies) {
+                if (i < images.size() && picked.size() < count) {
+                    picked.add(images.get(i));
+                    any = true;
+                }
+            }
+            if (!any) {
+                break;
+            }
+        }
+        return picked;
+    }
+}
+
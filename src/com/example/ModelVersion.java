@@ -0,0 +1,99 @@
+package com.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// One model artifact and the labels of its outputs. The unversioned model is the single model.keras
+// (or leaf.weights for the native backend) with the built-in labels, run exactly as before versions.
+final class ModelVersion {
+    private final String id;
+    private final Path directory;
+    private final Path modelFile;
+    private final Path labelsFile;
+    private final java.util.List<String> labels;
+
+    private ModelVersion(String id, Path directory, Path modelFile, Path labelsFile, java.util.List<String> labels) {
+        this.id = id;
+        this.directory = directory;
+        this.modelFile = modelFile;
+        this.labelsFile = labelsFile;
+        this.labels = labels;
+    }
+
+    static ModelVersion unversioned() {
+        Path modelFile = InferenceBackend.isNative()
+            ? Paths.get(System.getProperty("leaf.weights", "model.weights.bin"))
+            : Paths.get("model.keras");
+        return new ModelVersion("unversioned", null, modelFile, null, NativeBackend.LABELS);
+    }
+
+    // The version InferenceBackend.fromSystemProperties() starts with, without loading it: the newest
+    // complete one in leaf.models, or the unversioned model when there is no models directory.
+    static ModelVersion fromSystemProperties() throws IOException {
+        Path directory = Paths.get(System.getProperty("leaf.models", "models"));
+        if (!Files.isDirectory(directory)) {
+            return unversioned();
+        }
+        java.util.List<ModelVersion> versions = ModelRegistry.versions(directory);
+        if (versions.isEmpty()) {
+            throw new IOException("No model versions in " + directory);
+        }
+        return versions.get(versions.size() - 1);
+    }
+
+    static ModelVersion inDirectory(Path directory) throws IOException {
+        Path labelsFile = directory.resolve("labels.txt");
+        java.util.List<String> labels = NativeBackend.LABELS;
+        if (Files.exists(labelsFile)) {
+            labels = new ArrayList<>();
+            for (String line : Files.readAllLines(labelsFile, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    labels.add(line.strip());
+                }
+            }
+            if (labels.isEmpty()) {
+                throw new IOException(labelsFile + " lists no labels");
+            }
+            labels = java.util.List.copyOf(labels);
+        } else {
+            labelsFile = null;
+        }
+        Path modelFile = directory.resolve(InferenceBackend.isNative() ? "model.weights.bin" : "model.keras");
+        return new ModelVersion(directory.getFileName().toString(), directory, modelFile, labelsFile, labels);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    Path getModelFile() {
+        return modelFile;
+    }
+
+    java.util.List<String> getLabels() {
+        return labels;
+    }
+
+    // Arguments for infer.py (and stub_worker.py) selecting this version; none for the unversioned model.
+    java.util.List<String> scriptOptions() {
+        if (directory == null) {
+            return java.util.List.of();
+        }
+        java.util.List<String> options = new ArrayList<>(java.util.List.of("--model", modelFile.toString()));
+        if (labelsFile != null) {
+            options.addAll(java.util.List.of("--labels", labelsFile.toString()));
+        }
+        return options;
+    }
+
+    // Keeps cached results of models with different labels apart, on top of ModelFingerprint's backendId.
+    String cacheId(String backendId) {
+        return labelsFile == null ? backendId : backendId + ":" + String.join("\n", labels);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example;
+
+import java.io.*;
+import java.nio.file.*;
+import org.json.JSONObject;
+
+// Classifies in-process with CnnEngine, so no Python process is involved at all.
+// Weights come from `python export_weights.py`.
+class NativeBackend implements InferenceBackend {
+    // Same order as `labels` in infer.py, i.e. the class indices used during training.
+    static final java.util.List<String> LABELS = java.util.List.of("Acer Palmatum", "Cedrus Deodara",
+        "Cercis Chinensis", "Citrus Reticulata Blanco", "Ginkgo Biloba", "Liriodendron Chinense", "Nerium Oleander");
+
+    private final CnnEngine engine;
+    private final java.util.List<String> labels;
+    private final SpeciesKnowledgeBase knowledgeBase;
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor();
+    // Decoding runs outside the engine lock, so each caller thread keeps its own tensor.
+    private final ThreadLocal<float[]> tensors = ThreadLocal.withInitial(() -> new float[CnnEngine.INPUT_LENGTH]);
+    private final float[] probabilities;
+    private final float[] embedding = new float[CnnEngine.EMBEDDING_SIZE];
+
+    public NativeBackend(Path weightsFile, SpeciesKnowledgeBase knowledgeBase, int parallelism) throws IOException {
+        this(weightsFile, LABELS, knowledgeBase, parallelism);
+    }
+
+    // labels name the model's outputs in class index order.
+    public NativeBackend(Path weightsFile, java.util.List<String> labels, SpeciesKnowledgeBase knowledgeBase,
+                         int parallelism) throws IOException {
+        long start = System.nanoTime();
+        this.engine = CnnEngine.load(weightsFile, parallelism);
+        Metrics.MODEL_LOAD.record(System.nanoTime() - start);
+        if (engine.getClassCount() != labels.size()) {
+            throw new IOException("Model has " + engine.getClassCount() + " classes but there are " +
+                labels.size() + " labels");
+        }
+        this.labels = labels;
+        this.knowledgeBase = knowledgeBase;
+        this.probabilities = new float[engine.getClassCount()];
+        // Warm up the JIT so the first real request runs compiled code.
+        for (int i = 0; i < 3; i++) {
+            engine.forward(tensors.get(), probabilities);
+        }
+    }
+
+    @Override
+    public JSONObject classify(File imageFile) throws IOException {
+        float[] tensor = tensors.get();
+        StageTimings timings = new StageTimings();
+        preprocessor.prepareTensor(imageFile, tensor, 0, timings);
+        return classify(tensor, timings);
+    }
+
+    @Override
+    public JSONObject classify(PreparedImage image) {
+        return classify(image.getTensor(), image.newTimings());
+    }
+
+    private synchronized JSONObject classify(float[] tensor, StageTimings timings) {
+        long start = System.nanoTime();
+        engine.forward(tensor, probabilities, embedding);
+        long forwarded = System.nanoTime();
+        JSONObject result = InferenceResults.toResult(labels, probabilities, 0, knowledgeBase.get());
+        InferenceResults.putEmbedding(result, embedding, 0);
+        timings.forwardNanos = forwarded - start;
+        timings.postprocessNanos = System.nanoTime() - forwarded;
+        return result.put("timings_ms", timings.toJson());
+    }
+
+    // Waits for a forward pass in progress, then frees the engine's threads, e.g. when ModelRegistry
+    // retires this version.
+    @Override
+    public synchronized void close() {
+        engine.close();
+    }
+
+    // Raw probabilities, for comparing with Keras in NativeBackendTest.
+    float[] predict(File imageFile) throws IOException {
+        float[] tensor = tensors.get();
+        preprocessor.prepareTensor(imageFile, tensor, 0, null);
+        synchronized (this) {
+            engine.forward(tensor, probabilities);
+            return probabilities.clone();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example;
+
+import java.awt.Image;
+import java.io.File;
+
+// Output of the decode stage: the model tensor, the preview thumbnail (if requested), the
+// content hash used as cache key and how long decoding and preprocessing took.
+class PreparedImage {
+    private final File file;
+    private final String contentHash;
+    private final float[] tensor;
+    private final Image thumbnail;
+    private final StageTimings timings;
+
+    PreparedImage(File file, String contentHash, float[] tensor, Image thumbnail, StageTimings timings) {
+        this.file = file;
+        this.contentHash = contentHash;
+        this.tensor = tensor;
+        this.thumbnail = thumbnail;
+        this.timings = timings;
+    }
+
+    // A copy with the decode and preprocess stages filled in, for a classifier to complete.
+    public StageTimings newTimings() {
+        return timings.copy();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public float[] getTensor() {
+        return tensor;
+    }
+
+    public Image getThumbnail() {
+        return thumbnail;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Reads a subprocess's combined stdout/stderr as it is produced while holding on to only what is
+// needed: the last non-blank line (infer.py prints its result JSON last) and a ring buffer with the
+// tail of the output for error reports. Memory stays bounded however much the process writes, and an
+// instance is meant to be reused for call after call.
+final class ProcessOutput {
+    static final int TAIL_BYTES = 16 * 1024;
+    static final int MAX_LINE_BYTES = 1024 * 1024;
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "process-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final byte[] chunk = new byte[8192];
+    private final byte[] tail = new byte[TAIL_BYTES];
+    private int tailEnd;
+    private long totalBytes;
+    private byte[] line = new byte[1024];
+    private int lineLength;
+    private boolean lineTooLong;
+    private byte[] lastLine = new byte[1024];
+    private int lastLineLength;
+    private boolean lastLineTooLong;
+
+    // Reads the process's output to the end, killing the process and everything it started if that
+    // takes longer than timeoutMillis. Returns false on timeout. The process is never left running.
+    boolean readFrom(Process process, long timeoutMillis) throws IOException, InterruptedException {
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> deadline = WATCHDOG.schedule(() -> {
+            timedOut.set(true);
+            destroyTree(process);
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            try (InputStream in = process.getInputStream()) {
+                readFrom(in);
+            }
+            process.waitFor();
+        } finally {
+            deadline.cancel(false);
+            if (process.isAlive()) {
+                destroyTree(process);
+            }
+        }
+        return !timedOut.get();
+    }
+
+    void readFrom(InputStream in) throws IOException {
+        tailEnd = 0;
+        totalBytes = 0;
+        lineLength = 0;
+        lineTooLong = false;
+        lastLineLength = 0;
+        lastLineTooLong = false;
+        for (int n; (n = in.read(chunk)) != -1; ) {
+            appendTail(n);
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n') {
+                    endLine();
+                } else {
+                    appendLine(chunk[i]);
+                }
+            }
+        }
+        endLine();
+    }
+
+    private void appendTail(int n) {
+        int start = Math.max(0, n - TAIL_BYTES);
+        for (int i = start; i < n; ) {
+            int count = Math.min(n - i, TAIL_BYTES - tailEnd);
+            System.arraycopy(chunk, i, tail, tailEnd, count);
+            tailEnd = (tailEnd + count) % TAIL_BYTES;
+            i += count;
+        }
+        totalBytes += n;
+    }
+
+    private void appendLine(byte b) {
+        if (lineLength == line.length) {
+            if (line.length >= MAX_LINE_BYTES) {
+                lineTooLong = true;
+                return;
+            }
+            line = Arrays.copyOf(line, Math.min(MAX_LINE_BYTES, line.length * 2));
+        }
+        line[lineLength++] = b;
+    }
+
+    private void endLine() {
+        if (lineTooLong || !isBlank(line, lineLength)) {
+            byte[] previous = lastLine;
+            lastLine = line;
+            line = previous;
+            lastLineLength = lineLength;
+            lastLineTooLong = lineTooLong;
+        }
+        lineLength = 0;
+        lineTooLong = false;
+    }
+
+    private static boolean isBlank(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if ((bytes[i] & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The last non-blank line, "" if there was none.
+    String lastLine() throws IOException {
+        if (lastLineTooLong) {
+            throw new IOException("Output line longer than " + MAX_LINE_BYTES + " bytes");
+        }
+        return new String(lastLine, 0, lastLineLength, StandardCharsets.UTF_8).trim();
+    }
+
+    // The last TAIL_BYTES of the output, noting how much came before.
+    String tail() {
+        if (totalBytes <= TAIL_BYTES) {
+            return new String(tail, 0, tailEnd, StandardCharsets.UTF_8);
+        }
+        byte[] ordered = new byte[TAIL_BYTES];
+        System.arraycopy(tail, tailEnd, ordered, 0, TAIL_BYTES - tailEnd);
+        System.arraycopy(tail, 0, ordered, TAIL_BYTES - tailEnd, tailEnd);
+        return "[" + (totalBytes - TAIL_BYTES) + " earlier bytes omitted]\n" + new String(ordered, StandardCharsets.UTF_8);
+    }
+
+    long totalBytes() {
+        return totalBytes;
+    }
+
+    // Children first: once the parent is gone they are reparented and no longer its descendants.
+    static void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
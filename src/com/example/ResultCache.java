@@ -0,0 +1,134 @@
+package com.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+// Two tiers: a byte-bounded LRU in memory and, optionally, one JSON file per entry on disk.
+class ResultCache {
+    private final long maxBytes;
+    private final Path directory;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // directory may be null for a memory-only cache.
+    public ResultCache(long maxBytes, Path directory) throws IOException {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    public JSONObject get(String key) {
+        String json;
+        synchronized (entries) {
+            json = entries.get(key);
+        }
+        if (json != null) {
+            hits.incrementAndGet();
+            return new JSONObject(json);
+        }
+        if (directory != null) {
+            Path file = directory.resolve(key + ".json");
+            try {
+                json = Files.readString(file, StandardCharsets.UTF_8);
+                diskHits.incrementAndGet();
+                putInMemory(key, json);
+                return new JSONObject(json);
+            } catch (NoSuchFileException e) {
+                // Fall through to a miss
+            } catch (Exception e) {
+                System.err.println("Ignoring unreadable cache entry " + file + ": " + e.getMessage());
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, JSONObject result) {
+        String json = result.toString();
+        putInMemory(key, json);
+        if (directory != null) {
+            try {
+                Path temp = Files.createTempFile(directory, key, ".tmp");
+                Files.writeString(temp, json, StandardCharsets.UTF_8);
+                Files.move(temp, directory.resolve(key + ".json"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Failed to write cache entry " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void putInMemory(String key, String json) {
+        synchronized (entries) {
+            String previous = entries.put(key, json);
+            currentBytes += entrySize(key, json) - (previous == null ? 0 : entrySize(key, previous));
+            Iterator<Map.Entry<String, String>> eldest = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, String> entry = eldest.next();
+                currentBytes -= entrySize(entry.getKey(), entry.getValue());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static long entrySize(String key, String json) {
+        return 2L * (key.length() + json.length()) + 64;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHits() + " diskHits=" + getDiskHits() + " misses=" + getMisses() +
+            " evictions=" + getEvictions() + " entries=" + size();
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
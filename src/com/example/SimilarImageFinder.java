@@ -0,0 +1,83 @@
+package com.example;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// The app's look-alike search: an EmbeddingIndex loaded in the background from leaf.embeddings
+// (default embeddings.bin, "" keeps it in memory only), fed every detection and saved at exit if it
+// changed.
+class SimilarImageFinder {
+    private final Path file;
+    private final CompletableFuture<EmbeddingIndex> index;
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    SimilarImageFinder(Path file) {
+        this.file = file;
+        this.index = CompletableFuture.supplyAsync(() -> {
+            if (file != null && Files.exists(file)) {
+                try {
+                    return EmbeddingIndex.load(file);
+                } catch (IOException e) {
+                    System.err.println("Starting a new embedding index: " + e.getMessage());
+                }
+            }
+            return new EmbeddingIndex();
+        });
+        if (file != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::save, "embedding-index-save"));
+        }
+    }
+
+    static SimilarImageFinder fromSystemProperties() {
+        String file = System.getProperty("leaf.embeddings", "embeddings.bin");
+        return new SimilarImageFinder(file.isEmpty() ? null : Paths.get(file));
+    }
+
+    // Indexes the image and returns up to k other images that look like it, most similar first, as
+    // [{"path", "leaf_type", "similarity"}]. Empty if the result has no embedding. While the index is still
+    // loading the lookup is skipped and the image is indexed once loading finishes.
+    JSONArray addAndFind(PreparedImage image, JSONObject result, int k) {
+        JSONArray similar = new JSONArray();
+        float[] embedding = InferenceResults.embedding(result);
+        if (embedding == null) {
+            return similar;
+        }
+        String path = image.getFile() != null ? image.getFile().getPath() : "";
+        String leafType = result.optString("leaf_type");
+        EmbeddingIndex embeddings = index.getNow(null);
+        if (embeddings == null) {
+            index.thenAccept(loaded -> add(loaded, image.getContentHash(), path, leafType, embedding));
+            return similar;
+        }
+        add(embeddings, image.getContentHash(), path, leafType, embedding);
+        for (EmbeddingIndex.Match match : embeddings.nearest(embedding, k, image.getContentHash())) {
+            similar.put(new JSONObject()
+                .put("path", match.path)
+                .put("leaf_type", match.label)
+                .put("similarity", match.similarity));
+        }
+        return similar;
+    }
+
+    private void add(EmbeddingIndex embeddings, String key, String path, String leafType, float[] embedding) {
+        if (embeddings.add(key, path, leafType, embedding)) {
+            changed.set(true);
+        }
+    }
+
+    void save() {
+        EmbeddingIndex embeddings = index.getNow(null);
+        if (file == null || embeddings == null || !changed.getAndSet(false)) {
+            return;
+        }
+        try {
+            embeddings.save(file);
+        } catch (IOException e) {
+            System.err.println("Failed to save the embedding index: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+
+// Top-k similar-species search over a FeatureIndex.
+//
+// Exact queries walk the inverted feature->leaf bitsets of the query's features, so only species
+// sharing at least one feature are scored, and keep the best k in a bounded min-heap. Scores are
+// Jaccard (|A & B| / |A | B|) or IDF-weighted Jaccard, where each feature counts ln(1 + N / df).
+//
+// Approximate queries use MinHash signatures split into LSH bands (bands * rows hashes). Species
+// colliding with the query in any band are scored exactly. More bands raise recall, more rows per
+// band cut the number of candidates; a pair with Jaccard s is found with probability
+// 1 - (1 - s^rows)^bands.
+//
+// Per-species neighbor lists (Jaccard, top neighborCount) are cached. Adding features to a species
+// only changes its overlap with species that share one of its features, so update() invalidates
+// just those lists and they are recomputed on the next read.
+//
+// Not thread-safe; call update() after every FeatureIndex.addLeaf().
+class SimilarityIndex {
+    enum Scoring { JACCARD, IDF }
+
+    static final class Neighbor {
+        private final String leaf;
+        private final double score;
+        private final int commonFeatures;
+
+        Neighbor(String leaf, double score, int commonFeatures) {
+            this.leaf = leaf;
+            this.score = score;
+            this.commonFeatures = commonFeatures;
+        }
+
+        public String getLeaf() {
+            return leaf;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public int getCommonFeatures() {
+            return commonFeatures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.3f (%d common features)", leaf, score, commonFeatures);
+        }
+    }
+
+    private static final long[] HASH_SEEDS = new Random(0x5EEDL).longs(256).toArray();
+
+    private final FeatureIndex features;
+    private final int neighborCount;
+    private final int bands;
+    private final int rows;
+
+    private int[] leafSizes = new int[16];
+    private final java.util.List<java.util.List<Neighbor>> neighborLists = new ArrayList<>();
+    private int[][] signatures = new int[16][];
+    private final Map<Long, IntList> buckets = new HashMap<>();
+
+    // IDF weights are recomputed lazily whenever the catalog has changed since the last IDF query.
+    private double[] idf = new double[0];
+    private double[] leafWeights = new double[0];
+    private boolean idfStale = true;
+
+    // Query scratch space, reused across queries.
+    private int[] overlap = new int[16];
+    private int[] seen = new int[16];
+    private int queryStamp;
+    private int[] candidates = new int[16];
+    private int[] heapIds = new int[0];
+    private double[] heapScores = new double[0];
+
+    // neighborCount: length of the cached neighbor lists; bands/rows: LSH shape (0 bands disables LSH).
+    SimilarityIndex(FeatureIndex features, int neighborCount, int bands, int rows) {
+        if (bands * rows > HASH_SEEDS.length) {
+            throw new IllegalArgumentException("At most " + HASH_SEEDS.length + " MinHash functions are supported");
+        }
+        this.features = features;
+        this.neighborCount = neighborCount;
+        this.bands = bands;
+        this.rows = rows;
+        // Nothing is cached yet, so the initial catalog only needs sizes and signatures.
+        for (int leafId = 0; leafId < features.leafCount(); leafId++) {
+            refresh(leafId);
+        }
+    }
+
+    // Refreshes the cached state of one species after features were added to it.
+    public void update(int leafId) {
+        refresh(leafId);
+
+        // Lists that can see a different score for leafId: its own and those of every species sharing a feature.
+        long[] bits = features.leafBits(leafId);
+        neighborLists.set(leafId, null);
+        for (int f = FeatureIndex.nextSetBit(bits, 0); f >= 0; f = FeatureIndex.nextSetBit(bits, f + 1)) {
+            long[] leaves = features.featureBits(f);
+            for (int other = FeatureIndex.nextSetBit(leaves, 0); other >= 0; other = FeatureIndex.nextSetBit(leaves, other + 1)) {
+                neighborLists.set(other, null);
+            }
+        }
+    }
+
+    private void refresh(int leafId) {
+        ensureLeafCapacity(features.leafCount());
+        while (neighborLists.size() < features.leafCount()) {
+            neighborLists.add(null);
+        }
+        leafSizes[leafId] = features.featureCount(leafId);
+        idfStale = true;
+        long[] bits = features.leafBits(leafId);
+
+        if (bands > 0) {
+            int[] signature = minHash(bits);
+            int[] previous = signatures[leafId];
+            if (!Arrays.equals(signature, previous)) {
+                for (int band = 0; band < bands; band++) {
+                    if (previous != null) {
+                        IntList bucket = buckets.get(bandKey(previous, band));
+                        if (bucket != null && bucket.remove(leafId) && bucket.size == 0) {
+                            buckets.remove(bandKey(previous, band));
+                        }
+                    }
+                    buckets.computeIfAbsent(bandKey(signature, band), k -> new IntList()).add(leafId);
+                }
+                signatures[leafId] = signature;
+            }
+        }
+    }
+
+    // Cached Jaccard neighbors of a species, best first.
+    public java.util.List<Neighbor> neighbors(int leafId) {
+        java.util.List<Neighbor> list = neighborLists.get(leafId);
+        if (list == null) {
+            list = Collections.unmodifiableList(topK(leafId, neighborCount, Scoring.JACCARD));
+            neighborLists.set(leafId, list);
+        }
+        return list;
+    }
+
+    // Exact top-k: every species sharing at least one feature with leafId is scored.
+    public java.util.List<Neighbor> topK(int leafId, int k, Scoring scoring) {
+        prepareQuery(scoring);
+        int count = 0;
+        long[] bits = features.leafBits(leafId);
+        for (int f = FeatureIndex.nextSetBit(bits, 0); f >= 0; f = FeatureIndex.nextSetBit(bits, f + 1)) {
+            long[] leaves = features.featureBits(f);
+            for (int other = FeatureIndex.nextSetBit(leaves, 0); other >= 0; other = FeatureIndex.nextSetBit(leaves, other + 1)) {
+                if (other != leafId && seen[other] != queryStamp) {
+                    seen[other] = queryStamp;
+                    candidates = ensureCapacity(candidates, count + 1);
+                    candidates[count++] = other;
+                }
+            }
+        }
+        return rank(leafId, count, k, scoring);
+    }
+
+    // Approximate top-k: only species colliding with leafId in an LSH band are scored.
+    public java.util.List<Neighbor> approximateTopK(int leafId, int k, Scoring scoring) {
+        if (bands == 0) {
+            return topK(leafId, k, scoring);
+        }
+        prepareQuery(scoring);
+        int count = 0;
+        int[] signature = signatures[leafId];
+        for (int band = 0; band < bands; band++) {
+            IntList bucket = buckets.get(bandKey(signature, band));
+            for (int i = 0; bucket != null && i < bucket.size; i++) {
+                int other = bucket.values[i];
+                if (other != leafId && seen[other] != queryStamp) {
+                    seen[other] = queryStamp;
+                    candidates = ensureCapacity(candidates, count + 1);
+                    candidates[count++] = other;
+                }
+            }
+        }
+        return rank(leafId, count, k, scoring);
+    }
+
+    private void prepareQuery(Scoring scoring) {
+        if (++queryStamp == 0) {
+            Arrays.fill(seen, 0);
+            queryStamp = 1;
+        }
+        if (scoring == Scoring.IDF && idfStale) {
+            recomputeIdf();
+        }
+    }
+
+    // Scores the first count candidates and keeps the best k in a min-heap keyed on (score, -id).
+    private java.util.List<Neighbor> rank(int leafId, int count, int k, Scoring scoring) {
+        if (heapIds.length < k) {
+            heapIds = new int[k];
+            heapScores = new double[k];
+        }
+        long[] query = features.leafBits(leafId);
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int other = candidates[i];
+            long[] bits = features.leafBits(other);
+            int common = 0;
+            double commonWeight = 0;
+            for (int w = Math.min(query.length, bits.length) - 1; w >= 0; w--) {
+                long both = query[w] & bits[w];
+                common += Long.bitCount(both);
+                if (scoring == Scoring.IDF) {
+                    while (both != 0) {
+                        commonWeight += idf[w * 64 + Long.numberOfTrailingZeros(both)];
+                        both &= both - 1;
+                    }
+                }
+            }
+            if (common == 0) {
+                continue;
+            }
+            overlap[other] = common;
+            double score = scoring == Scoring.IDF
+                ? commonWeight / (leafWeights[leafId] + leafWeights[other] - commonWeight)
+                : (double) common / (leafSizes[leafId] + leafSizes[other] - common);
+            if (size < k) {
+                heapIds[size] = other;
+                heapScores[size] = score;
+                siftUp(size++);
+            } else if (k > 0 && better(score, other, heapScores[0], heapIds[0])) {
+                heapIds[0] = other;
+                heapScores[0] = score;
+                siftDown(0, size);
+            }
+        }
+
+        Neighbor[] ranked = new Neighbor[size];
+        while (size > 0) {
+            int other = heapIds[0];
+            ranked[size - 1] = new Neighbor(features.leafName(other), heapScores[0], overlap[other]);
+            heapIds[0] = heapIds[size - 1];
+            heapScores[0] = heapScores[size - 1];
+            siftDown(0, --size);
+        }
+        return new ArrayList<>(Arrays.asList(ranked));
+    }
+
+    private static boolean better(double score, int id, double otherScore, int otherId) {
+        return score > otherScore || (score == otherScore && id < otherId);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(heapScores[parent], heapIds[parent], heapScores[i], heapIds[i])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && better(heapScores[smallest], heapIds[smallest], heapScores[left], heapIds[left])) {
+                smallest = left;
+            }
+            if (right < size && better(heapScores[smallest], heapIds[smallest], heapScores[right], heapIds[right])) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = heapIds[a];
+        heapIds[a] = heapIds[b];
+        heapIds[b] = id;
+        double score = heapScores[a];
+        heapScores[a] = heapScores[b];
+        heapScores[b] = score;
+    }
+
+    private void recomputeIdf() {
+        int leaves = features.leafCount();
+        idf = new double[features.featureCount()];
+        for (int f = 0; f < idf.length; f++) {
+            int df = FeatureIndex.cardinality(features.featureBits(f));
+            idf[f] = df == 0 ? 0 : Math.log(1.0 + (double) leaves / df);
+        }
+        leafWeights = new double[leaves];
+        for (int leafId = 0; leafId < leaves; leafId++) {
+            long[] bits = features.leafBits(leafId);
+            double weight = 0;
+            for (int f = FeatureIndex.nextSetBit(bits, 0); f >= 0; f = FeatureIndex.nextSetBit(bits, f + 1)) {
+                weight += idf[f];
+            }
+            leafWeights[leafId] = weight;
+        }
+        idfStale = false;
+    }
+
+    private int[] minHash(long[] bits) {
+        int[] signature = new int[bands * rows];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int f = FeatureIndex.nextSetBit(bits, 0); f >= 0; f = FeatureIndex.nextSetBit(bits, f + 1)) {
+            for (int h = 0; h < signature.length; h++) {
+                int value = (int) (mix(f * 0x9E3779B97F4A7C15L + HASH_SEEDS[h]) >>> 33);
+                if (value < signature[h]) {
+                    signature[h] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int r = band * rows; r < (band + 1) * rows; r++) {
+            key = mix(key * 31 + signature[r]);
+        }
+        return key;
+    }
+
+    // SplitMix64 finalizer.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private void ensureLeafCapacity(int leaves) {
+        if (leafSizes.length < leaves) {
+            int capacity = Math.max(leaves, leafSizes.length * 2);
+            leafSizes = Arrays.copyOf(leafSizes, capacity);
+            signatures = Arrays.copyOf(signatures, capacity);
+            overlap = Arrays.copyOf(overlap, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+        }
+    }
+
+    private static int[] ensureCapacity(int[] values, int size) {
+        return values.length >= size ? values : Arrays.copyOf(values, Math.max(size, values.length * 2));
+    }
+
+    private static final class IntList {
+        private int[] values = new int[2];
+        private int size;
+
+        void add(int value) {
+            values = ensureCapacity(values, size + 1);
+            values[size++] = value;
+        }
+
+        boolean remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Species come in genera of 20 that share a pool of features, so related species overlap the
+    // way real ones do; a quarter of each species' features are drawn from a skewed global pool.
+    static JSONObject syntheticCatalog(int species, int featureCount, int perLeaf, Random random) {
+        JSONObject catalog = new JSONObject();
+        for (int s = 0; s < species; s++) {
+            Random genus = new Random(s / 20);
+            int[] pool = new int[perLeaf + perLeaf / 2];
+            for (int i = 0; i < pool.length; i++) {
+                pool[i] = genus.nextInt(featureCount);
+            }
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < perLeaf; i++) {
+                int feature = i < perLeaf * 3 / 4
+                    ? pool[random.nextInt(pool.length)]
+                    : (int) (featureCount * Math.pow(random.nextDouble(), 2));
+                array.put("feature-" + feature);
+            }
+            catalog.put("species-" + s, array);
+        }
+        return catalog;
+    }
+}
@@ -0,0 +1,239 @@
+package com.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.*;
+import java.util.*;
+
+// One immutable version of the catalog. Species and trait names are interned to dense ids, every
+// trait string exists once however many species have it, and both directions are kept as flat
+// CSR arrays, species sorted by name: species -> trait ids and trait -> species ids (ascending, for merge intersections).
+final class SpeciesCatalog {
+    private static final int SNAPSHOT_MAGIC = 0x4C4B4231; // "LKB1"
+
+    private final String[] species;
+    private final String[] traits;
+    private final Map<String, Integer> speciesIds;
+    private final Map<String, Integer> traitIds;
+    private final int[] traitStart;
+    private final int[] speciesTraits;
+    private final int[] holderStart;
+    private final int[] traitHolders;
+    private final java.util.List<java.util.List<String>> traitLists;
+
+    static final class Snapshot {
+        final SpeciesCatalog catalog;
+        final long sourceSize;
+        final long sourceModified;
+
+        Snapshot(SpeciesCatalog catalog, long sourceSize, long sourceModified) {
+            this.catalog = catalog;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+        }
+    }
+
+    // Trait ids of species s are speciesTraits[traitStart[s] .. traitStart[s + 1]).
+    private SpeciesCatalog(String[] species, String[] traits, int[] traitStart, int[] speciesTraits) {
+        this.species = species;
+        this.traits = traits;
+        this.traitStart = traitStart;
+        this.speciesTraits = speciesTraits;
+        this.speciesIds = new HashMap<>(species.length * 2);
+        for (int s = 0; s < species.length; s++) {
+            speciesIds.put(species[s], s);
+        }
+        this.traitIds = new HashMap<>(traits.length * 2);
+        for (int t = 0; t < traits.length; t++) {
+            traitIds.put(traits[t], t);
+        }
+
+        this.holderStart = new int[traits.length + 1];
+        for (int i = 0; i < speciesTraits.length; i++) {
+            holderStart[speciesTraits[i] + 1]++;
+        }
+        for (int t = 0; t < traits.length; t++) {
+            holderStart[t + 1] += holderStart[t];
+        }
+        this.traitHolders = new int[speciesTraits.length];
+        int[] fill = Arrays.copyOf(holderStart, traits.length);
+        this.traitLists = new ArrayList<>(species.length);
+        for (int s = 0; s < species.length; s++) {
+            String[] names = new String[traitStart[s + 1] - traitStart[s]];
+            for (int i = traitStart[s]; i < traitStart[s + 1]; i++) {
+                traitHolders[fill[speciesTraits[i]]++] = s;
+                names[i - traitStart[s]] = traits[speciesTraits[i]];
+            }
+            traitLists.add(java.util.List.of(names));
+        }
+    }
+
+    // {"species": ["trait", ...], ...}; duplicate traits of one species are dropped, order is kept.
+    static SpeciesCatalog fromJson(JSONObject json) {
+        String[] species = json.keySet().toArray(new String[0]);
+        Arrays.sort(species);
+        Map<String, Integer> traitIds = new HashMap<>();
+        java.util.List<String> traits = new ArrayList<>();
+        int[] traitStart = new int[species.length + 1];
+        int[] speciesTraits = new int[16];
+        int count = 0;
+        Set<Integer> seen = new HashSet<>();
+        for (int s = 0; s < species.length; s++) {
+            JSONArray array = json.getJSONArray(species[s]);
+            seen.clear();
+            for (int i = 0; i < array.length(); i++) {
+                String trait = array.getString(i);
+                Integer id = traitIds.get(trait);
+                if (id == null) {
+                    id = traits.size();
+                    traitIds.put(trait, id);
+                    traits.add(trait);
+                }
+                if (seen.add(id)) {
+                    if (count == speciesTraits.length) {
+                        speciesTraits = Arrays.copyOf(speciesTraits, count * 2);
+                    }
+                    speciesTraits[count++] = id;
+                }
+            }
+            traitStart[s + 1] = count;
+        }
+        return new SpeciesCatalog(species, traits.toArray(new String[0]), traitStart, Arrays.copyOf(speciesTraits, count));
+    }
+
+    int speciesCount() {
+        return species.length;
+    }
+
+    int traitCount() {
+        return traits.length;
+    }
+
+    String species(int speciesId) {
+        return species[speciesId];
+    }
+
+    int speciesId(String name) {
+        Integer id = speciesIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    boolean contains(String name) {
+        return speciesIds.containsKey(name);
+    }
+
+    // Unmodifiable, shared between callers; empty for unknown species.
+    java.util.List<String> traits(String name) {
+        Integer id = speciesIds.get(name);
+        return id == null ? java.util.List.of() : traitLists.get(id);
+    }
+
+    JSONArray traitsJson(String name) {
+        return new JSONArray(traits(name));
+    }
+
+    // Species having every one of the traits, by name. Starts from the rarest trait.
+    java.util.List<String> speciesWithAllTraits(Collection<String> wanted) {
+        if (wanted.isEmpty()) {
+            return java.util.List.of();
+        }
+        int[] ids = new int[wanted.size()];
+        int n = 0;
+        for (String trait : wanted) {
+            Integer id = traitIds.get(trait);
+            if (id == null) {
+                return java.util.List.of();
+            }
+            ids[n++] = id;
+        }
+        int rarest = 0;
+        for (int i = 1; i < n; i++) {
+            if (holders(ids[i]) < holders(ids[rarest])) {
+                rarest = i;
+            }
+        }
+        java.util.List<String> result = new ArrayList<>();
+        int[] cursor = new int[n];
+        for (int i = 0; i < n; i++) {
+            cursor[i] = holderStart[ids[i]];
+        }
+        candidates:
+        for (int c = holderStart[ids[rarest]]; c < holderStart[ids[rarest] + 1]; c++) {
+            int candidate = traitHolders[c];
+            for (int i = 0; i < n; i++) {
+                int end = holderStart[ids[i] + 1];
+                while (cursor[i] < end && traitHolders[cursor[i]] < candidate) {
+                    cursor[i]++;
+                }
+                if (cursor[i] == end) {
+                    break candidates;
+                }
+                if (traitHolders[cursor[i]] != candidate) {
+                    continue candidates;
+                }
+            }
+            result.add(species[candidate]);
+        }
+        return result;
+    }
+
+    private int holders(int traitId) {
+        return holderStart[traitId + 1] - holderStart[traitId];
+    }
+
+    // Layout: magic, source size and mtime, trait names, then per species its name and trait ids.
+    void writeSnapshot(DataOutputStream out, long sourceSize, long sourceModified) throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(sourceSize);
+        out.writeLong(sourceModified);
+        out.writeInt(traits.length);
+        for (String trait : traits) {
+            out.writeUTF(trait);
+        }
+        out.writeInt(species.length);
+        for (int s = 0; s < species.length; s++) {
+            int n = traitStart[s + 1] - traitStart[s];
+            if (n > 0xFFFF) {
+                throw new IOException(species[s] + " has too many traits for a snapshot: " + n);
+            }
+            out.writeUTF(species[s]);
+            out.writeShort(n);
+            for (int i = traitStart[s]; i < traitStart[s + 1]; i++) {
+                out.writeInt(speciesTraits[i]);
+            }
+        }
+    }
+
+    static Snapshot readSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a species catalog snapshot");
+        }
+        long sourceSize = in.readLong();
+        long sourceModified = in.readLong();
+        String[] traits = new String[in.readInt()];
+        for (int t = 0; t < traits.length; t++) {
+            traits[t] = in.readUTF();
+        }
+        String[] species = new String[in.readInt()];
+        int[] traitStart = new int[species.length + 1];
+        int[] speciesTraits = new int[Math.max(16, species.length * 4)];
+        int count = 0;
+        for (int s = 0; s < species.length; s++) {
+            species[s] = in.readUTF();
+            int n = in.readUnsignedShort();
+            if (count + n > speciesTraits.length) {
+                speciesTraits = Arrays.copyOf(speciesTraits, Math.max(count + n, speciesTraits.length * 2));
+            }
+            for (int i = 0; i < n; i++) {
+                int id = in.readInt();
+                if (id < 0 || id >= traits.length) {
+                    throw new IOException("Corrupt species catalog snapshot: trait id " + id);
+                }
+                speciesTraits[count++] = id;
+            }
+            traitStart[s + 1] = count;
+        }
+        SpeciesCatalog catalog = new SpeciesCatalog(species, traits, traitStart, Arrays.copyOf(speciesTraits, count));
+        return new Snapshot(catalog, sourceSize, sourceModified);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example;
+
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The species -> traits catalog (information.json), loaded once and shared by the inference
+// backends and the feature graph. Readers get an immutable SpeciesCatalog from get(), a single
+// volatile read; when the file changes, a new catalog is built on the watcher thread and swapped in
+// whole, so a reader sees either the old or the new version and never waits for a reload.
+//
+// A binary snapshot of the catalog can be kept next to it: it is read instead of the JSON while it
+// matches the JSON file's size and modification time, and rewritten whenever the JSON is parsed.
+class SpeciesKnowledgeBase implements AutoCloseable {
+    private static final long RELOAD_SETTLE_MILLIS = 200;
+
+    private final Path catalogFile;
+    private final Path snapshotFile;
+    private final AtomicReference<SpeciesCatalog> current = new AtomicReference<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    private SpeciesKnowledgeBase(Path catalogFile, Path snapshotFile) {
+        this.catalogFile = catalogFile;
+        this.snapshotFile = snapshotFile;
+    }
+
+    // Loads the catalog, from the snapshot when it is up to date. snapshotFile may be null.
+    static SpeciesKnowledgeBase open(Path catalogFile, Path snapshotFile) throws IOException {
+        SpeciesKnowledgeBase knowledgeBase = new SpeciesKnowledgeBase(catalogFile, snapshotFile);
+        knowledgeBase.current.set(knowledgeBase.load(true));
+        return knowledgeBase;
+    }
+
+    // Shared instance configured with -D flags:
+    //   leaf.catalog           species -> traits JSON (default information.json)
+    //   leaf.catalog.snapshot  binary snapshot to start from and keep up to date (default: none)
+    //   leaf.catalog.watch     reload when the catalog file changes (default true)
+    static SpeciesKnowledgeBase fromSystemProperties() {
+        return Shared.INSTANCE;
+    }
+
+    private static final class Shared {
+        static final SpeciesKnowledgeBase INSTANCE = create();
+
+        private static SpeciesKnowledgeBase create() {
+            String snapshot = System.getProperty("leaf.catalog.snapshot");
+            try {
+                SpeciesKnowledgeBase knowledgeBase = open(Paths.get(System.getProperty("leaf.catalog", "information.json")),
+                    snapshot == null ? null : Paths.get(snapshot));
+                if (Boolean.parseBoolean(System.getProperty("leaf.catalog.watch", "true"))) {
+                    knowledgeBase.watch();
+                }
+                return knowledgeBase;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load species catalog: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    SpeciesCatalog get() {
+        return current.get();
+    }
+
+    // Starts a daemon thread that reloads the catalog whenever its file is written or replaced.
+    // A catalog that fails to parse is reported and the previous version stays in use.
+    synchronized void watch() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        Path directory = catalogFile.toAbsolutePath().getParent();
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher = new Thread(this::watchLoop, "species-catalog-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop() {
+        Path fileName = catalogFile.getFileName();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = drain(key, fileName);
+                // Editors and copies often write in several steps; wait for them to settle.
+                WatchKey more;
+                while ((more = watchService.poll(RELOAD_SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= drain(more, fileName);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private static boolean drain(WatchKey key, Path fileName) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+        }
+        key.reset();
+        return changed;
+    }
+
+    // Re-reads the catalog file and swaps it in. Returns false, keeping the current catalog, on failure.
+    boolean reload() {
+        try {
+            current.set(load(false));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Keeping the previous species catalog, failed to reload " + catalogFile + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private SpeciesCatalog load(boolean allowSnapshot) throws IOException {
+        boolean haveCatalog = Files.exists(catalogFile);
+        long size = haveCatalog ? Files.size(catalogFile) : -1;
+        long modified = haveCatalog ? Files.getLastModifiedTime(catalogFile).toMillis() : -1;
+        if (allowSnapshot && snapshotFile != null && Files.exists(snapshotFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile), 1 << 16))) {
+                SpeciesCatalog.Snapshot snapshot = SpeciesCatalog.readSnapshot(in);
+                if (!haveCatalog || (snapshot.sourceSize == size && snapshot.sourceModified == modified)) {
+                    return snapshot.catalog;
+                }
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable species catalog snapshot " + snapshotFile + ": " + e.getMessage());
+            }
+        }
+        SpeciesCatalog catalog = SpeciesCatalog.fromJson(new JSONObject(Files.readString(catalogFile, StandardCharsets.UTF_8)));
+        if (snapshotFile != null) {
+            try {
+                writeSnapshot(catalog, size, modified);
+            } catch (IOException e) {
+                System.err.println("Failed to write species catalog snapshot " + snapshotFile + ": " + e.getMessage());
+            }
+        }
+        return catalog;
+    }
+
+    private void writeSnapshot(SpeciesCatalog catalog, long sourceSize, long sourceModified) throws IOException {
+        Path directory = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                catalog.writeSnapshot(out, sourceSize, sourceModified);
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+}
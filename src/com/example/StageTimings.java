@@ -0,0 +1,32 @@
+package com.example;
+
+import org.json.JSONObject;
+
+// Wall-clock time spent in each stage of one classification, reported as "timings_ms".
+class StageTimings {
+    long decodeNanos;
+    long preprocessNanos;
+    long forwardNanos;
+    long postprocessNanos;
+
+    StageTimings copy() {
+        StageTimings copy = new StageTimings();
+        copy.decodeNanos = decodeNanos;
+        copy.preprocessNanos = preprocessNanos;
+        copy.forwardNanos = forwardNanos;
+        copy.postprocessNanos = postprocessNanos;
+        return copy;
+    }
+
+    JSONObject toJson() {
+        return new JSONObject()
+            .put("decode", millis(decodeNanos))
+            .put("preprocess", millis(preprocessNanos))
+            .put("forward", millis(forwardNanos))
+            .put("postprocess", millis(postprocessNanos));
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Java end of the framed binary protocol described in tensor_protocol.py. Frames are written
+// straight from direct buffers with gathering writes, and the payload buffer of received frames
+// is reused, so the hot path neither copies nor parses text. Every operation takes a deadline.
+class TensorChannel implements Closeable {
+    static final int HEADER_BYTES = 36;
+    static final int PREDICT = 1, PING = 2, PROBABILITIES = 3, PONG = 4, ERROR = 5, HELLO = 6;
+    private static final int MAGIC = 'L' | 'F' << 8 | 'T' << 16 | '1' << 24;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer[] frame = new ByteBuffer[2];
+    private final int[] shape = new int[4];
+    private ByteBuffer payload = ByteBuffer.allocateDirect(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private int type;
+    private long id;
+
+    TensorChannel(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.key = channel.register(selector, 0);
+    }
+
+    // body is sent from its position to its limit; it may be null for header-only frames.
+    void send(int frameType, long requestId, ByteBuffer body, int d0, int d1, int d2, int d3, long deadlineNanos)
+            throws IOException, InterruptedException {
+        ByteBuffer content = body == null ? EMPTY.duplicate() : body;
+        header.clear();
+        header.putInt(MAGIC).putInt(frameType).putLong(requestId).putInt(content.remaining())
+            .putInt(d0).putInt(d1).putInt(d2).putInt(d3);
+        header.flip();
+        frame[0] = header;
+        frame[1] = content;
+        try {
+            while (header.hasRemaining() || content.hasRemaining()) {
+                if (channel.write(frame) == 0) {
+                    await(SelectionKey.OP_WRITE, deadlineNanos);
+                }
+            }
+        } finally {
+            frame[1] = null;
+        }
+    }
+
+    // Reads one whole frame. The returned payload is only valid until the next receive().
+    ByteBuffer receive(long deadlineNanos) throws IOException, InterruptedException {
+        header.clear();
+        readFully(header, deadlineNanos);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Corrupt frame from inference worker");
+        }
+        type = header.getInt();
+        id = header.getLong();
+        int length = header.getInt();
+        for (int i = 0; i < shape.length; i++) {
+            shape[i] = header.getInt();
+        }
+        if (payload.capacity() < length) {
+            payload = ByteBuffer.allocateDirect(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        payload.clear().limit(length);
+        readFully(payload, deadlineNanos);
+        payload.flip();
+        return payload;
+    }
+
+    int type() {
+        return type;
+    }
+
+    long id() {
+        return id;
+    }
+
+    int shape(int dimension) {
+        return shape[dimension];
+    }
+
+    // Payload of the last HELLO or ERROR frame.
+    String text() {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void readFully(ByteBuffer buffer, long deadlineNanos) throws IOException, InterruptedException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                throw new EOFException("Inference worker closed the connection");
+            }
+            if (read == 0) {
+                await(SelectionKey.OP_READ, deadlineNanos);
+            }
+        }
+    }
+
+    private void await(int operation, long deadlineNanos) throws IOException, InterruptedException {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Timed out waiting for the inference worker");
+        }
+        key.interestOps(operation);
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        selector.selectedKeys().clear();
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            selector.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import struct
+import sys
+import time
+import zlib
+import tensor_protocol
+
+# Drop-in replacement for `python infer.py --worker <socket_path>` that needs no TensorFlow.
+# Each image gets 0.9 probability on a label picked from a checksum of its tensor, and as embedding
+# the gray levels of an 8x8 grid of sample points, centred on their mean.
+# --labels reads the label list like infer.py does; --model is accepted and ignored.
+#   python stub_worker.py [--delay-ms N] [--startup-ms N] [--crash-after N] [--labels labels.txt] <socket_path>
+
+labels = ['Acer Palmatum', 'Cedrus Deodara', 'Cercis Chinensis', 'Citrus Reticulata Blanco', 
+          'Ginkgo Biloba', 'Liriodendron Chinense', 'Nerium Oleander']
+
+def option(name, default):
+    if name in sys.argv:
+        return int(sys.argv[sys.argv.index(name) + 1])
+    return default
+
+def main():
+    if "--labels" in sys.argv:
+        with open(sys.argv[sys.argv.index("--labels") + 1], 'r') as f:
+            labels[:] = [line.strip() for line in f if line.strip()]
+    delay_ms = option("--delay-ms", 0)
+    crash_after = option("--crash-after", -1)
+    served = [0]
+    load_start = time.perf_counter()
+    time.sleep(option("--startup-ms", 0) / 1000.0)
+    load_ms = (time.perf_counter() - load_start) * 1000
+
+    def predict(payload, shape):
+        served[0] += 1
+        if served[0] == crash_after:
+            sys.exit(3)
+        time.sleep(delay_ms / 1000.0)
+        count = shape[0]
+        image_bytes = len(payload) // max(1, count)
+        probabilities = []
+        for i in range(count):
+            label = zlib.crc32(payload[i * image_bytes:(i + 1) * image_bytes]) % len(labels)
+            probabilities += [0.9 if c == label else 0.1 / (len(labels) - 1) for c in range(len(labels))]
+        embeddings = []
+        for i in range(count):
+            grid = []
+            for cy in range(8):
+                for cx in range(8):
+                    y, x = (cy * 2 + 1) * 225 // 16, (cx * 2 + 1) * 225 // 16
+                    grid.append(sum(struct.unpack_from('<3f', payload, i * image_bytes + (y * 225 + x) * 12)))
+            mean = sum(grid) / len(grid)
+            embeddings += [v - mean for v in grid]
+        return (struct.pack('<%df' % len(probabilities), *probabilities),
+                struct.pack('<%df' % len(embeddings), *embeddings), 64)
+
+    tensor_protocol.serve(sys.argv[-1], labels, predict, load_ms=load_ms)
+
+if __name__ == "__main__":
+    main()
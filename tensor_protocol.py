@@ -0,0 +1,62 @@
+import socket
+import struct
+
+# Framed binary protocol spoken with the Java side (TensorChannel.java) over a Unix domain socket.
+# Every frame is a 36-byte little-endian header followed by a raw payload:
+#   magic b'LFT1' | uint32 type | uint64 request id | uint32 payload bytes | uint32 shape[4]
+# PREDICT carries float32 NHWC tensors (shape = count, height, width, channels) and is answered
+# with PROBABILITIES, float32 (shape = count, classes, embedding size): count x classes probabilities,
+# then count x embedding size penultimate-layer activations if the worker has them (embedding size
+# 0 otherwise). HELLO and ERROR carry UTF-8 text; HELLO's
+# shape is (classes, import ms, model load ms, 0) so the Java side can report worker startup costs.
+# stdout/stderr are left to logging; no protocol data goes through them.
+
+HEADER = struct.Struct('<4sIQI4I')
+MAGIC = b'LFT1'
+PREDICT, PING, PROBABILITIES, PONG, ERROR, HELLO = 1, 2, 3, 4, 5, 6
+
+def read_exact(sock, view):
+    while len(view):
+        received = sock.recv_into(view)
+        if received == 0:
+            return False
+        view = view[received:]
+    return True
+
+def send_frame(sock, frame_type, request_id, payload=b'', shape=(0, 0, 0, 0)):
+    sock.sendall(HEADER.pack(MAGIC, frame_type, request_id, len(payload), *shape))
+    if payload:
+        sock.sendall(payload)
+
+def serve(socket_path, labels, predict, import_ms=0, load_ms=0):
+    # predict(payload, shape) returns the float32 probabilities for the batch as bytes, or a tuple of
+    # (probabilities, embeddings, embedding size) with both as float32 bytes.
+    sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    sock.connect(socket_path)
+    send_frame(sock, HELLO, 0, '\n'.join(labels).encode('utf-8'),
+               (len(labels), int(round(import_ms)), int(round(load_ms)), 0))
+    header = bytearray(HEADER.size)
+    payload = bytearray(0)
+    while True:
+        if not read_exact(sock, memoryview(header)):
+            return  # Java closed the connection
+        magic, frame_type, request_id, length, *shape = HEADER.unpack(header)
+        if magic != MAGIC:
+            raise ValueError("Bad frame magic %r" % magic)
+        if len(payload) < length:
+            payload = bytearray(length)
+        body = memoryview(payload)[:length]
+        if not read_exact(sock, body):
+            return
+        if frame_type == PING:
+            send_frame(sock, PONG, request_id)
+        elif frame_type == PREDICT:
+            try:
+                output = predict(body, shape)
+                probabilities, embeddings, embedding_size = output if isinstance(output, tuple) else (output, b'', 0)
+                send_frame(sock, PROBABILITIES, request_id, probabilities + embeddings,
+                           (shape[0], len(labels), embedding_size, 0))
+            except Exception as e:
+                send_frame(sock, ERROR, request_id, str(e).encode('utf-8'))
+        else:
+            send_frame(sock, ERROR, request_id, ("Unknown frame type %d" % frame_type).encode('utf-8'))
@@ -1,3 +1,5 @@
+import os
+import sys
 from tensorflow.keras.preprocessing.image import ImageDataGenerator
 from keras.models import Sequential
 from keras.layers import Conv2D, MaxPooling2D, Flatten, Dense
@@ -13,7 +15,11 @@ def create_model():
     model.add(Dense(7, activation='softmax'))
     model.compile(optimizer='adam', loss='categorical_crossentropy', metrics=['accuracy'])
     return model
+# python train.py [output_dir]
+# With output_dir, writes output_dir/model.keras and output_dir/labels.txt, a model version the Java
+# ModelRegistry can load (see README, "Model versions"); otherwise model.keras in the current directory.
 def main():
+    output_dir = sys.argv[1] if len(sys.argv) > 1 else None
     train_datagen = ImageDataGenerator(rescale=1./255, shear_range=0.2, zoom_range=0.2, horizontal_flip=True)
     test_datagen = ImageDataGenerator(rescale=1./255)
 
@@ -35,7 +41,14 @@ def main():
                         validation_batch_size=16
                         )
 
-    model.save("model.keras")
+    if output_dir is None:
+        model.save("model.keras")
+        return
+    os.makedirs(output_dir, exist_ok=True)
+    model.save(os.path.join(output_dir, "model.keras"))
+    with open(os.path.join(output_dir, "labels.txt"), 'w') as f:
+        for label in sorted(train_generator.class_indices, key=train_generator.class_indices.get):
+            f.write(label + "\n")
 
 if __name__ == "__main__": 
     main()
\ No newline at end of file